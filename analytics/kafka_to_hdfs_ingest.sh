@@ -1,85 +1,61 @@
 #!/bin/bash
 #
-# Continuously read analytics events from Kafka and land them in HDFS.
-# Requires kafka-console-consumer and the hdfs CLI to be available on PATH.
+# Continuously archive analytics events from Kafka into HDFS with the Java
+# ingester (ingest.ArchiveIngester). Needs ./compile.sh to have been run and
+# the hdfs CLI on PATH (or HDFS_CMD).
+#
+# The ingester reads the topic in a consumer group and commits offsets only
+# after a segment is in HDFS, so a restart resumes where it stopped instead of
+# re-reading the topic. Segments are gzip-compressed and land in
+# ${HDFS_TARGET}/YYYY/MM/DD/HH/events-<instance>-<start ms>.log.gz.
 #
 # Environment variables:
-#   KAFKA_BOOTSTRAP - Kafka bootstrap servers (default localhost:9092)
-#   KAFKA_TOPIC     - Kafka topic to consume (default game-analytics)
-#   HDFS_TARGET     - HDFS base directory (default /game24/raw-events)
-#   FLUSH_EVERY     - Number of records per HDFS flush (default 100)
-#   BATCH_SECONDS   - Max seconds between flushes (default 60)
+#   KAFKA_BOOTSTRAP  - Kafka bootstrap servers (default localhost:9092)
+#   KAFKA_TOPIC      - Kafka topic to consume (default game-analytics)
+#   KAFKA_GROUP      - Consumer group (default game24-archive)
+#   HDFS_TARGET      - HDFS base directory (default /game24/raw-events)
+#   HDFS_CMD         - hdfs executable (default hdfs)
+#   STAGING_DIR      - Local directory for the open segment, one per ingester
+#                      (default data/ingest-staging)
+#   FLUSH_EVERY      - Events per local flush (default 5000)
+#   FLUSH_MS         - Max milliseconds between local flushes (default 2000)
+#   SEGMENT_SECONDS  - Max age of a segment before it is published (default 600)
+#   SEGMENT_BYTES    - Max compressed size of a segment (default 134217728)
+#   INGEST_SINK      - hdfs, or local to write under HDFS_TARGET on local disk
+#                      for testing (default hdfs)
 
 set -euo pipefail
 
-KAFKA_BOOTSTRAP="${KAFKA_BOOTSTRAP:-localhost:9092}"
-KAFKA_TOPIC="${KAFKA_TOPIC:-game-analytics}"
-HDFS_TARGET="${HDFS_TARGET:-/game24/raw-events}"
-FLUSH_EVERY="${FLUSH_EVERY:-100}"
-BATCH_SECONDS="${BATCH_SECONDS:-60}"
+SCRIPT_DIR="$(cd "$(dirname "$0")" && pwd)"
+ROOT_DIR="$(cd "${SCRIPT_DIR}/.." && pwd)"
+cd "${ROOT_DIR}"
+
+INGEST_SINK="${INGEST_SINK:-hdfs}"
+HDFS_CMD="${HDFS_CMD:-hdfs}"
 
-if ! command -v kafka-console-consumer.sh >/dev/null 2>&1; then
-  echo "[ingest] kafka-console-consumer.sh not found in PATH" >&2
+if [[ ! -d bin/ingest ]]; then
+  echo "[ingest] Run ./compile.sh first" >&2
   exit 1
 fi
 
-if ! command -v hdfs >/dev/null 2>&1; then
-  echo "[ingest] hdfs CLI not found in PATH" >&2
+if [[ "${INGEST_SINK}" == "hdfs" ]] && ! command -v "${HDFS_CMD}" >/dev/null 2>&1; then
+  echo "[ingest] hdfs CLI not found (${HDFS_CMD})" >&2
   exit 1
 fi
 
-TMP_DIR="$(mktemp -d -t kafka-ingest-XXXXXX)"
-TMP_BATCH="${TMP_DIR}/batch.log"
-trap 'rm -rf "${TMP_DIR}"' EXIT
-
-echo "[ingest] Starting Kafka->HDFS ingestion"
-echo "[ingest] Kafka bootstrap: ${KAFKA_BOOTSTRAP}"
-echo "[ingest] Topic: ${KAFKA_TOPIC}"
-echo "[ingest] HDFS target: ${HDFS_TARGET}"
-
-mkdir -p "${TMP_DIR}"
-touch "${TMP_BATCH}"
-COUNT=0
-LAST_FLUSH=$(date +%s)
-
-flush_batch() {
-  local now path hour_path file_path
-  now=$(date +%s)
-  if [[ ! -s "${TMP_BATCH}" ]]; then
-    LAST_FLUSH="${now}"
-    return
-  fi
-
-  hour_path="$(date -u +%Y/%m/%d/%H)"
-  path="${HDFS_TARGET}/${hour_path}"
-  file_path="${path}/events-${HOSTNAME}.log"
-
-  hdfs dfs -mkdir -p "${path}"
-  if ! hdfs dfs -test -e "${file_path}"; then
-    hdfs dfs -touchz "${file_path}"
-  fi
-  hdfs dfs -appendToFile "${TMP_BATCH}" "${file_path}"
-  : > "${TMP_BATCH}"
-  COUNT=0
-  LAST_FLUSH="${now}"
-  echo "[ingest] Flushed batch to ${file_path}"
-}
-
-kafka-console-consumer.sh \
-  --bootstrap-server "${KAFKA_BOOTSTRAP}" \
-  --topic "${KAFKA_TOPIC}" \
-  --property print.value=true \
-  --property print.timestamp=true \
-  --from-beginning |
-while IFS= read -r line; do
-  printf '%s\n' "${line}" >> "${TMP_BATCH}"
-  COUNT=$((COUNT + 1))
-  now=$(date +%s)
-  if [[ "${COUNT}" -ge "${FLUSH_EVERY}" || $((now - LAST_FLUSH)) -ge "${BATCH_SECONDS}" ]]; then
-    flush_batch
-  fi
-done
-
-flush_batch
-
-
+CLASSPATH="${ROOT_DIR}/bin:${ROOT_DIR}/lib/kafka-clients-3.5.1.jar:${ROOT_DIR}/lib/slf4j-api-1.7.36.jar:${ROOT_DIR}/lib/lz4-java-1.8.0.jar:${ROOT_DIR}/lib/snappy-java-1.1.10.5.jar:${ROOT_DIR}/lib/zstd-jni-1.5.5-5.jar"
+
+exec java -Dfile.encoding=UTF-8 \
+  -classpath "${CLASSPATH}" \
+  -DKAFKA_BOOTSTRAP="${KAFKA_BOOTSTRAP:-localhost:9092}" \
+  -DKAFKA_TOPIC="${KAFKA_TOPIC:-game-analytics}" \
+  -DINGEST_GROUP="${KAFKA_GROUP:-game24-archive}" \
+  -DINGEST_SINK="${INGEST_SINK}" \
+  -DINGEST_TARGET="${HDFS_TARGET:-/game24/raw-events}" \
+  -DHDFS_CMD="${HDFS_CMD}" \
+  -DINGEST_STAGING_DIR="${STAGING_DIR:-data/ingest-staging}" \
+  -DINGEST_FLUSH_RECORDS="${FLUSH_EVERY:-5000}" \
+  -DINGEST_FLUSH_MS="${FLUSH_MS:-2000}" \
+  -DINGEST_SEGMENT_SECONDS="${SEGMENT_SECONDS:-600}" \
+  -DINGEST_SEGMENT_BYTES="${SEGMENT_BYTES:-134217728}" \
+  ingest.ArchiveIngester
@@ -6,18 +6,73 @@ by the server (via Kafka) and emits per-player statistics.
 Input:  JSON lines such as
 {
   "event_type": "GAME_FINISHED",
+  "schema_version": 2,
+  "game_id": 1700793414000001,
   "winner": "ali",
   "duration_ms": 42000,
   "players": [{"username": "ali", "won": true}, ...],
   "timestamp": 1700793456123
 }
+or the same event in the server's compact binary format, archived as a line
+"b64:" followed by its Base64 (see server.AnalyticsEvents).
 
 Output: key\tvalue where value is a CSV payload:
 username\tgames_played,games_won,total_time_ms
 """
+import base64
+import binascii
 import json
 import sys
 
+BINARY_PREFIX = "b64:"
+BINARY_MAGIC = 0xA4
+SCHEMA_VERSION = 2
+TYPE_GAME_FINISHED = 1
+
+
+def read_varint(data: bytes, pos: int):
+    value = 0
+    shift = 0
+    while True:
+        byte = data[pos]
+        pos += 1
+        value |= (byte & 0x7F) << shift
+        if not byte & 0x80:
+            return value, pos
+        shift += 7
+
+
+def decode_binary(data: bytes):
+    """Decode a binary GAME_FINISHED event into the same dict the JSON form parses to."""
+    if len(data) < 3 or data[0] != BINARY_MAGIC or not 1 <= data[1] <= SCHEMA_VERSION:
+        raise ValueError("not a supported binary event")
+    if data[2] != TYPE_GAME_FINISHED:
+        return {"event_type": data[2]}
+    pos = 3
+    game_id = 0
+    if data[1] >= 2:
+        game_id, pos = read_varint(data, pos)
+    timestamp, pos = read_varint(data, pos)
+    duration, pos = read_varint(data, pos)
+    count, pos = read_varint(data, pos)
+    players = []
+    for _ in range(count):
+        length, pos = read_varint(data, pos)
+        username = data[pos:pos + length].decode("utf-8")
+        pos += length
+        players.append({"username": username, "won": data[pos] != 0})
+        pos += 1
+    winner, pos = read_varint(data, pos)
+    return {
+        "event_type": "GAME_FINISHED",
+        "schema_version": data[1],
+        "game_id": game_id,
+        "winner": players[winner - 1]["username"] if winner else "None",
+        "duration_ms": duration,
+        "players": players,
+        "timestamp": timestamp,
+    }
+
 
 def emit(username: str, played: int, won: int, total_time_ms: int) -> None:
     payload = f"{played},{won},{total_time_ms}"
@@ -32,8 +87,12 @@ def main() -> None:
         if "\t" in line:
             line = line.split("\t", 1)[1]
         try:
-            event = json.loads(line)
-        except json.JSONDecodeError:
+            if line.startswith(BINARY_PREFIX):
+                event = decode_binary(base64.b64decode(line[len(BINARY_PREFIX):], validate=True))
+            else:
+                event = json.loads(line)
+        except (ValueError, IndexError, binascii.Error):
+            # json.JSONDecodeError and UnicodeDecodeError are ValueErrors
             continue
 
         if event.get("event_type") != "GAME_FINISHED":
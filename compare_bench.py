@@ -0,0 +1,56 @@
+#!/usr/bin/env python3
+"""Compare two JMH JSON result files written by run_bench.sh.
+
+Usage: compare_bench.py BASELINE.json CANDIDATE.json [THRESHOLD_PERCENT]
+
+Prints every benchmark's score in both runs and exits with status 1 if any
+got worse by more than the threshold (default 10%). Lower is better for time
+modes (avgt, sample, ss) and higher is better for throughput (thrpt).
+"""
+import json
+import sys
+
+
+def load(path):
+    with open(path) as f:
+        results = json.load(f)
+    scores = {}
+    for r in results:
+        params = ",".join("%s=%s" % kv for kv in sorted(r.get("params", {}).items()))
+        name = r["benchmark"] + ("(" + params + ")" if params else "")
+        metric = r["primaryMetric"]
+        scores[name] = (r["mode"], metric["score"], metric.get("scoreError", 0.0), metric["scoreUnit"])
+    return scores
+
+
+def main():
+    if len(sys.argv) < 3:
+        print(__doc__)
+        sys.exit(2)
+    base = load(sys.argv[1])
+    cand = load(sys.argv[2])
+    threshold = float(sys.argv[3]) if len(sys.argv) > 3 else 10.0
+
+    regressions = 0
+    for name in sorted(set(base) | set(cand)):
+        if name not in base or name not in cand:
+            print("%-90s only in %s" % (name, "baseline" if name in base else "candidate"))
+            continue
+        mode, old, _, unit = base[name]
+        _, new, new_err, _ = cand[name]
+        change = (new - old) / old * 100 if old else 0.0
+        worse = -change if mode == "thrpt" else change
+        flag = ""
+        # A change inside the candidate's own error bar is noise, not a regression
+        if worse > threshold and abs(new - old) > new_err:
+            flag = "  REGRESSION"
+            regressions += 1
+        print("%-90s %12.3f -> %12.3f %-8s %+7.1f%%%s" % (name, old, new, unit, change, flag))
+
+    if regressions:
+        print("%d benchmark(s) regressed by more than %.0f%%" % (regressions, threshold))
+        sys.exit(1)
+
+
+if __name__ == "__main__":
+    main()
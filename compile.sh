@@ -22,9 +22,15 @@ javac -d bin -cp $CLASSPATH src/common/*.java
 echo "Compiling server implementation..."
 javac -d bin -cp $CLASSPATH src/server/*.java
 
+echo "Compiling archive ingester..."
+javac -d bin -cp $CLASSPATH src/ingest/*.java
+
 echo "Compiling client classes..."
 javac -d bin -cp $CLASSPATH src/client/*.java
 
+echo "Compiling load generator..."
+javac -d bin -cp $CLASSPATH src/loadgen/*.java
+
 mkdir -p bin/client/cards
 cp src/client/cards/*.png bin/client/cards/
 
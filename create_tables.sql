@@ -16,9 +16,26 @@ CREATE TABLE IF NOT EXISTS OnlineUser (
 );
 
 -- 4) Game stats persistence (played/won and total time)
+--    avg_ms and the binary username collation give the leaderboard order
+--    (games_won DESC, avg_ms ASC, username DESC), which matches the Redis
+--    rank score; idx_user_stats_leaderboard serves it for keyset pagination.
 CREATE TABLE IF NOT EXISTS user_stats (
-  username VARCHAR(255) PRIMARY KEY,
+  username VARCHAR(255) COLLATE utf8mb4_bin PRIMARY KEY,
   games_played INT NOT NULL DEFAULT 0,
   games_won INT NOT NULL DEFAULT 0,
-  total_time BIGINT NOT NULL DEFAULT 0
-); 
\ No newline at end of file
+  total_time BIGINT NOT NULL DEFAULT 0,
+  avg_ms BIGINT AS (CASE WHEN games_won > 0 THEN LEAST(total_time DIV games_won, 16777215) ELSE 0 END) STORED,
+  INDEX idx_user_stats_leaderboard (games_won DESC, avg_ms ASC, username DESC)
+);
+--    Upgrading an existing user_stats table:
+-- ALTER TABLE user_stats
+--   MODIFY username VARCHAR(255) COLLATE utf8mb4_bin NOT NULL,
+--   ADD COLUMN avg_ms BIGINT AS (CASE WHEN games_won > 0 THEN LEAST(total_time DIV games_won, 16777215) ELSE 0 END) STORED,
+--   ADD INDEX idx_user_stats_leaderboard (games_won DESC, avg_ms ASC, username DESC);
+
+-- 5) Newest stats journal segment already applied to user_stats
+--    (the server also creates this on startup)
+CREATE TABLE IF NOT EXISTS stats_journal_checkpoint (
+  id TINYINT PRIMARY KEY,
+  last_segment BIGINT NOT NULL
+);
@@ -0,0 +1,51 @@
+#!/bin/bash
+#
+# Run the JMH benchmarks under src/bench and keep the results as JSON.
+#
+# Usage: ./run_bench.sh [JMH options...]   e.g. ./run_bench.sh SerializationBench -f 1
+#
+# Needs ./compile.sh to have been run, and the JMH jars in lib/jmh:
+#   org.openjdk.jmh:jmh-core:1.37, org.openjdk.jmh:jmh-generator-annprocess:1.37,
+#   net.sf.jopt-simple:jopt-simple:5.0.4, org.apache.commons:commons-math3:3.6.1
+# The Redis benchmarks start a throwaway redis-server on BENCH_REDIS_PORT and are
+# skipped if redis-server is not installed. Compare two runs with compare_bench.py.
+
+CURRENT_DIR="$(cd "$(dirname "$0")" && pwd)"
+cd "${CURRENT_DIR}"
+
+JMH_DIR="${CURRENT_DIR}/lib/jmh"
+JMH_CP="$(ls "${JMH_DIR}"/*.jar 2>/dev/null | tr '\n' ':')"
+if [ -z "${JMH_CP}" ]; then
+  echo "No JMH jars in ${JMH_DIR}; see the header of this script for the ones needed."
+  exit 1
+fi
+if [ ! -d bin/server ]; then
+  echo "Run ./compile.sh first."
+  exit 1
+fi
+
+CLASSPATH="${CURRENT_DIR}/bin:${CURRENT_DIR}/lib/mysql-connector-j-8.0.31.jar:${CURRENT_DIR}/lib/kafka-clients-3.5.1.jar:${CURRENT_DIR}/lib/slf4j-api-1.7.36.jar:${CURRENT_DIR}/lib/lz4-java-1.8.0.jar:${CURRENT_DIR}/lib/snappy-java-1.1.10.5.jar:${CURRENT_DIR}/lib/zstd-jni-1.5.5-5.jar:${CURRENT_DIR}/lib/jedis-4.4.5.jar:${CURRENT_DIR}/lib/commons-pool2-2.11.1.jar:../glassfish5/mq/lib/jms.jar:../glassfish5/glassfish/lib/gf-client.jar"
+
+# The benchmarks share packages with the classes they measure, so they compile
+# into their own directory that is searched after bin
+echo "Compiling benchmarks..."
+rm -rf bench-bin && mkdir -p bench-bin
+javac -d bench-bin -cp "${CLASSPATH}:${JMH_CP}" -processorpath "${JMH_CP}" $(find src/bench -name "*.java") || exit 1
+
+BENCH_REDIS_PORT="${BENCH_REDIS_PORT:-6390}"
+EXCLUDE=()
+if command -v redis-server >/dev/null 2>&1; then
+  redis-server --port "${BENCH_REDIS_PORT}" --save "" --appendonly no --daemonize yes >/dev/null
+  trap 'redis-cli -p "${BENCH_REDIS_PORT}" shutdown nosave >/dev/null 2>&1' EXIT
+else
+  echo "redis-server not found; skipping RedisReadBench."
+  EXCLUDE=(-e RedisReadBench)
+fi
+
+# One file per run, named by time and commit, so runs can be compared later
+mkdir -p bench-results
+RESULT="bench-results/$(date +%Y%m%d-%H%M%S)-$(git rev-parse --short HEAD 2>/dev/null || echo nogit).json"
+java -Dfile.encoding=UTF-8 -DREDIS_PORT="${BENCH_REDIS_PORT}" \
+  -cp "bench-bin:${CLASSPATH}:${JMH_CP}" \
+  org.openjdk.jmh.Main "${EXCLUDE[@]}" -rf json -rff "${RESULT}" "$@" || exit 1
+echo "Results written to ${RESULT}"
@@ -0,0 +1,24 @@
+#!/bin/bash
+
+# Get the absolute path to the current directory
+CURRENT_DIR="$(cd "$(dirname "$0")" && pwd)"
+cd "${CURRENT_DIR}"
+
+# Source the environment
+source env.sh
+
+# Same classpath as the server: the in-memory mode runs a server in this JVM
+CLASSPATH="${CURRENT_DIR}/bin:${CURRENT_DIR}/lib/mysql-connector-j-8.0.31.jar:${CURRENT_DIR}/lib/kafka-clients-3.5.1.jar:${CURRENT_DIR}/lib/slf4j-api-1.7.36.jar:${CURRENT_DIR}/lib/lz4-java-1.8.0.jar:${CURRENT_DIR}/lib/snappy-java-1.1.10.5.jar:${CURRENT_DIR}/lib/zstd-jni-1.5.5-5.jar:${CURRENT_DIR}/lib/jedis-4.4.5.jar:${CURRENT_DIR}/lib/commons-pool2-2.11.1.jar:../glassfish5/mq/lib/jms.jar:../glassfish5/glassfish/lib/gf-client.jar"
+
+# Usage: ./run_loadgen.sh [memory|jms] [players] [duration seconds]
+#   extra settings: LOADGEN_THINK_MS, LOADGEN_CORRECT_RATIO, LOADGEN_RAMP_MS, LOADGEN_CONNECTIONS
+java ${JAVA_OPTS} -Dfile.encoding=UTF-8 \
+  -classpath "${CLASSPATH}" \
+  -DLOADGEN_TRANSPORT="${1:-memory}" \
+  -DLOADGEN_PLAYERS="${2:-1000}" \
+  -DLOADGEN_DURATION_S="${3:-60}" \
+  -DLOADGEN_THINK_MS="${LOADGEN_THINK_MS:-2000}" \
+  -DLOADGEN_CORRECT_RATIO="${LOADGEN_CORRECT_RATIO:-0.5}" \
+  -DLOADGEN_RAMP_MS="${LOADGEN_RAMP_MS:-5000}" \
+  -DLOADGEN_CONNECTIONS="${LOADGEN_CONNECTIONS:-1}" \
+  loadgen.LoadGenerator
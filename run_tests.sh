@@ -0,0 +1,29 @@
+#!/bin/bash
+#
+# Run the tests under src/test. Each test is a class with a main method that
+# exits non-zero on failure; they need no database, Redis, Kafka or GlassFish.
+#
+# Usage: ./run_tests.sh        (needs ./compile.sh to have been run)
+
+CURRENT_DIR="$(cd "$(dirname "$0")" && pwd)"
+cd "${CURRENT_DIR}"
+
+if [ ! -d bin/server ]; then
+  echo "Run ./compile.sh first."
+  exit 1
+fi
+
+CLASSPATH="${CURRENT_DIR}/bin:${CURRENT_DIR}/lib/mysql-connector-j-8.0.31.jar:${CURRENT_DIR}/lib/kafka-clients-3.5.1.jar:${CURRENT_DIR}/lib/slf4j-api-1.7.36.jar:${CURRENT_DIR}/lib/lz4-java-1.8.0.jar:${CURRENT_DIR}/lib/snappy-java-1.1.10.5.jar:${CURRENT_DIR}/lib/zstd-jni-1.5.5-5.jar:${CURRENT_DIR}/lib/jedis-4.4.5.jar:${CURRENT_DIR}/lib/commons-pool2-2.11.1.jar:../glassfish5/mq/lib/jms.jar:../glassfish5/glassfish/lib/gf-client.jar"
+
+# The tests share packages with the classes they exercise, so they compile
+# into their own directory that is searched after bin
+echo "Compiling tests..."
+rm -rf test-bin && mkdir -p test-bin
+javac -d test-bin -cp "${CLASSPATH}" $(find src/test -name "*.java") || exit 1
+
+FAILED=0
+for TEST in $(cd src/test && find . -name "*Test.java" | sed 's|^\./||; s|\.java$||; s|/|.|g'); do
+  echo "Running ${TEST}..."
+  java -Dfile.encoding=UTF-8 -cp "test-bin:${CLASSPATH}" "${TEST}" || FAILED=1
+done
+exit ${FAILED}
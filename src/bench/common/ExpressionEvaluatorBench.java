@@ -0,0 +1,60 @@
+package common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answer validation as a room does it for every submission: card check and
+ * exact evaluation in one pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionEvaluatorBench {
+    private static final List<Integer> CARDS = Arrays.asList(3, 8, 8, 3);
+
+    @Param({"correct", "incorrect", "wrongCards", "invalid"})
+    public String answer;
+
+    private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+    private String expression;
+
+    @Setup
+    public void setup() {
+        switch (answer) {
+            case "correct":
+                expression = "8/(3-8/3)";
+                break;
+            case "incorrect":
+                expression = "(8+8)*3/3";
+                break;
+            case "wrongCards":
+                expression = "8*3*1";
+                break;
+            default:
+                expression = "(8+8*3/3";
+                break;
+        }
+    }
+
+    @Benchmark
+    public ExpressionEvaluator.Verdict evaluate() {
+        return evaluator.evaluate(expression, CARDS);
+    }
+}
@@ -0,0 +1,101 @@
+package common;
+
+import model.UserStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two ways a DTO goes over JMS: Java serialization inside an ObjectMessage
+ * and the binary {@link WireCodec} inside a BytesMessage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBench {
+    @Param({"GameStartNotification", "CardDrawMessage", "GameResult", "LeaderboardResponse"})
+    public String payloadType;
+
+    private Serializable payload;
+    private byte[] javaBytes;
+    private byte[] wireBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> players = Arrays.asList("alice", "bob", "carol", "dave");
+        switch (payloadType) {
+            case "GameStartNotification":
+                payload = new GameStartNotification(42, 1_700_000_000_000_042L, players, System.currentTimeMillis());
+                break;
+            case "CardDrawMessage":
+                payload = new CardDrawMessage(42, Arrays.asList(3, 8, 8, 3));
+                break;
+            case "GameResult":
+                Map<String, Boolean> results = new LinkedHashMap<>();
+                for (String player : players) {
+                    results.put(player, player.equals("carol"));
+                }
+                payload = new GameResult(42, 1_700_000_000_000_042L, results, "carol", "8/(3-8/3)");
+                break;
+            default:
+                List<UserStats> rows = new ArrayList<>();
+                for (int i = 0; i < 25; i++) {
+                    rows.add(new UserStats("player" + i, 100 + i, 50 - i, 12.5 + i, i + 1));
+                }
+                payload = new LeaderboardResponse(rows, "25:25:12500:player24");
+                break;
+        }
+        javaBytes = javaSerialize();
+        wireBytes = WireCodec.encode(payload);
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object javaDeserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] wireEncode() {
+        return WireCodec.encode(payload);
+    }
+
+    @Benchmark
+    public Object wireDecode() {
+        return WireCodec.decode(wireBytes, wireBytes.length);
+    }
+}
@@ -0,0 +1,53 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding the GAME_FINISHED event sent to Kafka for every finished game, as JSON and binary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyticsEventBench {
+    @Param({"2", "4"})
+    public int players;
+
+    private GameRecord record;
+
+    @Setup
+    public void setup() {
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (int i = 0; i < players; i++) {
+            results.put("player" + i, i == 0);
+        }
+        long start = System.currentTimeMillis();
+        record = new GameRecord(42, 1_700_000_000_000_042L, results, "player0", start, start + 12_345);
+    }
+
+    @Benchmark
+    public int json() {
+        return AnalyticsEvents.encoder().encode(record, 1_700_000_000_000L, AnalyticsEvents.Format.JSON).length();
+    }
+
+    @Benchmark
+    public int binary() {
+        return AnalyticsEvents.encoder().encode(record, 1_700_000_000_000L, AnalyticsEvents.Format.BINARY).length();
+    }
+}
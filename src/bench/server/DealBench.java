@@ -0,0 +1,52 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dealing a game's hand the way a room does: draw from the catalog, then look up
+ * the hand's index for solve-time tracking.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DealBench {
+    @Param({"ANY", "EASY", "HARD"})
+    public String band;
+
+    private PuzzleCatalog catalog;
+    private PuzzleCatalog.Band difficulty;
+
+    @Setup
+    public void setup() throws IOException {
+        File file = File.createTempFile("bench-catalog", ".bin");
+        file.deleteOnExit();
+        // An empty file is not a valid catalog, so open() builds a fresh one
+        catalog = PuzzleCatalog.open(file.getPath(), SolverTable::build);
+        difficulty = "ANY".equals(band) ? null : PuzzleCatalog.Band.valueOf(band);
+    }
+
+    @Benchmark
+    public int deal() {
+        List<Integer> cards = catalog.drawHand(ThreadLocalRandom.current(), difficulty, false);
+        return catalog.indexOf(cards);
+    }
+}
@@ -0,0 +1,112 @@
+package server;
+
+import common.LeaderboardRequest;
+import common.LeaderboardResponse;
+import model.UserStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stats read paths against a throwaway local Redis (run_bench.sh starts one
+ * on {@code BENCH_REDIS_PORT}), seeded with synthetic users: leaderboard pages
+ * by offset and around a user, one user's stats, and the same read through
+ * the in-process cache that fronts them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisReadBench {
+    private static final String LEADERBOARD_KEY = "bench:leaderboard:rank";
+    private static final String STATS_PREFIX = "bench:userstats:";
+
+    @Param({"10000"})
+    public int users;
+
+    private JedisPool pool;
+    private RedisStatsCache redis;
+    private SingleFlightCache<String, UserStats> cached;
+
+    @Setup
+    public void setup() {
+        pool = new JedisPool(System.getProperty("REDIS_HOST", "localhost"),
+                Integer.parseInt(System.getProperty("REDIS_PORT", "6390")));
+        redis = new RedisStatsCache(pool, LEADERBOARD_KEY, STATS_PREFIX);
+        Map<String, long[]> stats = new HashMap<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < users; i++) {
+            long played = 1 + random.nextInt(500);
+            long won = random.nextLong(played + 1);
+            stats.put(user(i), new long[]{played, won, won * (5_000 + random.nextInt(60_000))});
+        }
+        redis.seed(stats);
+        cached = new SingleFlightCache<>(redis::userStats, 1000, 30_000, 1024, Runnable::run);
+    }
+
+    @TearDown
+    public void tearDown() {
+        // Only this benchmark's keys, in case REDIS_PORT points at a shared instance
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.del(LEADERBOARD_KEY);
+            for (int i = 0; i < users; i++) {
+                pipeline.del(STATS_PREFIX + user(i));
+            }
+            pipeline.sync();
+        }
+        pool.close();
+    }
+
+    private String randomUser() {
+        return user(ThreadLocalRandom.current().nextInt(users));
+    }
+
+    private static String user(int i) {
+        return "player" + i;
+    }
+
+    @Benchmark
+    public LeaderboardResponse leaderboardTopPage() {
+        return redis.leaderboard(new LeaderboardRequest(0, 25), 25);
+    }
+
+    @Benchmark
+    public LeaderboardResponse leaderboardDeepPage() {
+        return redis.leaderboard(new LeaderboardRequest(users / 2, 25), 25);
+    }
+
+    @Benchmark
+    public LeaderboardResponse leaderboardAroundUser() {
+        return redis.leaderboard(LeaderboardRequest.around(randomUser(), 12), 25);
+    }
+
+    @Benchmark
+    public UserStats userStats() {
+        return redis.userStats(randomUser());
+    }
+
+    @Benchmark
+    public UserStats userStatsCached() {
+        return cached.get(user(ThreadLocalRandom.current().nextInt(512)));
+    }
+}
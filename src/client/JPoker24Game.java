@@ -19,7 +19,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.awt.Color;
 import java.awt.Dimension;
 
@@ -33,6 +32,7 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPasswordField;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
@@ -41,22 +41,19 @@ import javax.swing.table.DefaultTableModel;
 import javax.swing.ListSelectionModel;
 import javax.swing.ImageIcon;
 
-import javax.jms.*;
-import javax.naming.Context;
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-
 import common.GameResult;
 import common.JoinGameRequest;
 import common.GameStartNotification;
 import common.CardDrawMessage;
 import common.AnswerSubmission;
+import common.ExpressionEvaluator;
 import model.UserStats;
 import common.Auth;
 import common.LeaderboardRequest;
 import common.LeaderboardResponse;
 import common.UserStatsRequest;
 import common.UserStatsResponse;
+import common.ClientTransport;
 
 /**
  * GUI for the RMI Client
@@ -113,6 +110,10 @@ public class JPoker24Game extends JFrame {
     private boolean gameInProgress = false;
     private List<Integer> currentCards = new ArrayList<>();
     private List<String> currentPlayers = new ArrayList<>();
+    // Only used on the Swing event thread
+    private final ExpressionEvaluator answerEvaluator = new ExpressionEvaluator();
+    // Room of the game this client is playing; the topic carries every room's messages
+    private long currentRoomId = 0;
     
     // Game Panel Components
     private JPanel gamePanel;
@@ -130,11 +131,7 @@ public class JPoker24Game extends JFrame {
     private JLabel avgTimeLabel;
     private JLabel rankLabel;
     
-    private Context jmsContext;
-    private Connection jmsConnection;
-    private Session jmsSession;
-    private MessageProducer queueProducer;
-    private MessageConsumer topicConsumer;
+    private ClientTransport transport;
     
     private JPanel operationButtonsPanel;
     private javax.swing.Timer gameTimer;
@@ -147,14 +144,11 @@ public class JPoker24Game extends JFrame {
     private javax.swing.Timer waitingTimer;
     private int waitingTimeLeft;
     
-    // JMS leaderboard
-    private MessageProducer statsProducer;
-    private TemporaryQueue statsReplyQueue;
-    private MessageConsumer statsReplyConsumer;
-    
-    // JMS user stats
-    private TemporaryQueue userStatsReplyQueue;
-    private MessageConsumer userStatsReplyConsumer;
+    // Leaderboard pages are fetched as the table is scrolled; EDT only
+    private static final int LEADERBOARD_PAGE_SIZE = 25;
+    private String leaderboardNextCursor;
+    private boolean leaderboardLoading;
+    private boolean leaderboardAppendPending;
     
     private Auth authService = new Auth() {
         @Override
@@ -176,14 +170,37 @@ public class JPoker24Game extends JFrame {
      */
     public JPoker24Game() {
         setupUI();
-        setupGameResultListener();
-        setupJMSConnection();
+        try {
+            connect(new JmsClientTransport());
+        } catch (Exception e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, 
+                "Error setting up JMS connection: " + e.getMessage(),
+                "Communication Error", 
+                JOptionPane.ERROR_MESSAGE);
+        }
         // Start with login panel for submission
         // currentUser = "TestUser_" + (System.currentTimeMillis() % 1000);
         // cardLayout.show(cardPanel, GAME_PANEL);
         // resetGameUI();
     }
     
+    /**
+     * Client on another transport, such as {@link common.InMemoryBroker#connectClient()}
+     */
+    public JPoker24Game(ClientTransport transport) {
+        setupUI();
+        try {
+            connect(transport);
+        } catch (Exception e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, 
+                "Error connecting: " + e.getMessage(),
+                "Communication Error", 
+                JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
     /**
      * Set up the UI components
      */
@@ -487,15 +504,30 @@ public class JPoker24Game extends JFrame {
         JScrollPane scrollPane = new JScrollPane(leaderboardTable);
         leaderboardPanel.add(scrollPane, BorderLayout.CENTER);
 
+        // Fetch the next page once the user scrolls near the bottom
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            int rowHeight = leaderboardTable.getRowHeight();
+            if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 5 * rowHeight) {
+                loadMoreLeaderboard();
+            }
+        });
+
         // Back button
         JButton backButton = new JButton("Back to Main");
         backButton.addActionListener(e -> cardLayout.show(cardPanel, MAIN_PANEL));
         leaderboardPanel.add(backButton, BorderLayout.SOUTH);
 
-        // Refresh button
+        // Refresh and find-me buttons
+        JPanel leaderboardButtons = new JPanel(new GridLayout(1, 2, 10, 0));
         JButton refreshButton = new JButton("Refresh Leaderboard");
         refreshButton.addActionListener(e -> updateLeaderboard());
-        leaderboardPanel.add(refreshButton, BorderLayout.NORTH);
+        leaderboardButtons.add(refreshButton);
+        JButton myRankButton = new JButton("Show My Rank");
+        myRankButton.addActionListener(e ->
+                requestLeaderboard(LeaderboardRequest.around(currentUser, LEADERBOARD_PAGE_SIZE / 2), false));
+        leaderboardButtons.add(myRankButton);
+        leaderboardPanel.add(leaderboardButtons, BorderLayout.NORTH);
     }
     
     /**
@@ -809,9 +841,7 @@ public class JPoker24Game extends JFrame {
             }
             System.out.println("[Client] Sending UserStatsRequest for: " + currentUser);
             UserStatsRequest req = new UserStatsRequest(currentUser);
-            ObjectMessage msg = jmsSession.createObjectMessage(req);
-            msg.setJMSReplyTo(userStatsReplyQueue);
-            statsProducer.send(msg);
+            transport.sendStats(req);
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Error requesting user stats: " + e.getMessage());
             e.printStackTrace();
@@ -834,81 +864,32 @@ public class JPoker24Game extends JFrame {
     }
     
     /**
-     * Update leaderboard
+     * Update leaderboard, starting again from the top
      */
     private void updateLeaderboard() {
-        try {
-            System.out.println("[Client] Sending LeaderboardRequest");
-            LeaderboardRequest req = new LeaderboardRequest();
-            ObjectMessage msg = jmsSession.createObjectMessage(req);
-            msg.setJMSReplyTo(statsReplyQueue);
-            statsProducer.send(msg);
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Error requesting leaderboard: " + e.getMessage());
-            e.printStackTrace();
-        }
+        requestLeaderboard(new LeaderboardRequest(0, LEADERBOARD_PAGE_SIZE), false);
     }
-    
+
     /**
-     * Set up the GameResult listener to receive game results from the server
+     * Request the page after the last one shown, if there is one and none is in flight
      */
-    private void setupGameResultListener() {
+    private void loadMoreLeaderboard() {
+        if (leaderboardLoading || leaderboardNextCursor == null) {
+            return;
+        }
+        requestLeaderboard(LeaderboardRequest.after(leaderboardNextCursor, LEADERBOARD_PAGE_SIZE), true);
+    }
+
+    private void requestLeaderboard(LeaderboardRequest req, boolean append) {
         try {
-            // Set up JMS connection properties
-            Properties props = new Properties();
-            props.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.enterprise.naming.SerialInitContextFactory");
-            props.setProperty(Context.PROVIDER_URL, "iiop://localhost:3700");
-            Context context = new InitialContext(props);
-            
-            // Create a connection to the JMS provider
-            ConnectionFactory connectionFactory = (ConnectionFactory) context.lookup("jms/JPoker24GameConnectionFactory");
-            Connection connection = connectionFactory.createConnection();
-            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            
-            // Lookup the JMS topic
-            Topic gameResultTopic = (Topic) context.lookup("jms/JPoker24GameTopic");
-            
-            // Create a consumer for the topic
-            MessageConsumer consumer = session.createConsumer(gameResultTopic);
-            
-            // Set the message listener
-            consumer.setMessageListener(new MessageListener() {
-                @Override
-                public void onMessage(Message message) {
-                    try {
-                        if (message instanceof ObjectMessage) {
-                            ObjectMessage objectMessage = (ObjectMessage) message;
-                            Object content = objectMessage.getObject();
-                            
-                            if (content instanceof GameResult) {
-                                GameResult result = (GameResult) content;
-                                
-                                // Update the GUI with the game result
-                                SwingUtilities.invokeLater(() -> {
-                                    displayGameResult(result);
-                                });
-                            }
-                        }
-                    } catch (JMSException e) {
-                        e.printStackTrace();
-                        JOptionPane.showMessageDialog(JPoker24Game.this, 
-                            "Error receiving game result: " + e.getMessage(),
-                            "Communication Error", 
-                            JOptionPane.ERROR_MESSAGE);
-                    }
-                }
-            });
-            
-            // Start the connection
-            connection.start();
-            System.out.println("GameResult listener set up successfully");
-            
+            System.out.println("[Client] Sending LeaderboardRequest");
+            leaderboardLoading = true;
+            leaderboardAppendPending = append;
+            transport.sendStats(req);
         } catch (Exception e) {
+            leaderboardLoading = false;
+            JOptionPane.showMessageDialog(this, "Error requesting leaderboard: " + e.getMessage());
             e.printStackTrace();
-            JOptionPane.showMessageDialog(this, 
-                "Error setting up game result listener: " + e.getMessage(),
-                "Communication Error", 
-                JOptionPane.ERROR_MESSAGE);
         }
     }
     
@@ -916,6 +897,10 @@ public class JPoker24Game extends JFrame {
      * Display the game result in a dialog
      */
     private void displayGameResult(GameResult result) {
+        if (result.getRoomId() != currentRoomId) {
+            return; // Result of another room's game
+        }
+        currentRoomId = 0;
         gameTimer.stop();
         stopWaitingTimer();
         
@@ -1023,111 +1008,30 @@ public class JPoker24Game extends JFrame {
     }
 
     /**
-     * Set up JMS connection for game communication
+     * Listen for game events and stats replies, then start the transport
      */
-    private void setupJMSConnection() {
-        try {
-            // Set up JMS connection properties
-            Properties props = new Properties();
-            props.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.enterprise.naming.SerialInitContextFactory");
-            props.setProperty(Context.PROVIDER_URL, "iiop://localhost:3700");
-            jmsContext = new InitialContext(props);
-            
-            // Create a connection to the JMS provider
-            ConnectionFactory connectionFactory = (ConnectionFactory) jmsContext.lookup("jms/JPoker24GameConnectionFactory");
-            jmsConnection = connectionFactory.createConnection();
-            jmsSession = jmsConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            
-            // Set up queue for sending requests
-            javax.jms.Queue queue = (javax.jms.Queue) jmsContext.lookup("jms/JPoker24GameQueue");
-            queueProducer = jmsSession.createProducer(queue);
-            
-            // Set up topic for receiving notifications
-            Topic topic = (Topic) jmsContext.lookup("jms/JPoker24GameTopic");
-            topicConsumer = jmsSession.createConsumer(topic);
-            
-            // Set the message listener for game events
-            topicConsumer.setMessageListener(new MessageListener() {
-                @Override
-                public void onMessage(Message message) {
-                    try {
-                        if (message instanceof ObjectMessage) {
-                            ObjectMessage objectMessage = (ObjectMessage) message;
-                            Object content = objectMessage.getObject();
-                            
-                            if (content instanceof GameStartNotification) {
-                                SwingUtilities.invokeLater(() -> handleGameStart((GameStartNotification) content));
-                            } else if (content instanceof CardDrawMessage) {
-                                SwingUtilities.invokeLater(() -> handleCardDraw((CardDrawMessage) content));
-                            }
-                        }
-                    } catch (JMSException e) {
-                        e.printStackTrace();
-                        SwingUtilities.invokeLater(() -> {
-                            JOptionPane.showMessageDialog(JPoker24Game.this, 
-                                "Error receiving game message: " + e.getMessage(),
-                                "Communication Error", 
-                                JOptionPane.ERROR_MESSAGE);
-                        });
-                    }
-                }
-            });
-            
-            // --- Leaderboard JMS setup ---
-            javax.jms.Queue statsQueue = (javax.jms.Queue) jmsContext.lookup("jms/JPoker24StatsQueue");
-            statsProducer = jmsSession.createProducer(statsQueue);
-            statsReplyQueue = jmsSession.createTemporaryQueue();
-            statsReplyConsumer = jmsSession.createConsumer(statsReplyQueue);
-            statsReplyConsumer.setMessageListener(new MessageListener() {
-                @Override
-                public void onMessage(Message message) {
-                    try {
-                        if (message instanceof ObjectMessage) {
-                            ObjectMessage objMsg = (ObjectMessage) message;
-                            Object obj = objMsg.getObject();
-                            if (obj instanceof LeaderboardResponse) {
-                                List<UserStats> stats = ((LeaderboardResponse) obj).getLeaderboard();
-                                SwingUtilities.invokeLater(() -> updateLeaderboardTable(stats));
-                            }
-                        }
-                    } catch (JMSException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-            
-            // --- User Stats JMS setup ---
-            userStatsReplyQueue = jmsSession.createTemporaryQueue();
-            userStatsReplyConsumer = jmsSession.createConsumer(userStatsReplyQueue);
-            userStatsReplyConsumer.setMessageListener(new MessageListener() {
-                @Override
-                public void onMessage(Message message) {
-                    try {
-                        if (message instanceof ObjectMessage) {
-                            ObjectMessage objMsg = (ObjectMessage) message;
-                            Object obj = objMsg.getObject();
-                            if (obj instanceof UserStatsResponse) {
-                                UserStats stats = ((UserStatsResponse) obj).getUserStats();
-                                SwingUtilities.invokeLater(() -> updateProfilePanel(stats));
-                            }
-                        }
-                    } catch (JMSException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-            
-            // Start the connection
-            jmsConnection.start();
-            System.out.println("JMS connection set up successfully");
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, 
-                "Error setting up JMS connection: " + e.getMessage(),
-                "Communication Error", 
-                JOptionPane.ERROR_MESSAGE);
-        }
+    private void connect(ClientTransport transport) throws Exception {
+        this.transport = transport;
+        transport.setTopicListener(content -> {
+            if (content instanceof GameStartNotification) {
+                SwingUtilities.invokeLater(() -> handleGameStart((GameStartNotification) content));
+            } else if (content instanceof CardDrawMessage) {
+                SwingUtilities.invokeLater(() -> handleCardDraw((CardDrawMessage) content));
+            } else if (content instanceof GameResult) {
+                SwingUtilities.invokeLater(() -> displayGameResult((GameResult) content));
+            }
+        });
+        transport.setReplyListener(obj -> {
+            if (obj instanceof LeaderboardResponse) {
+                LeaderboardResponse response = (LeaderboardResponse) obj;
+                SwingUtilities.invokeLater(() -> updateLeaderboardTable(response));
+            } else if (obj instanceof UserStatsResponse) {
+                UserStats stats = ((UserStatsResponse) obj).getUserStats();
+                SwingUtilities.invokeLater(() -> updateProfilePanel(stats));
+            }
+        });
+        transport.start();
+        System.out.println("Connection set up successfully");
     }
 
     /**
@@ -1158,8 +1062,7 @@ public class JPoker24Game extends JFrame {
             waitingTimer.start();
             
             JoinGameRequest request = new JoinGameRequest(currentUser);
-            ObjectMessage message = jmsSession.createObjectMessage(request);
-            queueProducer.send(message);
+            transport.sendGame(request);
             
             gameStatusLabel.setText("Game Status: Waiting for other players...");
             System.out.println("Sent join game request for user: " + currentUser);
@@ -1198,13 +1101,24 @@ public class JPoker24Game extends JFrame {
                 return;
             }
             
+            // Catch typos locally instead of spending the submission on them
+            ExpressionEvaluator.Verdict verdict = answerEvaluator.evaluate(expression, currentCards);
+            if (verdict == ExpressionEvaluator.Verdict.INVALID || verdict == ExpressionEvaluator.Verdict.WRONG_CARDS) {
+                JOptionPane.showMessageDialog(this, 
+                    verdict == ExpressionEvaluator.Verdict.INVALID
+                        ? "The expression is not valid"
+                        : "Use each of the four cards exactly once",
+                    "Input Error", 
+                    JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            
             // Disable submit button to prevent multiple submissions
             submitAnswerButton.setEnabled(false);
             expressionField.setEnabled(false);
             
             AnswerSubmission submission = new AnswerSubmission(currentUser, expression, new ArrayList<>(currentCards));
-            ObjectMessage message = jmsSession.createObjectMessage(submission);
-            queueProducer.send(message);
+            transport.sendGame(submission);
             
             gameStatusLabel.setText("Game Status: Answer submitted, waiting for results...");
             System.out.println("Submitted answer: " + expression);
@@ -1225,6 +1139,10 @@ public class JPoker24Game extends JFrame {
      * Handle a game start notification
      */
     private void handleGameStart(GameStartNotification notification) {
+        if (currentUser == null || !notification.getPlayers().contains(currentUser)) {
+            return; // Another room's game
+        }
+        currentRoomId = notification.getRoomId();
         gameInProgress = true;
         currentPlayers = notification.getPlayers();
         currentCards.clear();
@@ -1257,6 +1175,9 @@ public class JPoker24Game extends JFrame {
      * Handle a card draw message
      */
     private void handleCardDraw(CardDrawMessage message) {
+        if (message.getRoomId() != currentRoomId) {
+            return;
+        }
         currentCards = new ArrayList<>(message.getCards());
         
         gameStatusLabel.setText("Game Status: Cards drawn! Make 24 using these cards.");
@@ -1304,25 +1225,10 @@ public class JPoker24Game extends JFrame {
         }
     }
 
-    /**
-     * Close JMS resources
-     */
-    private void closeJMSResources() {
-        try {
-            if (queueProducer != null) queueProducer.close();
-            if (topicConsumer != null) topicConsumer.close();
-            if (jmsSession != null) jmsSession.close();
-            if (jmsConnection != null) jmsConnection.close();
-            if (jmsContext != null) jmsContext.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     // Override the dispose method to clean up resources
     @Override
     public void dispose() {
-        closeJMSResources();
+        if (transport != null) transport.close();
         super.dispose();
     }
 
@@ -1335,11 +1241,16 @@ public class JPoker24Game extends JFrame {
         exitWaitingButton.setVisible(false);
     }
 
-    // Actually update the leaderboard table with received stats
-    private void updateLeaderboardTable(List<UserStats> stats) {
+    // Actually update the leaderboard table with a received page
+    private void updateLeaderboardTable(LeaderboardResponse response) {
+        List<UserStats> stats = response.getLeaderboard();
         System.out.println("[Client] Received leaderboard with " + (stats == null ? 0 : stats.size()) + " users");
         DefaultTableModel model = (DefaultTableModel) leaderboardTable.getModel();
-        model.setRowCount(0); // Clear existing data
+        if (!leaderboardAppendPending) {
+            model.setRowCount(0); // A fresh listing replaces the table; later pages are appended
+        }
+        leaderboardLoading = false;
+        leaderboardNextCursor = response.getNextCursor();
         if (stats != null) {
             for (UserStats stat : stats) {
                 model.addRow(new Object[]{
@@ -0,0 +1,132 @@
+package client;
+
+import common.ClientTransport;
+import common.WireCodec;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.Topic;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * {@link ClientTransport} over the GlassFish JMS destinations: one connection and
+ * session, producers for the game and stats queues, a consumer on the game topic
+ * and one temporary queue for all stats replies.
+ * <p>
+ * Requests go out as ObjectMessages until a message from the server shows it
+ * reads the binary {@link WireCodec} format, then in binary.
+ */
+public final class JmsClientTransport implements ClientTransport {
+    // -DWIRE_FORMAT=object keeps this client on ObjectMessage; otherwise it offers the binary codec
+    private static final boolean WIRE_BINARY = !"object".equalsIgnoreCase(System.getProperty("WIRE_FORMAT", "binary"));
+
+    private final Context context;
+    private final Connection connection;
+    private final Session session;
+    private final MessageProducer queueProducer;
+    private final MessageProducer statsProducer;
+    private final MessageConsumer topicConsumer;
+    private final TemporaryQueue replyQueue;
+    private final MessageConsumer replyConsumer;
+    // Set once a message from the server shows it reads the binary codec
+    private volatile boolean serverReadsBinary;
+
+    public JmsClientTransport() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.enterprise.naming.SerialInitContextFactory");
+        props.setProperty(Context.PROVIDER_URL, "iiop://localhost:3700");
+        context = new InitialContext(props);
+
+        ConnectionFactory connectionFactory = (ConnectionFactory) context.lookup("jms/JPoker24GameConnectionFactory");
+        connection = connectionFactory.createConnection();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        queueProducer = session.createProducer((Queue) context.lookup("jms/JPoker24GameQueue"));
+        statsProducer = session.createProducer((Queue) context.lookup("jms/JPoker24StatsQueue"));
+        topicConsumer = session.createConsumer((Topic) context.lookup("jms/JPoker24GameTopic"));
+        replyQueue = session.createTemporaryQueue();
+        replyConsumer = session.createConsumer(replyQueue);
+    }
+
+    @Override
+    public void setTopicListener(Listener listener) {
+        try {
+            topicConsumer.setMessageListener(message -> dispatch(message, listener));
+        } catch (JMSException e) {
+            throw new IllegalStateException("Failed to listen on the game topic", e);
+        }
+    }
+
+    @Override
+    public void setReplyListener(Listener listener) {
+        try {
+            replyConsumer.setMessageListener(message -> dispatch(message, listener));
+        } catch (JMSException e) {
+            throw new IllegalStateException("Failed to listen for stats replies", e);
+        }
+    }
+
+    private void dispatch(Message message, Listener listener) {
+        try {
+            Object payload = readPayload(message);
+            if (payload != null) {
+                listener.onMessage(payload);
+            }
+        } catch (JMSException | IllegalArgumentException e) {
+            System.err.println("Error receiving message: " + e.getMessage());
+        }
+    }
+
+    // Sessions are single-threaded, and the load generator sends from many bots at once
+    @Override
+    public synchronized void sendGame(Serializable payload) throws JMSException {
+        queueProducer.send(createPayloadMessage(payload));
+    }
+
+    @Override
+    public synchronized void sendStats(Serializable request) throws JMSException {
+        Message msg = createPayloadMessage(request);
+        msg.setJMSReplyTo(replyQueue);
+        statsProducer.send(msg);
+    }
+
+    @Override
+    public void start() throws JMSException {
+        connection.start();
+    }
+
+    // Payload message in the negotiated format: binary once the server has shown it reads it
+    private Message createPayloadMessage(Serializable payload) throws JMSException {
+        if (!WIRE_BINARY) {
+            return session.createObjectMessage(payload);
+        }
+        return WireCodec.toMessage(session, payload, serverReadsBinary);
+    }
+
+    // Decode a binary or object message, noting whether the server offers the binary codec
+    private Object readPayload(Message message) throws JMSException {
+        if (WIRE_BINARY && WireCodec.acceptsBinary(message)) {
+            serverReadsBinary = true;
+        }
+        return WireCodec.fromMessage(message);
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+            context.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
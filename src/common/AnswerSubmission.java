@@ -25,6 +25,13 @@ public class AnswerSubmission implements Serializable {
         this.cardValues = new ArrayList<>();
     }
 
+    public AnswerSubmission(String username, String expression, long submitTime, List<Integer> cardValues) {
+        this.username = username;
+        this.expression = expression;
+        this.submitTime = submitTime;
+        this.cardValues = cardValues == null ? new ArrayList<>() : new ArrayList<>(cardValues);
+    }
+
     public String getUsername() {
         return username;
     }
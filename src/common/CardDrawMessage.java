@@ -4,12 +4,18 @@ import java.util.List;
 
 public class CardDrawMessage implements Serializable {
     private static final long serialVersionUID = 1L;
+    private long roomId;
     private List<Integer> cards;
 
-    public CardDrawMessage(List<Integer> cards) {
+    public CardDrawMessage(long roomId, List<Integer> cards) {
+        this.roomId = roomId;
         this.cards = new java.util.ArrayList<>(cards);
     }
 
+    public long getRoomId() {
+        return roomId;
+    }
+
     public List<Integer> getCards() {
         return cards;
     }
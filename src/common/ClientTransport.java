@@ -0,0 +1,42 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * How a game client talks to the server: requests onto the game and stats
+ * queues, broadcasts from the game topic, and replies to its stats requests.
+ * The GUI uses the JMS binding; {@link InMemoryBroker#connectClient()} gives one
+ * that runs in the same JVM as the server.
+ * <p>
+ * Listeners are called on a transport thread, one message at a time per listener.
+ */
+public interface ClientTransport extends AutoCloseable {
+    interface Listener {
+        void onMessage(Object payload);
+    }
+
+    /**
+     * Receives game topic broadcasts. Set before {@link #start()}.
+     */
+    void setTopicListener(Listener listener);
+
+    /**
+     * Receives the replies to {@link #sendStats}. Set before {@link #start()}.
+     */
+    void setReplyListener(Listener listener);
+
+    /**
+     * Send a join request or answer to the game queue.
+     */
+    void sendGame(Serializable payload) throws Exception;
+
+    /**
+     * Send a leaderboard or user stats request; the reply goes to the reply listener.
+     */
+    void sendStats(Serializable request) throws Exception;
+
+    void start() throws Exception;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,240 @@
+package common;
+
+import java.util.List;
+
+/**
+ * Validates and evaluates 24-game answers such as {@code (8 ÷ (3 - 8 ÷ 3))}.
+ * <p>
+ * The expression is tokenized, parsed and evaluated in a single recursive-descent
+ * pass using exact rational arithmetic, so answers like {@code 8/(3-8/3)} are not
+ * subject to floating point error. Card usage is checked in the same pass. The
+ * evaluator keeps its scratch state in fields and does not allocate per call;
+ * instances are therefore not thread-safe, keep one per thread.
+ * <p>
+ * Grammar: {@code expr := term (('+'|'-') term)*},
+ * {@code term := factor (('×'|'*'|'÷'|'/') factor)*},
+ * {@code factor := ('+'|'-') factor | number | '(' expr ')'}. Answers come from
+ * clients, so signs and parentheses may only nest {@value #MAX_DEPTH} deep; deeper
+ * input is INVALID rather than a stack overflow.
+ */
+public class ExpressionEvaluator {
+    public enum Verdict {
+        /** Uses every card exactly once and evaluates to 24. */
+        CORRECT,
+        /** Uses every card exactly once but evaluates to something else. */
+        INCORRECT,
+        /** Uses a number that is not one of the cards, or not all of them. */
+        WRONG_CARDS,
+        /** Not a well-formed expression, or divides by zero. */
+        INVALID
+    }
+
+    private static final int TARGET = 24;
+    private static final int MAX_CARD = 13;
+    private static final int MAX_DEPTH = 32;
+
+    private static final int OK = 0;
+    private static final int WRONG = 1;
+    private static final int BAD = 2;
+
+    private final int[] cardCounts = new int[MAX_CARD + 1];
+    private String expr;
+    private int pos;
+    private int status;
+    private int depth;
+    // Value of the most recently parsed sub-expression, always reduced with den > 0
+    private long num;
+    private long den;
+
+    /**
+     * Evaluate an answer against the drawn cards.
+     */
+    public Verdict evaluate(String expression, List<Integer> cards) {
+        java.util.Arrays.fill(cardCounts, 0);
+        for (int i = 0; i < cards.size(); i++) {
+            int card = cards.get(i);
+            if (card < 1 || card > MAX_CARD) {
+                return Verdict.WRONG_CARDS;
+            }
+            cardCounts[card]++;
+        }
+        expr = expression;
+        pos = 0;
+        status = OK;
+        depth = 0;
+        num = 0;
+        den = 1;
+
+        parseExpression();
+        if (status == OK) {
+            skipSpaces();
+            if (pos != expr.length()) {
+                status = BAD;
+            }
+        }
+        expr = null;
+        if (status == BAD) {
+            return Verdict.INVALID;
+        }
+        if (status == WRONG) {
+            return Verdict.WRONG_CARDS;
+        }
+        for (int count : cardCounts) {
+            if (count != 0) {
+                return Verdict.WRONG_CARDS;
+            }
+        }
+        return num == TARGET * den ? Verdict.CORRECT : Verdict.INCORRECT;
+    }
+
+    /**
+     * Numerator of the value computed by the last successful {@link #evaluate} call.
+     */
+    public long getNumerator() {
+        return num;
+    }
+
+    /**
+     * Denominator (always positive) of the value computed by the last successful call.
+     */
+    public long getDenominator() {
+        return den;
+    }
+
+    /**
+     * The last computed value formatted as {@code n} or {@code n/d}, for logging.
+     */
+    public String resultString() {
+        return den == 1 ? Long.toString(num) : num + "/" + den;
+    }
+
+    private void parseExpression() {
+        parseTerm();
+        while (status == OK) {
+            char op = peek();
+            if (op != '+' && op != '-') {
+                return;
+            }
+            pos++;
+            long leftNum = num;
+            long leftDen = den;
+            parseTerm();
+            if (status != OK) {
+                return;
+            }
+            if (op == '+') {
+                set(leftNum * den + num * leftDen, leftDen * den);
+            } else {
+                set(leftNum * den - num * leftDen, leftDen * den);
+            }
+        }
+    }
+
+    private void parseTerm() {
+        parseFactor();
+        while (status == OK) {
+            char op = peek();
+            boolean multiply = op == '×' || op == '*';
+            if (!multiply && op != '÷' && op != '/') {
+                return;
+            }
+            pos++;
+            long leftNum = num;
+            long leftDen = den;
+            parseFactor();
+            if (status != OK) {
+                return;
+            }
+            if (multiply) {
+                set(leftNum * num, leftDen * den);
+            } else if (num == 0) {
+                status = BAD;
+            } else {
+                set(leftNum * den, leftDen * num);
+            }
+        }
+    }
+
+    private void parseFactor() {
+        if (depth == MAX_DEPTH) {
+            status = BAD;
+            return;
+        }
+        depth++;
+        char c = peek();
+        if (c == '+' || c == '-') {
+            pos++;
+            parseFactor();
+            if (c == '-') {
+                num = -num;
+            }
+        } else if (c == '(') {
+            pos++;
+            parseExpression();
+            if (status == OK) {
+                if (peek() == ')') {
+                    pos++;
+                } else {
+                    status = BAD;
+                }
+            }
+        } else if (c >= '0' && c <= '9') {
+            parseNumber();
+        } else {
+            status = BAD;
+        }
+        depth--;
+    }
+
+    private void parseNumber() {
+        int value = 0;
+        while (pos < expr.length()) {
+            char c = expr.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            // Anything above the highest card cannot be a card; stop growing to avoid overflow
+            if (value <= MAX_CARD) {
+                value = value * 10 + (c - '0');
+            }
+            pos++;
+        }
+        if (value < 1 || value > MAX_CARD || cardCounts[value] == 0) {
+            status = WRONG;
+            return;
+        }
+        cardCounts[value]--;
+        num = value;
+        den = 1;
+    }
+
+    private char peek() {
+        skipSpaces();
+        return pos < expr.length() ? expr.charAt(pos) : '\0';
+    }
+
+    private void skipSpaces() {
+        while (pos < expr.length() && Character.isWhitespace(expr.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void set(long n, long d) {
+        if (d < 0) {
+            n = -n;
+            d = -d;
+        }
+        long g = gcd(Math.abs(n), d);
+        num = n / g;
+        den = d / g;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a == 0 ? 1 : a;
+    }
+}
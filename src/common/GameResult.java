@@ -4,16 +4,28 @@ import java.util.Map;
 
 public class GameResult implements Serializable {
     private static final long serialVersionUID = 1L;
+    private long roomId;
+    private long gameId;
     private Map<String, Boolean> playerResults; // username -> win/loss
     private String winner;
     private String message;
 
-    public GameResult(Map<String, Boolean> playerResults, String winner, String message) {
+    public GameResult(long roomId, long gameId, Map<String, Boolean> playerResults, String winner, String message) {
+        this.roomId = roomId;
+        this.gameId = gameId;
         this.playerResults = playerResults;
         this.winner = winner;
         this.message = message;
     }
 
+    public long getRoomId() {
+        return roomId;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
     public Map<String, Boolean> getPlayerResults() {
         return playerResults;
     }
@@ -4,14 +4,27 @@ import java.util.List;
 
 public class GameStartNotification implements Serializable {
     private static final long serialVersionUID = 1L;
+    private long roomId;
+    // Unique across rooms and server restarts, increasing in start order; 0 from older servers
+    private long gameId;
     private List<String> players;
     private long startTime;
 
-    public GameStartNotification(List<String> players, long startTime) {
+    public GameStartNotification(long roomId, long gameId, List<String> players, long startTime) {
+        this.roomId = roomId;
+        this.gameId = gameId;
         this.players = new java.util.ArrayList<>(players);
         this.startTime = startTime;
     }
 
+    public long getRoomId() {
+        return roomId;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
     public List<String> getPlayers() {
         return players;
     }
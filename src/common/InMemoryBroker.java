@@ -0,0 +1,235 @@
+package common;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process stand-in for the JMS destinations: a game queue, a stats queue with
+ * per-client replies, and a game topic. It lets the server, clients, load
+ * generators and tests run in one JVM without GlassFish.
+ * <p>
+ * Nothing here takes a lock. The queues are {@link LinkedTransferQueue}s; topic
+ * subscribers are a copy-on-write list of mailboxes. Each mailbox delivers its
+ * messages in order, one at a time, like a JMS MessageListener, on a
+ * {@link ForkJoinPool} in FIFO mode, whose task queues are CAS-based deques
+ * rather than the locked queue of a fixed thread pool. With {@code copyPayloads} every payload is round-tripped
+ * through {@link WireCodec}, so the two sides never share mutable objects, as
+ * over a real wire.
+ */
+public final class InMemoryBroker implements AutoCloseable {
+    private static final Log LOG = Log.get("InMemoryBroker");
+
+    // Wakes blocked consumers on close; each consumer passes it on to the next
+    private static final Delivery CLOSED = new Delivery(null, null);
+
+    private final LinkedTransferQueue<Delivery> gameQueue = new LinkedTransferQueue<>();
+    private final LinkedTransferQueue<Delivery> statsQueue = new LinkedTransferQueue<>();
+    private final List<Mailbox> subscribers = new CopyOnWriteArrayList<>();
+    private final boolean copyPayloads;
+    private final ExecutorService dispatcher;
+    private volatile boolean closed;
+
+    public InMemoryBroker() {
+        this(false);
+    }
+
+    public InMemoryBroker(boolean copyPayloads) {
+        this.copyPayloads = copyPayloads;
+        // Pool threads are daemons; asyncMode runs tasks submitted from them in FIFO order
+        this.dispatcher = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("broker-dispatch-" + t.getPoolIndex());
+            return t;
+        }, null, true);
+    }
+
+    /**
+     * A queued request and, for stats requests, where its reply goes.
+     */
+    public static final class Delivery {
+        private final Object payload;
+        private final Mailbox replyTo;
+
+        private Delivery(Object payload, Mailbox replyTo) {
+            this.payload = payload;
+            this.replyTo = replyTo;
+        }
+
+        public Object getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * Next game queue payload, waiting if there is none; null once the broker is closed.
+     */
+    public Object takeGame() throws InterruptedException {
+        Delivery delivery = take(gameQueue);
+        return delivery == null ? null : delivery.payload;
+    }
+
+    /**
+     * Next stats request, waiting if there is none; null once the broker is closed.
+     */
+    public Delivery takeStats() throws InterruptedException {
+        return take(statsQueue);
+    }
+
+    private Delivery take(LinkedTransferQueue<Delivery> queue) throws InterruptedException {
+        Delivery delivery = queue.take();
+        if (delivery == CLOSED) {
+            queue.put(CLOSED);
+            return null;
+        }
+        return delivery;
+    }
+
+    /**
+     * Send the reply to a stats request to the client that made it.
+     */
+    public void reply(Delivery request, Serializable response) {
+        if (request.replyTo != null && !closed) {
+            request.replyTo.deliver(copy(response));
+        }
+    }
+
+    /**
+     * Broadcast on the game topic to every started client.
+     */
+    public void publish(Serializable payload) {
+        if (closed) {
+            return;
+        }
+        Object message = copy(payload);
+        for (Mailbox subscriber : subscribers) {
+            subscriber.deliver(message);
+        }
+    }
+
+    public ClientTransport connectClient() {
+        return new Client();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        subscribers.clear();
+        gameQueue.put(CLOSED);
+        statsQueue.put(CLOSED);
+        dispatcher.shutdown();
+    }
+
+    private Object copy(Object payload) {
+        if (!copyPayloads || !WireCodec.supports(payload)) {
+            return payload;
+        }
+        byte[] data = WireCodec.encode(payload);
+        return WireCodec.decode(data, data.length);
+    }
+
+    /**
+     * Delivers messages to one listener in arrival order. At most one drain task
+     * per mailbox is scheduled at a time, which keeps deliveries sequential
+     * without a lock.
+     */
+    private final class Mailbox {
+        private final ConcurrentLinkedQueue<Object> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final ClientTransport.Listener listener;
+
+        Mailbox(ClientTransport.Listener listener) {
+            this.listener = listener;
+        }
+
+        void deliver(Object message) {
+            pending.offer(message);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatcher.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Broker closed; drop the message as a closed JMS connection would
+                }
+            }
+        }
+
+        private void drain() {
+            Object message;
+            while ((message = pending.poll()) != null) {
+                try {
+                    listener.onMessage(message);
+                } catch (RuntimeException e) {
+                    LOG.warn("Listener failed", e);
+                }
+            }
+            scheduled.set(false);
+            // A message that arrived after the last poll but before the reset would otherwise wait
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private final class Client implements ClientTransport {
+        private volatile Listener topicListener;
+        private volatile Listener replyListener;
+        private Mailbox topic;
+        private Mailbox replies;
+
+        @Override
+        public void setTopicListener(Listener listener) {
+            this.topicListener = listener;
+        }
+
+        @Override
+        public void setReplyListener(Listener listener) {
+            this.replyListener = listener;
+        }
+
+        @Override
+        public void start() {
+            if (replyListener != null) {
+                replies = new Mailbox(replyListener);
+            }
+            if (topicListener != null) {
+                topic = new Mailbox(topicListener);
+                subscribers.add(topic);
+            }
+        }
+
+        @Override
+        public void sendGame(Serializable payload) {
+            if (!closed) {
+                gameQueue.put(new Delivery(copy(payload), null));
+            }
+        }
+
+        @Override
+        public void sendStats(Serializable request) {
+            if (!closed) {
+                statsQueue.put(new Delivery(copy(request), replies));
+            }
+        }
+
+        @Override
+        public void close() {
+            if (topic != null) {
+                subscribers.remove(topic);
+            }
+        }
+    }
+}
@@ -1,6 +1,66 @@
 package common;
 import java.io.Serializable;
+
+/**
+ * One page of the leaderboard: by offset, after the last row of a previous page
+ * (keyset cursor), or centered on a user. Fields left unset by older clients
+ * deserialize as a top-{@link #DEFAULT_LIMIT} request.
+ */
 public class LeaderboardRequest implements Serializable {
     private static final long serialVersionUID = 1L;
-    // No fields needed for now
-} 
\ No newline at end of file
+    public static final int DEFAULT_LIMIT = 10;
+
+    private int offset;
+    private int limit;
+    private String cursor;
+    private String aroundUser;
+
+    public LeaderboardRequest() {
+        this(0, DEFAULT_LIMIT);
+    }
+
+    public LeaderboardRequest(int offset, int limit) {
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    public LeaderboardRequest(int offset, int limit, String cursor, String aroundUser) {
+        this(offset, limit);
+        this.cursor = cursor;
+        this.aroundUser = aroundUser;
+    }
+
+    /**
+     * The {@code limit} rows following a page whose {@link LeaderboardResponse#getNextCursor()} is {@code cursor}.
+     */
+    public static LeaderboardRequest after(String cursor, int limit) {
+        LeaderboardRequest request = new LeaderboardRequest(0, limit);
+        request.cursor = cursor;
+        return request;
+    }
+
+    /**
+     * {@code radius} rows either side of {@code username}, or the top of the board if they have no stats.
+     */
+    public static LeaderboardRequest around(String username, int radius) {
+        LeaderboardRequest request = new LeaderboardRequest(0, 2 * radius + 1);
+        request.aroundUser = username;
+        return request;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public String getAroundUser() {
+        return aroundUser;
+    }
+}
@@ -6,10 +6,19 @@ import model.UserStats;
 public class LeaderboardResponse implements Serializable {
     private static final long serialVersionUID = 1L;
     private List<UserStats> leaderboard;
+    // Opaque position after the last row, or null on the last page
+    private String nextCursor;
     public LeaderboardResponse(List<UserStats> leaderboard) {
+        this(leaderboard, null);
+    }
+    public LeaderboardResponse(List<UserStats> leaderboard, String nextCursor) {
         this.leaderboard = leaderboard;
+        this.nextCursor = nextCursor;
     }
     public List<UserStats> getLeaderboard() {
         return leaderboard;
     }
-} 
\ No newline at end of file
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,435 @@
+package common;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logger for the server's hot paths.
+ * <p>
+ * A call below the configured level ({@code -DLOG_LEVEL}, default INFO) returns
+ * after one comparison. An enabled call copies the format string and arguments
+ * into a slot of a bounded lock-free ring buffer and returns; a single
+ * background thread formats the lines and writes them to stdout in batches, so
+ * console I/O never runs on a room loop. Collection and map arguments are
+ * copied when logged, since the caller may change them before they are
+ * formatted; other arguments must not change afterwards.
+ * <p>
+ * Messages use {@code {}} placeholders. A trailing {@link Throwable} argument
+ * without a placeholder is printed with its stack trace. With
+ * {@code -DLOG_FORMAT=json} every line is a JSON object with ts, level, logger,
+ * thread and msg fields. If the ring is full the message is dropped and
+ * counted, except errors, which are then written synchronously to stderr.
+ * <p>
+ * {@link Sampler}s rate-limit lines logged once per message, so turning on
+ * DEBUG under load shows a sample instead of flooding the console.
+ */
+public final class Log {
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty("LOG_LEVEL", "INFO").toUpperCase());
+    private static final boolean JSON = "json".equalsIgnoreCase(System.getProperty("LOG_FORMAT", "text"));
+    private static final int CAPACITY = Integer.highestOneBit(
+            Math.max(2, Integer.parseInt(System.getProperty("LOG_BUFFER", "16384"))));
+    // Default budget of a Sampler, in lines per second
+    private static final int SAMPLE_PER_SECOND = Integer.parseInt(System.getProperty("LOG_SAMPLE_PER_SECOND", "20"));
+    private static final int MAX_ARGS = 3;
+
+    private static final ConcurrentHashMap<String, Log> LOGGERS = new ConcurrentHashMap<>();
+    private static final Ring RING = new Ring(CAPACITY);
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final Writer WRITER = new Writer();
+
+    static {
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(2000), "log-flush"));
+    }
+
+    private final String name;
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    public static Log get(String name) {
+        return LOGGERS.computeIfAbsent(name, Log::new);
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() <= LEVEL.ordinal();
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public void error(String message) { log(Level.ERROR, message, 0, null, null, null, null); }
+    public void error(String format, Object a) { log(Level.ERROR, format, 1, a, null, null, null); }
+    public void error(String format, Object a, Object b) { log(Level.ERROR, format, 2, a, b, null, null); }
+    public void error(String format, Object a, Object b, Object c) { log(Level.ERROR, format, 3, a, b, c, null); }
+    public void error(String format, Object... args) { logArray(Level.ERROR, format, args); }
+
+    public void warn(String message) { log(Level.WARN, message, 0, null, null, null, null); }
+    public void warn(String format, Object a) { log(Level.WARN, format, 1, a, null, null, null); }
+    public void warn(String format, Object a, Object b) { log(Level.WARN, format, 2, a, b, null, null); }
+    public void warn(String format, Object a, Object b, Object c) { log(Level.WARN, format, 3, a, b, c, null); }
+    public void warn(String format, Object... args) { logArray(Level.WARN, format, args); }
+
+    public void info(String message) { log(Level.INFO, message, 0, null, null, null, null); }
+    public void info(String format, Object a) { log(Level.INFO, format, 1, a, null, null, null); }
+    public void info(String format, Object a, Object b) { log(Level.INFO, format, 2, a, b, null, null); }
+    public void info(String format, Object a, Object b, Object c) { log(Level.INFO, format, 3, a, b, c, null); }
+    public void info(String format, Object... args) { logArray(Level.INFO, format, args); }
+
+    public void debug(String message) { log(Level.DEBUG, message, 0, null, null, null, null); }
+    public void debug(String format, Object a) { log(Level.DEBUG, format, 1, a, null, null, null); }
+    public void debug(String format, Object a, Object b) { log(Level.DEBUG, format, 2, a, b, null, null); }
+    public void debug(String format, Object a, Object b, Object c) { log(Level.DEBUG, format, 3, a, b, c, null); }
+    public void debug(String format, Object... args) { logArray(Level.DEBUG, format, args); }
+
+    /**
+     * A DEBUG line that is kept only while {@code sampler} has budget left.
+     */
+    public void debug(Sampler sampler, String format, Object a) {
+        if (isEnabled(Level.DEBUG) && sampler.tryAcquire()) {
+            log(Level.DEBUG, format, 1, a, null, null, null);
+        }
+    }
+
+    public void debug(Sampler sampler, String format, Object a, Object b) {
+        if (isEnabled(Level.DEBUG) && sampler.tryAcquire()) {
+            log(Level.DEBUG, format, 2, a, b, null, null);
+        }
+    }
+
+    public void debug(Sampler sampler, String format, Object a, Object b, Object c) {
+        if (isEnabled(Level.DEBUG) && sampler.tryAcquire()) {
+            log(Level.DEBUG, format, 3, a, b, c, null);
+        }
+    }
+
+    /**
+     * A WARN line that is kept only while {@code sampler} has budget left, for
+     * failures that can repeat once per message.
+     */
+    public void warn(Sampler sampler, String format, Object a) {
+        if (isEnabled(Level.WARN) && sampler.tryAcquire()) {
+            log(Level.WARN, format, 1, a, null, null, null);
+        }
+    }
+
+    public void warn(Sampler sampler, String format, Object a, Object b) {
+        if (isEnabled(Level.WARN) && sampler.tryAcquire()) {
+            log(Level.WARN, format, 2, a, b, null, null);
+        }
+    }
+
+    private void logArray(Level level, String format, Object[] args) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        if (args == null || args.length <= MAX_ARGS) {
+            int n = args == null ? 0 : args.length;
+            log(level, format, n, n > 0 ? args[0] : null, n > 1 ? args[1] : null, n > 2 ? args[2] : null, null);
+        } else {
+            Object[] copy = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                copy[i] = freeze(args[i]);
+            }
+            log(level, format, copy.length, null, null, null, copy);
+        }
+    }
+
+    private void log(Level level, String format, int argc, Object a, Object b, Object c, Object[] rest) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        if (!RING.offer(System.currentTimeMillis(), level, name, thread.getName(), format, argc,
+                freeze(a), freeze(b), freeze(c), rest)) {
+            DROPPED.increment();
+            if (level == Level.ERROR) {
+                // Never lose an error: write it here, slow as that is
+                Object[] args = rest != null ? rest : new Object[]{a, b, c};
+                System.err.println(render(System.currentTimeMillis(), level, name, thread.getName(), format, argc, args));
+            }
+        }
+    }
+
+    // Copy what the caller may mutate before the writer formats it
+    private static Object freeze(Object arg) {
+        if (arg instanceof Collection) {
+            return new ArrayList<>((Collection<?>) arg);
+        }
+        if (arg instanceof Map) {
+            return new LinkedHashMap<>((Map<?, ?>) arg);
+        }
+        return arg;
+    }
+
+    /**
+     * Wait up to {@code timeoutMs} for everything logged so far to be written.
+     */
+    public static void flush(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        long target = RING.tail.get();
+        while (WRITER.written.get() < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(WRITER.thread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Messages dropped so far because the ring was full.
+     */
+    public static long dropped() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * Lets through at most {@code perSecond} calls in each one-second window.
+     * Lock-free: one CAS to open a window, one increment per call.
+     */
+    public static final class Sampler {
+        private final int perSecond;
+        private final AtomicLong windowStart = new AtomicLong();
+        private final AtomicLong used = new AtomicLong();
+
+        public Sampler() {
+            this(SAMPLE_PER_SECOND);
+        }
+
+        public Sampler(int perSecond) {
+            this.perSecond = perSecond;
+        }
+
+        boolean tryAcquire() {
+            long now = System.nanoTime();
+            long start = windowStart.get();
+            if (now - start >= TimeUnit.SECONDS.toNanos(1) && windowStart.compareAndSet(start, now)) {
+                used.set(0);
+            }
+            return used.incrementAndGet() <= perSecond;
+        }
+    }
+
+    private static String render(long time, Level level, String logger, String thread, String format,
+                                 int argc, Object[] args) {
+        StringBuilder msg = new StringBuilder(format.length() + 32);
+        int used = formatInto(msg, format, argc, args);
+        Throwable thrown = used < argc && args[argc - 1] instanceof Throwable ? (Throwable) args[argc - 1] : null;
+        StringBuilder line = new StringBuilder(msg.length() + 64);
+        if (JSON) {
+            line.append("{\"ts\":\"").append(TIMESTAMP.get().format(new Date(time)))
+                    .append("\",\"level\":\"").append(level)
+                    .append("\",\"logger\":\"").append(escape(logger))
+                    .append("\",\"thread\":\"").append(escape(thread))
+                    .append("\",\"msg\":\"").append(escape(msg.toString())).append('"');
+            if (thrown != null) {
+                line.append(",\"exception\":\"").append(escape(stackTrace(thrown))).append('"');
+            }
+            line.append('}');
+        } else {
+            line.append(TIMESTAMP.get().format(new Date(time))).append(' ').append(level)
+                    .append(level.name().length() == 4 ? "  [" : " [").append(thread).append("] ")
+                    .append(logger).append(" - ").append(msg);
+            if (thrown != null) {
+                line.append('\n').append(stackTrace(thrown).trim());
+            }
+        }
+        return line.toString();
+    }
+
+    // Substitute {} placeholders; returns how many arguments were used
+    private static int formatInto(StringBuilder out, String format, int argc, Object[] args) {
+        int used = 0;
+        int from = 0;
+        int at;
+        while (used < argc && (at = format.indexOf("{}", from)) >= 0) {
+            out.append(format, from, at).append(args[used++]);
+            from = at + 2;
+        }
+        out.append(format, from, format.length());
+        return used;
+    }
+
+    private static String stackTrace(Throwable t) {
+        StringWriter out = new StringWriter();
+        t.printStackTrace(new PrintWriter(out));
+        return out.toString();
+    }
+
+    private static String escape(String s) {
+        StringBuilder out = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.toString();
+    }
+
+    private static final ThreadLocal<SimpleDateFormat> TIMESTAMP = ThreadLocal.withInitial(() -> {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    });
+
+    /**
+     * Bounded multi-producer, single-consumer ring of preallocated slots
+     * (Vyukov's scheme). A producer claims a position with one CAS on the tail,
+     * fills the slot and publishes it by advancing the slot's sequence number;
+     * the writer thread reads slots in order as they are published.
+     */
+    private static final class Ring {
+        private final Slot[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        final AtomicLong tail = new AtomicLong();
+        private long head; // Writer thread only
+
+        Ring(int capacity) {
+            slots = new Slot[capacity];
+            sequences = new AtomicLongArray(capacity);
+            mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = new Slot();
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(long time, Level level, String logger, String thread, String format, int argc,
+                      Object a, Object b, Object c, Object[] rest) {
+            while (true) {
+                long pos = tail.get();
+                int index = (int) pos & mask;
+                long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        Slot slot = slots[index];
+                        slot.time = time;
+                        slot.level = level;
+                        slot.logger = logger;
+                        slot.thread = thread;
+                        slot.format = format;
+                        slot.argc = argc;
+                        slot.a = a;
+                        slot.b = b;
+                        slot.c = c;
+                        slot.rest = rest;
+                        sequences.set(index, pos + 1);
+                        return true;
+                    }
+                } else if (diff < 0) {
+                    return false; // Full: the writer has not freed this slot yet
+                }
+                // Otherwise another producer took this position; retry with the new tail
+            }
+        }
+
+        // Render the next published slot into out; false if there is none yet
+        boolean poll(StringBuilder out) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return false;
+            }
+            Slot slot = slots[index];
+            Object[] args = slot.rest != null ? slot.rest : new Object[]{slot.a, slot.b, slot.c};
+            try {
+                out.append(render(slot.time, slot.level, slot.logger, slot.thread, slot.format, slot.argc, args));
+            } catch (RuntimeException e) {
+                // A bad toString() must not stop the writer
+                out.append("[Log] Failed to format \"").append(slot.format).append("\": ").append(e);
+            }
+            out.append('\n');
+            slot.a = slot.b = slot.c = null;
+            slot.rest = null;
+            slot.format = null;
+            sequences.lazySet(index, head + CAPACITY);
+            head++;
+            return true;
+        }
+    }
+
+    private static final class Slot {
+        long time;
+        Level level;
+        String logger;
+        String thread;
+        String format;
+        int argc;
+        Object a;
+        Object b;
+        Object c;
+        Object[] rest;
+    }
+
+    private static final class Writer implements Runnable {
+        private static final int BATCH = 256;
+        // Straight to the stdout descriptor, past System.out's lock and autoflush
+        private final PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false);
+        final AtomicLong written = new AtomicLong();
+        final Thread thread = new Thread(this, "log-writer");
+        private long reportedDrops;
+
+        void start() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            StringBuilder batch = new StringBuilder(64 * 1024);
+            while (true) {
+                int n = 0;
+                while (n < BATCH && RING.poll(batch)) {
+                    n++;
+                }
+                long drops = DROPPED.sum();
+                if (drops != reportedDrops) {
+                    batch.append("[Log] Dropped ").append(drops - reportedDrops)
+                            .append(" messages, the log buffer was full\n");
+                    reportedDrops = drops;
+                }
+                if (batch.length() > 0) {
+                    byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+                    out.write(bytes, 0, bytes.length);
+                    out.flush();
+                    batch.setLength(0);
+                }
+                written.addAndGet(n);
+                if (n == 0) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }
+        }
+    }
+}
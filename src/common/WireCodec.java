@@ -0,0 +1,526 @@
+package common;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import model.UserStats;
+
+/**
+ * Compact binary encoding of the JMS payloads in this package, carried in a
+ * {@link BytesMessage} instead of a serialized {@link ObjectMessage}.
+ * <p>
+ * A payload is a version byte, a type tag and the fields in a fixed order.
+ * Integers are varints, strings are length-prefixed UTF-8, and usernames are
+ * written once per message and then referred to by index, so a game result
+ * naming the same four players twice carries each name once. Decoded usernames
+ * are interned, so repeated messages share one String per player.
+ * <p>
+ * The format is negotiated. A peer that can read it sets {@link #ACCEPT_PROPERTY}
+ * on everything it sends; the other side answers in binary only to such peers
+ * and keeps using ObjectMessage for everyone else. Either side always reads both,
+ * and payloads of earlier versions, with the fields they lack left at zero.
+ */
+public final class WireCodec {
+    // Version 2 added the game id to GameStartNotification and GameResult
+    public static final int VERSION = 2;
+    /** Int property: highest codec version the sender can read. */
+    public static final String ACCEPT_PROPERTY = "P24WireVersion";
+
+    private static final int TAG_JOIN_GAME_REQUEST = 1;
+    private static final int TAG_JOIN_GAME_RESPONSE = 2;
+    private static final int TAG_ANSWER_SUBMISSION = 3;
+    private static final int TAG_GAME_START = 4;
+    private static final int TAG_CARD_DRAW = 5;
+    private static final int TAG_GAME_RESULT = 6;
+    private static final int TAG_LEADERBOARD_REQUEST = 7;
+    private static final int TAG_LEADERBOARD_RESPONSE = 8;
+    private static final int TAG_USER_STATS_REQUEST = 9;
+    private static final int TAG_USER_STATS_RESPONSE = 10;
+    private static final int TAG_LEADERBOARD_UPDATE = 11;
+
+    // Decoded usernames; bounded so a flood of distinct names cannot grow it forever
+    private static final int MAX_INTERNED = 8192;
+    private static final ConcurrentHashMap<String, String> INTERNED = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Writer> WRITER = ThreadLocal.withInitial(Writer::new);
+
+    private WireCodec() {
+    }
+
+    /**
+     * Whether {@code payload} has a binary encoding.
+     */
+    public static boolean supports(Object payload) {
+        return payload instanceof JoinGameRequest || payload instanceof JoinGameResponse
+                || payload instanceof AnswerSubmission || payload instanceof GameStartNotification
+                || payload instanceof CardDrawMessage || payload instanceof GameResult
+                || payload instanceof LeaderboardRequest || payload instanceof LeaderboardResponse
+                || payload instanceof UserStatsRequest || payload instanceof UserStatsResponse
+                || payload instanceof LeaderboardUpdate;
+    }
+
+    /**
+     * Wrap a payload for sending: binary if {@code binary} and the type is supported,
+     * ObjectMessage otherwise. Either way the message advertises that this side reads binary.
+     */
+    public static Message toMessage(Session session, Serializable payload, boolean binary) throws JMSException {
+        Message message;
+        if (binary && supports(payload)) {
+            Writer w = WRITER.get();
+            w.encode(payload);
+            BytesMessage bytes = session.createBytesMessage();
+            bytes.writeBytes(w.buf, 0, w.len);
+            message = bytes;
+        } else {
+            message = session.createObjectMessage(payload);
+        }
+        message.setIntProperty(ACCEPT_PROPERTY, VERSION);
+        return message;
+    }
+
+    /**
+     * The payload of a binary or object message, or null for any other message type.
+     *
+     * @throws IllegalArgumentException if a binary payload is malformed or of an unknown version
+     */
+    public static Object fromMessage(Message message) throws JMSException {
+        if (message instanceof BytesMessage) {
+            BytesMessage bytes = (BytesMessage) message;
+            byte[] data = new byte[(int) bytes.getBodyLength()];
+            bytes.readBytes(data);
+            return decode(data, data.length);
+        }
+        if (message instanceof ObjectMessage) {
+            return ((ObjectMessage) message).getObject();
+        }
+        return null;
+    }
+
+    /**
+     * Whether the sender of {@code message} reads this codec version.
+     */
+    public static boolean acceptsBinary(Message message) throws JMSException {
+        return message.propertyExists(ACCEPT_PROPERTY) && message.getIntProperty(ACCEPT_PROPERTY) >= VERSION;
+    }
+
+    public static byte[] encode(Object payload) {
+        Writer w = WRITER.get();
+        w.encode(payload);
+        return Arrays.copyOf(w.buf, w.len);
+    }
+
+    public static Object decode(byte[] data, int length) {
+        try {
+            return new Reader(data, length).decode();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated wire payload", e);
+        }
+    }
+
+    private static String intern(String name) {
+        String existing = INTERNED.putIfAbsent(name, name);
+        if (existing != null) {
+            return existing;
+        }
+        if (INTERNED.size() > MAX_INTERNED) {
+            INTERNED.clear();
+        }
+        return name;
+    }
+
+    /**
+     * Reusable per-thread encoder.
+     */
+    private static final class Writer {
+        byte[] buf = new byte[256];
+        int len;
+        // Usernames written so far in this message, in order of first use
+        private final List<String> names = new ArrayList<>();
+
+        void encode(Object p) {
+            len = 0;
+            names.clear();
+            writeByte(VERSION);
+            if (p instanceof JoinGameRequest) {
+                writeByte(TAG_JOIN_GAME_REQUEST);
+                writeName(((JoinGameRequest) p).getUsername());
+            } else if (p instanceof JoinGameResponse) {
+                JoinGameResponse r = (JoinGameResponse) p;
+                writeByte(TAG_JOIN_GAME_RESPONSE);
+                writeByte(r.isSuccess() ? 1 : 0);
+                writeString(r.getMessage());
+            } else if (p instanceof AnswerSubmission) {
+                AnswerSubmission a = (AnswerSubmission) p;
+                writeByte(TAG_ANSWER_SUBMISSION);
+                writeName(a.getUsername());
+                writeString(a.getExpression());
+                writeVarLong(a.getSubmitTime());
+                writeInts(a.getCardValues());
+            } else if (p instanceof GameStartNotification) {
+                GameStartNotification g = (GameStartNotification) p;
+                writeByte(TAG_GAME_START);
+                writeVarLong(g.getRoomId());
+                writeVarLong(g.getGameId());
+                writeNames(g.getPlayers());
+                writeVarLong(g.getStartTime());
+            } else if (p instanceof CardDrawMessage) {
+                CardDrawMessage c = (CardDrawMessage) p;
+                writeByte(TAG_CARD_DRAW);
+                writeVarLong(c.getRoomId());
+                writeInts(c.getCards());
+            } else if (p instanceof GameResult) {
+                GameResult g = (GameResult) p;
+                writeByte(TAG_GAME_RESULT);
+                writeVarLong(g.getRoomId());
+                writeVarLong(g.getGameId());
+                Map<String, Boolean> results = g.getPlayerResults();
+                writeVarLong(results == null ? 0 : results.size() + 1);
+                if (results != null) {
+                    for (Map.Entry<String, Boolean> e : results.entrySet()) {
+                        writeName(e.getKey());
+                        writeByte(Boolean.TRUE.equals(e.getValue()) ? 1 : 0);
+                    }
+                }
+                writeName(g.getWinner());
+                writeString(g.getMessage());
+            } else if (p instanceof LeaderboardRequest) {
+                LeaderboardRequest r = (LeaderboardRequest) p;
+                writeByte(TAG_LEADERBOARD_REQUEST);
+                writeVarLong(r.getOffset());
+                writeVarLong(r.getLimit());
+                writeString(r.getCursor());
+                writeName(r.getAroundUser());
+            } else if (p instanceof LeaderboardResponse) {
+                LeaderboardResponse r = (LeaderboardResponse) p;
+                writeByte(TAG_LEADERBOARD_RESPONSE);
+                List<UserStats> rows = r.getLeaderboard();
+                writeVarLong(rows == null ? 0 : rows.size() + 1);
+                if (rows != null) {
+                    for (UserStats s : rows) {
+                        writeStats(s);
+                    }
+                }
+                writeString(r.getNextCursor());
+            } else if (p instanceof UserStatsRequest) {
+                writeByte(TAG_USER_STATS_REQUEST);
+                writeName(((UserStatsRequest) p).getUsername());
+            } else if (p instanceof UserStatsResponse) {
+                UserStats s = ((UserStatsResponse) p).getUserStats();
+                writeByte(TAG_USER_STATS_RESPONSE);
+                writeByte(s == null ? 0 : 1);
+                if (s != null) {
+                    writeStats(s);
+                }
+            } else if (p instanceof LeaderboardUpdate) {
+                List<String> entries = ((LeaderboardUpdate) p).getLeaderboardEntries();
+                writeByte(TAG_LEADERBOARD_UPDATE);
+                writeVarLong(entries == null ? 0 : entries.size() + 1);
+                if (entries != null) {
+                    for (String e : entries) {
+                        writeString(e);
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("No wire encoding for " + (p == null ? "null" : p.getClass().getName()));
+            }
+        }
+
+        private void writeStats(UserStats s) {
+            writeName(s.getUsername());
+            writeVarLong(s.getGamesPlayed());
+            writeVarLong(s.getGamesWon());
+            long bits = Double.doubleToLongBits(s.getAvgTimeToWin());
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (bits >>> shift));
+            }
+            writeVarLong(s.getRank());
+        }
+
+        private void writeInts(List<Integer> values) {
+            writeVarLong(values == null ? 0 : values.size() + 1);
+            if (values != null) {
+                for (Integer v : values) {
+                    writeVarLong(v);
+                }
+            }
+        }
+
+        private void writeNames(List<String> values) {
+            writeVarLong(values == null ? 0 : values.size() + 1);
+            if (values != null) {
+                for (String v : values) {
+                    writeName(v);
+                }
+            }
+        }
+
+        // 0 = null, 1 = new name follows, n >= 2 = name n - 2 of this message
+        private void writeName(String name) {
+            if (name == null) {
+                writeVarLong(0);
+                return;
+            }
+            int ref = names.indexOf(name);
+            if (ref >= 0) {
+                writeVarLong(ref + 2);
+                return;
+            }
+            names.add(name);
+            writeVarLong(1);
+            writeString(name);
+        }
+
+        // Length + 1 prefixed, 0 = null
+        private void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+
+        // Zigzag varint, so small negative values stay short too
+        private void writeVarLong(long v) {
+            long z = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((z & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((z & 0x7F) | 0x80);
+                z >>>= 7;
+            }
+            buf[len++] = (byte) z;
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[len++] = (byte) b;
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+        private final List<String> names = new ArrayList<>(4);
+
+        Reader(byte[] buf, int length) {
+            this.buf = buf;
+            this.end = length;
+        }
+
+        Object decode() {
+            int version = readByte();
+            if (version < 1 || version > VERSION) {
+                throw new IllegalArgumentException("Unsupported wire version " + version);
+            }
+            int tag = readByte();
+            Object result;
+            switch (tag) {
+                case TAG_JOIN_GAME_REQUEST:
+                    result = new JoinGameRequest(readName());
+                    break;
+                case TAG_JOIN_GAME_RESPONSE:
+                    result = new JoinGameResponse(readByte() != 0, readString());
+                    break;
+                case TAG_ANSWER_SUBMISSION: {
+                    String username = readName();
+                    String expression = readString();
+                    long submitTime = readVarLong();
+                    result = new AnswerSubmission(username, expression, submitTime, readInts());
+                    break;
+                }
+                case TAG_GAME_START: {
+                    long roomId = readVarLong();
+                    long gameId = version >= 2 ? readVarLong() : 0;
+                    List<String> players = required(readNames(), "players");
+                    result = new GameStartNotification(roomId, gameId, players, readVarLong());
+                    break;
+                }
+                case TAG_CARD_DRAW: {
+                    long roomId = readVarLong();
+                    result = new CardDrawMessage(roomId, required(readInts(), "cards"));
+                    break;
+                }
+                case TAG_GAME_RESULT: {
+                    long roomId = readVarLong();
+                    long gameId = version >= 2 ? readVarLong() : 0;
+                    int count = readCount();
+                    Map<String, Boolean> results = null;
+                    if (count >= 0) {
+                        results = new LinkedHashMap<>();
+                        for (int i = 0; i < count; i++) {
+                            String name = readName();
+                            results.put(name, readByte() != 0);
+                        }
+                    }
+                    String winner = readName();
+                    result = new GameResult(roomId, gameId, results, winner, readString());
+                    break;
+                }
+                case TAG_LEADERBOARD_REQUEST: {
+                    int offset = (int) readVarLong();
+                    int limit = (int) readVarLong();
+                    String cursor = readString();
+                    result = new LeaderboardRequest(offset, limit, cursor, readName());
+                    break;
+                }
+                case TAG_LEADERBOARD_RESPONSE: {
+                    int count = readCount();
+                    List<UserStats> rows = null;
+                    if (count >= 0) {
+                        rows = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            rows.add(readStats());
+                        }
+                    }
+                    result = new LeaderboardResponse(rows, readString());
+                    break;
+                }
+                case TAG_USER_STATS_REQUEST:
+                    result = new UserStatsRequest(readName());
+                    break;
+                case TAG_USER_STATS_RESPONSE:
+                    result = new UserStatsResponse(readByte() != 0 ? readStats() : null);
+                    break;
+                case TAG_LEADERBOARD_UPDATE: {
+                    int count = readCount();
+                    List<String> entries = null;
+                    if (count >= 0) {
+                        entries = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            entries.add(readString());
+                        }
+                    }
+                    result = new LeaderboardUpdate(entries);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown wire type " + tag);
+            }
+            if (pos != end) {
+                throw new IllegalArgumentException("Trailing bytes in wire payload");
+            }
+            return result;
+        }
+
+        private UserStats readStats() {
+            String username = readName();
+            int played = (int) readVarLong();
+            int won = (int) readVarLong();
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return new UserStats(username, played, won, Double.longBitsToDouble(bits), (int) readVarLong());
+        }
+
+        // For fields the DTO's constructor cannot take as null
+        private static <T> T required(T value, String field) {
+            if (value == null) {
+                throw new IllegalArgumentException("Missing " + field);
+            }
+            return value;
+        }
+
+        private List<Integer> readInts() {
+            int count = readCount();
+            if (count < 0) {
+                return null;
+            }
+            List<Integer> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add((int) readVarLong());
+            }
+            return values;
+        }
+
+        private List<String> readNames() {
+            int count = readCount();
+            if (count < 0) {
+                return null;
+            }
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readName());
+            }
+            return values;
+        }
+
+        private String readName() {
+            long ref = readVarLong();
+            if (ref == 0) {
+                return null;
+            }
+            if (ref == 1) {
+                String name = readString();
+                if (name == null) {
+                    throw new IllegalArgumentException("Missing name");
+                }
+                name = intern(name);
+                names.add(name);
+                return name;
+            }
+            if (ref - 2 >= names.size()) {
+                throw new IllegalArgumentException("Bad name reference " + ref);
+            }
+            return names.get((int) (ref - 2));
+        }
+
+        private String readString() {
+            int length = readCount();
+            if (length < 0) {
+                return null;
+            }
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        // Count + 1 prefixed, -1 = null
+        private int readCount() {
+            long n = readVarLong() - 1;
+            if (n > end - pos) {
+                throw new IllegalArgumentException("Bad count " + n);
+            }
+            return (int) n;
+        }
+
+        private long readVarLong() {
+            long z = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                z |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (z >>> 1) ^ -(z & 1);
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        private int readByte() {
+            if (pos >= end) {
+                throw new IllegalArgumentException("Truncated wire payload");
+            }
+            return buf[pos++] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package ingest;
+
+import common.Log;
+import org.apache.kafka.clients.consumer.CommitFailedException;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import server.AnalyticsEvents;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies the analytics topic into an archive of time-partitioned, gzip-compressed
+ * segment files for the Hadoop leaderboard job.
+ * <p>
+ * The ingester consumes {@code -DKAFKA_TOPIC} in consumer group
+ * {@code -DINGEST_GROUP} with auto commit off. Each event becomes one line
+ * ({@link AnalyticsEvents#archiveLine}) of a {@link StagingSegment}, which is
+ * flushed to local disk every {@code -DINGEST_FLUSH_RECORDS} events or
+ * {@code -DINGEST_FLUSH_MS}. A segment is finished once it holds
+ * {@code -DINGEST_SEGMENT_BYTES} compressed, is {@code -DINGEST_SEGMENT_SECONDS}
+ * old or its hour is over. It is then published to the {@link ArchiveSink} as
+ * {@code YYYY/MM/DD/HH/events-<instance>-<start ms>.log.gz}, named after the
+ * UTC hour it was started in, and only then are its offsets committed.
+ * <p>
+ * Restarts resume exactly where the ingester stopped. The group's committed
+ * offsets cover every published segment. A segment still staged from the
+ * previous run is cut back to its last flush, published under the same name and
+ * committed when the first partitions are assigned, and consumption continues
+ * after its records. Records are archived twice only if a rebalance takes
+ * partitions away while their segment cannot be published. When publishing
+ * fails, the ingester pauses its partitions and retries with backoff, and it
+ * keeps polling so it stays in the group.
+ */
+public final class ArchiveIngester {
+    private static final Log LOG = Log.get("ArchiveIngester");
+
+    private static final String KAFKA_BOOTSTRAP = System.getProperty("KAFKA_BOOTSTRAP", "localhost:9092");
+    private static final String KAFKA_TOPIC = System.getProperty("KAFKA_TOPIC", "game-analytics");
+    private static final String GROUP = System.getProperty("INGEST_GROUP", "game24-archive");
+    // local (INGEST_TARGET is a directory) or hdfs (INGEST_TARGET is an HDFS path, written with HDFS_CMD)
+    private static final String SINK = System.getProperty("INGEST_SINK", "local");
+    private static final String TARGET = System.getProperty("INGEST_TARGET");
+    private static final String HDFS_CMD = System.getProperty("HDFS_CMD", "hdfs");
+    // One staging directory per ingester process
+    private static final String STAGING_DIR = System.getProperty("INGEST_STAGING_DIR", "data/ingest-staging");
+    private static final String INSTANCE = System.getProperty("INGEST_INSTANCE");
+    private static final int FLUSH_RECORDS = Integer.parseInt(System.getProperty("INGEST_FLUSH_RECORDS", "5000"));
+    private static final long FLUSH_MS = Long.parseLong(System.getProperty("INGEST_FLUSH_MS", "2000"));
+    private static final long SEGMENT_BYTES = Long.parseLong(System.getProperty("INGEST_SEGMENT_BYTES", "134217728"));
+    private static final long SEGMENT_MS = TimeUnit.SECONDS.toMillis(
+            Long.parseLong(System.getProperty("INGEST_SEGMENT_SECONDS", "600")));
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+    private static final long RETRY_MIN_MS = 1000;
+    private static final long RETRY_MAX_MS = 60_000;
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+    private static final DateTimeFormatter HOUR_PATH = DateTimeFormatter.ofPattern("yyyy/MM/dd/HH").withZone(ZoneOffset.UTC);
+
+    private final Consumer<String, byte[]> consumer;
+    private final ArchiveSink sink;
+    private final String topic;
+    private final File stagingDir;
+    private final String instance;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+
+    // Consumer thread only
+    private StagingSegment segment;
+    private long lastFlush = System.currentTimeMillis();
+    private long retryAt;
+    private long retryMs = RETRY_MIN_MS;
+
+    public ArchiveIngester(Consumer<String, byte[]> consumer, ArchiveSink sink, String topic,
+                           File stagingDir, String instance) {
+        this.consumer = consumer;
+        this.sink = sink;
+        this.topic = topic;
+        this.stagingDir = stagingDir;
+        this.instance = instance;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties props = new Properties();
+        props.put("bootstrap.servers", KAFKA_BOOTSTRAP);
+        props.put("group.id", GROUP);
+        props.put("enable.auto.commit", "false");
+        // A new group archives the whole topic; afterwards the committed offsets decide
+        props.put("auto.offset.reset", "earliest");
+        props.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+        props.put("value.deserializer", "org.apache.kafka.common.serialization.ByteArrayDeserializer");
+        // Fetch in batches rather than event by event
+        props.put("fetch.min.bytes", "65536");
+        props.put("fetch.max.wait.ms", "500");
+        props.put("max.poll.records", "2000");
+
+        ArchiveSink sink = "hdfs".equalsIgnoreCase(SINK)
+                ? new HdfsShellArchiveSink(HDFS_CMD, TARGET != null ? TARGET : "/game24/raw-events")
+                : new LocalArchiveSink(new File(TARGET != null ? TARGET : "data/raw-events"));
+        String instance = INSTANCE != null ? INSTANCE : hostName();
+        ArchiveIngester ingester = new ArchiveIngester(new KafkaConsumer<>(props), sink, KAFKA_TOPIC,
+                new File(STAGING_DIR), instance);
+        Runtime.getRuntime().addShutdownHook(new Thread(ingester::stop));
+        LOG.info("Archiving {} (group {}) to {} as {}", KAFKA_TOPIC, GROUP, sink, instance);
+        ingester.run();
+    }
+
+    /**
+     * Consume until {@link #stop()}, then flush and try to publish the open segment.
+     */
+    public void run() throws IOException {
+        if (!stagingDir.isDirectory() && !stagingDir.mkdirs()) {
+            throw new IOException("Cannot create staging directory " + stagingDir);
+        }
+        try {
+            segment = StagingSegment.recover(stagingDir);
+            if (segment != null) {
+                LOG.info("Recovered staged segment {} with {} events", segment.path(), segment.records());
+            }
+            consumer.subscribe(Collections.singletonList(topic), new Rebalance());
+            while (running) {
+                ConsumerRecords<String, byte[]> records;
+                try {
+                    records = consumer.poll(POLL_TIMEOUT);
+                } catch (WakeupException e) {
+                    break;
+                }
+                long now = System.currentTimeMillis();
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    if (segment == null) {
+                        segment = StagingSegment.create(stagingDir, archivePath(now), now);
+                    }
+                    segment.append(AnalyticsEvents.archiveLine(record.value()), record.partition(), record.offset());
+                }
+                if (segment != null && (segment.pendingRecords() >= FLUSH_RECORDS || now - lastFlush >= FLUSH_MS)) {
+                    flush(now);
+                }
+                if (segment != null && finished(segment, now) && now >= retryAt) {
+                    publish(now);
+                }
+            }
+            if (segment != null) {
+                flush(System.currentTimeMillis());
+                publish(System.currentTimeMillis());
+            }
+            if (segment != null) {
+                segment.close();
+                LOG.info("Segment {} stays staged for the next start", segment.path());
+            }
+        } finally {
+            consumer.close();
+            stopped.countDown();
+            Log.flush(2000);
+        }
+    }
+
+    /**
+     * Stop consuming and wait for {@link #run()} to wind down.
+     */
+    public void stop() {
+        running = false;
+        consumer.wakeup();
+        try {
+            stopped.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String archivePath(long createdAt) {
+        return HOUR_PATH.format(Instant.ofEpochMilli(createdAt)) + "/events-" + instance + "-" + createdAt + ".log.gz";
+    }
+
+    private static boolean finished(StagingSegment segment, long now) throws IOException {
+        return segment.flushedBytes() >= SEGMENT_BYTES
+                || now - segment.createdAt() >= SEGMENT_MS
+                || now / HOUR_MS != segment.createdAt() / HOUR_MS;
+    }
+
+    private void flush(long now) throws IOException {
+        segment.flush();
+        lastFlush = now;
+    }
+
+    /**
+     * Publish the segment and commit its offsets; on failure keep it staged and
+     * pause consumption until the retry.
+     */
+    private boolean publish(long now) throws IOException {
+        segment.flush();
+        if (segment.records() > 0) {
+            try {
+                sink.publish(segment.file(), segment.path());
+            } catch (IOException e) {
+                LOG.warn("Failed to publish {}, retrying in {} ms: {}", segment.path(), retryMs, e.getMessage());
+                consumer.pause(consumer.assignment());
+                retryAt = now + retryMs;
+                retryMs = Math.min(RETRY_MAX_MS, retryMs * 2);
+                return false;
+            }
+            commit(segment.flushedOffsets());
+            LOG.info("Archived {} events ({} bytes) to {}", segment.records(), segment.flushedBytes(), segment.path());
+        }
+        segment.delete();
+        segment = null;
+        retryAt = 0;
+        retryMs = RETRY_MIN_MS;
+        consumer.resume(consumer.paused());
+        return true;
+    }
+
+    private void commit(Map<Integer, Long> offsets) {
+        Map<TopicPartition, OffsetAndMetadata> commit = new HashMap<>();
+        for (Map.Entry<Integer, Long> e : offsets.entrySet()) {
+            commit.put(new TopicPartition(topic, e.getKey()), new OffsetAndMetadata(e.getValue()));
+        }
+        try {
+            consumer.commitSync(commit);
+        } catch (CommitFailedException e) {
+            // The partitions moved to another member, which reads them again from the last commit
+            LOG.warn("Offsets of {} were not committed; its events may be archived again", segment.path());
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "ingest";
+        }
+    }
+
+    /**
+     * Publishes before partitions move, and resumes after a staged segment when they arrive.
+     */
+    private final class Rebalance implements ConsumerRebalanceListener {
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            if (segment == null) {
+                return;
+            }
+            try {
+                if (!publish(System.currentTimeMillis())) {
+                    LOG.warn("Partitions {} revoked before {} was published", partitions, segment.path());
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to flush {} before a rebalance: {}", segment.path(), e.getMessage());
+            }
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            if (segment == null) {
+                return;
+            }
+            // Continue after the staged records, whether or not they can be published yet
+            for (TopicPartition partition : partitions) {
+                Long next = segment.flushedOffsets().get(partition.partition());
+                if (next != null) {
+                    consumer.seek(partition, next);
+                }
+            }
+            try {
+                publish(System.currentTimeMillis());
+            } catch (IOException e) {
+                LOG.warn("Failed to flush {}: {}", segment.path(), e.getMessage());
+            }
+        }
+    }
+}
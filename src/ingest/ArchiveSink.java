@@ -0,0 +1,18 @@
+package ingest;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Where {@link ArchiveIngester} stores finished segment files.
+ */
+public interface ArchiveSink {
+    /**
+     * Store {@code file} at {@code path} under the archive root, replacing any
+     * earlier copy. The segment must appear whole or not at all, as the same
+     * segment is published again if the ingester stops before committing it.
+     *
+     * @param path relative, '/'-separated, e.g. {@code 2024/11/24/03/events-host-1732417200000.log.gz}
+     */
+    void publish(File file, String path) throws IOException;
+}
@@ -0,0 +1,73 @@
+package ingest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Archive in HDFS through the {@code hdfs} command line, so the ingester needs
+ * no Hadoop client jars. A segment costs four commands when it is finished,
+ * instead of an {@code -appendToFile} per flush.
+ * <p>
+ * {@code hdfs dfs -put} uploads through a {@code ._COPYING_} file next to its
+ * target, which the leaderboard job's {@code events-*} search would match. The
+ * segment is therefore put under a {@code _}-prefixed name, which that search
+ * and Hadoop input formats both skip, and then renamed into place with
+ * {@code -mv}, so jobs only ever see whole segments.
+ */
+public final class HdfsShellArchiveSink implements ArchiveSink {
+    private final String hdfsCommand;
+    private final String root;
+
+    /**
+     * @param hdfsCommand the {@code hdfs} executable
+     * @param root        archive directory in HDFS
+     */
+    public HdfsShellArchiveSink(String hdfsCommand, String root) {
+        this.hdfsCommand = hdfsCommand;
+        this.root = root.endsWith("/") ? root.substring(0, root.length() - 1) : root;
+    }
+
+    @Override
+    public void publish(File file, String path) throws IOException {
+        String target = root + "/" + path;
+        int slash = target.lastIndexOf('/');
+        String staged = target.substring(0, slash + 1) + "_" + target.substring(slash + 1);
+        run(hdfsCommand, "dfs", "-mkdir", "-p", target.substring(0, slash));
+        run(hdfsCommand, "dfs", "-put", "-f", file.getAbsolutePath(), staged);
+        // -mv does not overwrite; an earlier copy of a republished segment holds the same records
+        run(hdfsCommand, "dfs", "-rm", "-f", target);
+        run(hdfsCommand, "dfs", "-mv", staged, target);
+    }
+
+    private static void run(String... command) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                output.write(buf, 0, n);
+            }
+        }
+        int status;
+        try {
+            status = process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted running " + String.join(" ", command));
+        }
+        if (status != 0) {
+            throw new IOException(String.join(" ", command) + " exited with " + status + ": "
+                    + new String(output.toByteArray(), StandardCharsets.UTF_8).trim());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hdfs:" + root;
+    }
+}
@@ -0,0 +1,33 @@
+package ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Archive on the local file system, for testing and single-machine setups.
+ */
+public final class LocalArchiveSink implements ArchiveSink {
+    private final File root;
+
+    public LocalArchiveSink(File root) {
+        this.root = root;
+    }
+
+    @Override
+    public void publish(File file, String path) throws IOException {
+        Path target = new File(root, path).toPath();
+        Files.createDirectories(target.getParent());
+        // Copy next to the target, then rename over it, so readers never see a partial segment
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.copy(file.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String toString() {
+        return "file:" + root.getAbsolutePath();
+    }
+}
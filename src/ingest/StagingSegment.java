@@ -0,0 +1,181 @@
+package ingest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The segment being filled, staged on local disk until it is published.
+ * <p>
+ * Lines are buffered in memory and written by {@link #flush()} as one gzip
+ * member, so the file is always a valid concatenated gzip stream. After each
+ * flush the data is forced to disk and a state file is atomically replaced
+ * with the archive path, the flushed length and, per partition, the offset
+ * after the last flushed record. {@link #recover} reopens a staged segment
+ * from that state, cutting off anything written after the last flush, so the
+ * ingester knows exactly which records the segment holds.
+ */
+final class StagingSegment {
+    private static final String DATA_FILE = "segment.log.gz";
+    private static final String STATE_FILE = "segment.state";
+
+    private final File dir;
+    private final String path;
+    private final long createdAt;
+    private final RandomAccessFile data;
+    // Next offset per partition of the records on disk, and of those plus the buffered ones
+    private final Map<Integer, Long> flushedOffsets;
+    private final Map<Integer, Long> offsets;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(16 * 1024);
+    private int pendingRecords;
+    private long records;
+
+    private StagingSegment(File dir, String path, long createdAt, Map<Integer, Long> offsets, long length)
+            throws IOException {
+        this.dir = dir;
+        this.path = path;
+        this.createdAt = createdAt;
+        this.flushedOffsets = new HashMap<>(offsets);
+        this.offsets = new HashMap<>(offsets);
+        this.data = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+        data.setLength(length);
+        data.seek(length);
+    }
+
+    /**
+     * Start an empty segment that will be published at {@code path}.
+     */
+    static StagingSegment create(File dir, String path, long createdAt) throws IOException {
+        StagingSegment segment = new StagingSegment(dir, path, createdAt, new HashMap<>(), 0);
+        segment.writeState();
+        return segment;
+    }
+
+    /**
+     * The segment staged in {@code dir}, or null if there is none.
+     */
+    static StagingSegment recover(File dir) throws IOException {
+        File state = new File(dir, STATE_FILE);
+        if (!state.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (Reader in = Files.newBufferedReader(state.toPath(), StandardCharsets.UTF_8)) {
+            props.load(in);
+        }
+        Map<Integer, Long> offsets = new HashMap<>();
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith("offset.")) {
+                offsets.put(Integer.parseInt(name.substring(7)), Long.parseLong(props.getProperty(name)));
+            }
+        }
+        StagingSegment segment = new StagingSegment(dir, props.getProperty("path"),
+                Long.parseLong(props.getProperty("created")), offsets, Long.parseLong(props.getProperty("length")));
+        segment.records = Long.parseLong(props.getProperty("records"));
+        return segment;
+    }
+
+    /**
+     * Buffer one line, read from {@code partition} at {@code offset}.
+     */
+    void append(String line, int partition, long offset) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        pending.write(bytes, 0, bytes.length);
+        pending.write('\n');
+        offsets.put(partition, offset + 1);
+        pendingRecords++;
+    }
+
+    /**
+     * Compress the buffered lines onto the file, force it to disk and record the new state.
+     */
+    void flush() throws IOException {
+        if (pendingRecords == 0) {
+            return;
+        }
+        compressed.reset();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 64 * 1024)) {
+            pending.writeTo(gzip);
+        }
+        data.write(compressed.toByteArray());
+        data.getFD().sync();
+        records += pendingRecords;
+        pending.reset();
+        pendingRecords = 0;
+        flushedOffsets.clear();
+        flushedOffsets.putAll(offsets);
+        writeState();
+    }
+
+    /**
+     * Remove the staged files once the segment is published and its offsets committed.
+     */
+    void delete() throws IOException {
+        data.close();
+        Files.deleteIfExists(new File(dir, STATE_FILE).toPath());
+        Files.deleteIfExists(new File(dir, DATA_FILE).toPath());
+    }
+
+    void close() throws IOException {
+        data.close();
+    }
+
+    File file() {
+        return new File(dir, DATA_FILE);
+    }
+
+    String path() {
+        return path;
+    }
+
+    long createdAt() {
+        return createdAt;
+    }
+
+    /**
+     * Next offset per partition for the flushed records; what to commit once published.
+     */
+    Map<Integer, Long> flushedOffsets() {
+        return flushedOffsets;
+    }
+
+    long flushedBytes() throws IOException {
+        return data.length();
+    }
+
+    long records() {
+        return records;
+    }
+
+    int pendingRecords() {
+        return pendingRecords;
+    }
+
+    private void writeState() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("path", path);
+        props.setProperty("created", Long.toString(createdAt));
+        props.setProperty("length", Long.toString(data.length()));
+        props.setProperty("records", Long.toString(records));
+        for (Map.Entry<Integer, Long> e : flushedOffsets.entrySet()) {
+            props.setProperty("offset." + e.getKey(), Long.toString(e.getValue()));
+        }
+        File tmp = new File(dir, STATE_FILE + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            props.store(out, null);
+        }
+        Files.move(tmp.toPath(), new File(dir, STATE_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
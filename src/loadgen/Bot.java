@@ -0,0 +1,119 @@
+package loadgen;
+
+import common.AnswerSubmission;
+import common.CardDrawMessage;
+import common.ClientTransport;
+import common.GameResult;
+import common.GameStartNotification;
+import common.JoinGameRequest;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One virtual player: joins, waits for its game and cards, thinks, answers and
+ * waits for the result, over and over until the run ends.
+ * <p>
+ * A bot blocks on its own inbox, which {@link LoadGenerator} fills with the
+ * topic messages of the bot's room. That is cheap on a virtual thread, so a
+ * run can hold thousands of bots.
+ */
+final class Bot implements Runnable {
+    private static final long JOIN_TIMEOUT_MS = 30_000;
+    // The server gives up on answers after 60 seconds
+    private static final long RESULT_TIMEOUT_MS = 70_000;
+
+    private final String username;
+    private final ClientTransport transport;
+    private final LoadGenerator run;
+    final LinkedBlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+
+    Bot(String username, ClientTransport transport, LoadGenerator run) {
+        this.username = username;
+        this.transport = transport;
+        this.run = run;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (run.isRunning()) {
+                playOneGame();
+            }
+        } catch (InterruptedException e) {
+            // Run over
+        } catch (Exception e) {
+            System.err.println("[LoadGen] " + username + " stopped: " + e.getMessage());
+        }
+    }
+
+    private void playOneGame() throws Exception {
+        inbox.clear();
+        long joinedAt = System.nanoTime();
+        transport.sendGame(new JoinGameRequest(username));
+        GameStartNotification start = await(GameStartNotification.class, JOIN_TIMEOUT_MS);
+        if (start == null) {
+            run.joinTimeouts.increment();
+            return;
+        }
+        run.joinToStart.recordNanos(System.nanoTime() - joinedAt);
+
+        CardDrawMessage draw = await(CardDrawMessage.class, JOIN_TIMEOUT_MS);
+        if (draw == null) {
+            return;
+        }
+        // Someone else may win while this bot is still thinking
+        Object early = inbox.poll(run.thinkTimeMs(), TimeUnit.MILLISECONDS);
+        if (early instanceof GameResult) {
+            return;
+        }
+
+        boolean correct = ThreadLocalRandom.current().nextDouble() < run.correctRatio;
+        String expression = correct ? run.solutionFor(draw.getCards()) : null;
+        if (expression == null) {
+            expression = wrongAnswer(draw.getCards());
+        }
+        long submittedAt = System.nanoTime();
+        transport.sendGame(new AnswerSubmission(username, expression, System.currentTimeMillis(), draw.getCards()));
+        run.submissions.increment();
+        GameResult result = await(GameResult.class, RESULT_TIMEOUT_MS);
+        if (result == null) {
+            run.resultTimeouts.increment();
+            return;
+        }
+        run.submitToResult.recordNanos(System.nanoTime() - submittedAt);
+        if (username.equals(result.getWinner())) {
+            run.wins.increment();
+        }
+    }
+
+    // Next inbox message of this type, skipping others; null on timeout
+    private <T> T await(Class<T> type, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0 || !run.isRunning()) {
+                return null;
+            }
+            Object message = inbox.poll(Math.min(left, TimeUnit.SECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+            if (type.isInstance(message)) {
+                return type.cast(message);
+            }
+        }
+    }
+
+    // Uses every card once but does not make 24
+    private static String wrongAnswer(List<Integer> cards) {
+        int a = cards.get(0), b = cards.get(1), c = cards.get(2), d = cards.get(3);
+        if (a + b + c + d != 24) {
+            return a + "+" + b + "+" + c + "+" + d;
+        }
+        return a + "*" + b + "*" + c + "*" + d;
+    }
+}
@@ -0,0 +1,231 @@
+package loadgen;
+
+import client.JmsClientTransport;
+import common.CardDrawMessage;
+import common.ClientTransport;
+import common.GameResult;
+import common.GameStartNotification;
+import common.InMemoryBroker;
+import common.LatencyHistogram;
+import server.JPoker24GameServer;
+import server.SolverTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator: thousands of bot players speaking the client
+ * protocol to a server over JMS, or to an in-process server over an
+ * {@link InMemoryBroker}.
+ * <p>
+ * Every bot runs on its own virtual thread when the JVM has them (Java 21+),
+ * otherwise on a plain thread. The bots share one transport per
+ * {@code LOADGEN_CONNECTIONS}; its topic listener routes each broadcast to the
+ * bots in that message's room. At the end it prints join-to-start and
+ * submit-to-result latency percentiles and completed games per second.
+ * <p>
+ * Configured with system properties: {@code LOADGEN_TRANSPORT} (memory or jms),
+ * {@code LOADGEN_PLAYERS}, {@code LOADGEN_DURATION_S}, {@code LOADGEN_RAMP_MS},
+ * {@code LOADGEN_THINK_MS}, {@code LOADGEN_CORRECT_RATIO} and
+ * {@code LOADGEN_CONNECTIONS}.
+ */
+public class LoadGenerator {
+    private static final String TRANSPORT = System.getProperty("LOADGEN_TRANSPORT", "memory");
+    private static final int PLAYERS = Integer.parseInt(System.getProperty("LOADGEN_PLAYERS", "1000"));
+    private static final long DURATION_S = Long.parseLong(System.getProperty("LOADGEN_DURATION_S", "60"));
+    // Bots start spread over this window rather than all at once
+    private static final long RAMP_MS = Long.parseLong(System.getProperty("LOADGEN_RAMP_MS", "5000"));
+    // Mean think time; each answer waits uniformly between half and one and a half times this
+    private static final long THINK_MS = Long.parseLong(System.getProperty("LOADGEN_THINK_MS", "2000"));
+    private static final double CORRECT_RATIO = Double.parseDouble(System.getProperty("LOADGEN_CORRECT_RATIO", "0.5"));
+    private static final int CONNECTIONS = Integer.parseInt(System.getProperty("LOADGEN_CONNECTIONS", "1"));
+    private static final long REPORT_INTERVAL_S = Long.parseLong(System.getProperty("LOADGEN_REPORT_S", "10"));
+
+    final double correctRatio;
+    private final long thinkMs;
+    private final SolverTable solver = SolverTable.build();
+    private final ConcurrentHashMap<String, Bot> bots = new ConcurrentHashMap<>();
+    // Bots of each running game, by room id, for routing card draws and results
+    private final ConcurrentHashMap<Long, List<Bot>> rooms = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    final LatencyHistogram joinToStart = new LatencyHistogram();
+    final LatencyHistogram submitToResult = new LatencyHistogram();
+    final LongAdder gamesFinished = new LongAdder();
+    final LongAdder submissions = new LongAdder();
+    final LongAdder wins = new LongAdder();
+    final LongAdder joinTimeouts = new LongAdder();
+    final LongAdder resultTimeouts = new LongAdder();
+
+    LoadGenerator(double correctRatio, long thinkMs) {
+        this.correctRatio = correctRatio;
+        this.thinkMs = thinkMs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator(CORRECT_RATIO, THINK_MS);
+        InMemoryBroker broker = null;
+        JPoker24GameServer server = null;
+        List<ClientTransport> transports = new ArrayList<>();
+        if ("memory".equalsIgnoreCase(TRANSPORT)) {
+            broker = new InMemoryBroker();
+            server = startServer(broker);
+            for (int i = 0; i < CONNECTIONS; i++) {
+                transports.add(broker.connectClient());
+            }
+        } else {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                transports.add(new JmsClientTransport());
+            }
+        }
+        try {
+            generator.run(transports, PLAYERS, TimeUnit.SECONDS.toMillis(DURATION_S), RAMP_MS);
+        } finally {
+            for (ClientTransport transport : transports) {
+                transport.close();
+            }
+            if (server != null) server.shutdown();
+            if (broker != null) broker.close();
+        }
+        System.exit(0);
+    }
+
+    private static JPoker24GameServer startServer(InMemoryBroker broker) {
+        JPoker24GameServer server = new JPoker24GameServer(broker);
+        Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (Exception e) {
+                System.err.println("[LoadGen] In-process server failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }, "loadgen-server");
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /**
+     * Play {@code players} bots spread across {@code transports} for {@code durationMs}, then report.
+     */
+    void run(List<ClientTransport> transports, int players, long durationMs, long rampMs) throws Exception {
+        for (ClientTransport transport : transports) {
+            transport.setTopicListener(this::route);
+            transport.start();
+        }
+        String prefix = "bot" + Long.toString(System.currentTimeMillis() % 100_000, 36) + "-";
+        ExecutorService threads = newBotExecutor();
+        long startedAt = System.nanoTime();
+        System.out.println("[LoadGen] Starting " + players + " bots over " + TRANSPORT + " (" + transports.size()
+                + " connections, think " + thinkMs + " ms, " + Math.round(correctRatio * 100) + "% correct).");
+        for (int i = 0; i < players; i++) {
+            Bot bot = new Bot(prefix + i, transports.get(i % transports.size()), this);
+            bots.put(bot.getUsername(), bot);
+            long delayMs = players > 1 ? rampMs * i / (players - 1) : 0;
+            threads.execute(() -> {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                bot.run();
+            });
+        }
+
+        long endAt = startedAt + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        long lastGames = 0;
+        while (System.nanoTime() < endAt) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(REPORT_INTERVAL_S),
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(endAt - System.nanoTime()))));
+            long games = gamesFinished.sum();
+            System.out.printf("[LoadGen] %ds: %d games (+%d), join-to-start %s, submit-to-result %s%n",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt), games, games - lastGames,
+                    joinToStart.summary(), submitToResult.summary());
+            lastGames = games;
+        }
+        running = false;
+        threads.shutdownNow();
+        threads.awaitTermination(5, TimeUnit.SECONDS);
+        report(System.nanoTime() - startedAt);
+    }
+
+    // Virtual threads where the JVM has them; looked up reflectively so this still builds on Java 8
+    private static ExecutorService newBotExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("[LoadGen] Virtual threads unavailable; using platform threads.");
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(null, r, "loadgen-bot", 256 * 1024);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // Topic listener: hand each broadcast to the bots in its room
+    private void route(Object payload) {
+        if (payload instanceof GameStartNotification) {
+            GameStartNotification start = (GameStartNotification) payload;
+            List<Bot> players = new ArrayList<>();
+            for (String username : start.getPlayers()) {
+                Bot bot = bots.get(username);
+                if (bot != null) {
+                    players.add(bot);
+                }
+            }
+            if (!players.isEmpty()) {
+                rooms.put(start.getRoomId(), players);
+                deliver(players, payload);
+            }
+        } else if (payload instanceof CardDrawMessage) {
+            deliver(rooms.get(((CardDrawMessage) payload).getRoomId()), payload);
+        } else if (payload instanceof GameResult) {
+            List<Bot> players = rooms.remove(((GameResult) payload).getRoomId());
+            if (players != null) {
+                gamesFinished.increment();
+                deliver(players, payload);
+            }
+        }
+    }
+
+    private static void deliver(List<Bot> players, Object payload) {
+        if (players != null) {
+            for (Bot bot : players) {
+                bot.inbox.offer(payload);
+            }
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long games = gamesFinished.sum();
+        System.out.println("[LoadGen] ---- Results ----");
+        System.out.printf("[LoadGen] Duration %.1fs, %d bots, %d games, %.2f games/s%n",
+                seconds, bots.size(), games, games / seconds);
+        System.out.println("[LoadGen] Join-to-start:    " + joinToStart.summary());
+        System.out.println("[LoadGen] Submit-to-result: " + submitToResult.summary());
+        System.out.println("[LoadGen] Submissions " + submissions.sum() + ", bot wins " + wins.sum()
+                + ", join timeouts " + joinTimeouts.sum() + ", result timeouts " + resultTimeouts.sum());
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    long thinkTimeMs() {
+        return thinkMs / 2 + ThreadLocalRandom.current().nextLong(thinkMs + 1);
+    }
+
+    // The solver's answer for this hand, or null if it has none
+    String solutionFor(List<Integer> cards) {
+        int index = solver.indexOf(cards);
+        return index < 0 ? null : solver.solution(index);
+    }
+}
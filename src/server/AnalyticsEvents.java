@@ -0,0 +1,375 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encoding of the GAME_FINISHED analytics events sent to Kafka.
+ * <p>
+ * {@link Format#JSON} is one JSON object per event, as the Hadoop mapper has
+ * always read, now with a {@code schema_version} field and proper string
+ * escaping. {@link Format#BINARY} carries the same fields in about a fifth of
+ * the bytes: {@link #BINARY_MAGIC}, the schema version, an event type byte, then
+ * the game id, timestamp, duration and player count as unsigned varints, each player as a
+ * length-prefixed UTF-8 name and a won byte, and the winner as 0 for none or
+ * one plus its index among the players. A JSON event always starts with
+ * {@code '{'}, so a reader tells the two apart by the first byte. Schema version
+ * 2 added the game id; version 1 events decode with game id 0.
+ * <p>
+ * Both are written straight to UTF-8 bytes in a per-thread {@link Encoder}
+ * buffer that is reused from event to event, without intermediate strings.
+ * Archives are text, one event per line, so binary events are archived as
+ * {@link #ARCHIVE_BINARY_PREFIX} and their Base64 ({@link #archiveLine}).
+ */
+public final class AnalyticsEvents {
+    static final int SCHEMA_VERSION = 2;
+    // Not a byte any JSON text can start with
+    static final int BINARY_MAGIC = 0xA4;
+    static final String ARCHIVE_BINARY_PREFIX = "b64:";
+    private static final int TYPE_GAME_FINISHED = 1;
+    // Written for games without a winner; the Hadoop job only reads the players
+    private static final String NO_WINNER = "None";
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    enum Format {
+        JSON, BINARY
+    }
+
+    private static final ThreadLocal<Encoder> ENCODER = ThreadLocal.withInitial(Encoder::new);
+
+    private AnalyticsEvents() {
+    }
+
+    /**
+     * This thread's encoder; the bytes of one event stay valid until its next {@code encode}.
+     */
+    static Encoder encoder() {
+        return ENCODER.get();
+    }
+
+    /**
+     * The event as a JSON string.
+     */
+    static String json(GameRecord record, long timestamp) {
+        Encoder e = encoder().encode(record, timestamp, Format.JSON);
+        return new String(e.buf, 0, e.len, StandardCharsets.UTF_8);
+    }
+
+    static boolean isBinary(byte[] event) {
+        return event.length > 0 && (event[0] & 0xFF) == BINARY_MAGIC;
+    }
+
+    /**
+     * The event as one archive line: JSON as is, binary as Base64 behind {@link #ARCHIVE_BINARY_PREFIX}.
+     */
+    public static String archiveLine(byte[] event) {
+        if (isBinary(event)) {
+            return ARCHIVE_BINARY_PREFIX + Base64.getEncoder().encodeToString(event);
+        }
+        return new String(event, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A binary event as JSON, for tools that only read JSON.
+     *
+     * @throws IllegalArgumentException if the event is malformed or of a newer schema
+     */
+    static String binaryToJson(byte[] event) {
+        Decoded d = decodeBinary(event);
+        Encoder e = new Encoder();
+        e.writeJson(d.gameId, d.results, d.winner, d.durationMs, d.timestamp);
+        return new String(e.buf, 0, e.len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The fields of a binary event.
+     *
+     * @throws IllegalArgumentException if the event is malformed or of a newer schema
+     */
+    static Decoded decodeBinary(byte[] event) {
+        Reader r = new Reader(event);
+        if (r.readByte() != BINARY_MAGIC) {
+            throw new IllegalArgumentException("Not a binary analytics event");
+        }
+        int version = r.readByte();
+        if (version < 1 || version > SCHEMA_VERSION) {
+            throw new IllegalArgumentException("Unsupported analytics schema version " + version);
+        }
+        int type = r.readByte();
+        if (type != TYPE_GAME_FINISHED) {
+            throw new IllegalArgumentException("Unknown analytics event type " + type);
+        }
+        long gameId = version >= 2 ? r.readVarLong() : 0;
+        long timestamp = r.readVarLong();
+        long durationMs = r.readVarLong();
+        int count = (int) r.readVarLong();
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = r.readString();
+            results.put(names[i], r.readByte() != 0);
+        }
+        long winner = r.readVarLong();
+        if (winner > count) {
+            throw new IllegalArgumentException("Bad winner index " + winner);
+        }
+        if (r.pos != event.length) {
+            throw new IllegalArgumentException("Trailing bytes in analytics event");
+        }
+        return new Decoded(gameId, timestamp, durationMs, results, winner == 0 ? null : names[(int) winner - 1]);
+    }
+
+    static final class Decoded {
+        final long gameId;
+        final long timestamp;
+        final long durationMs;
+        final Map<String, Boolean> results;
+        final String winner;
+
+        Decoded(long gameId, long timestamp, long durationMs, Map<String, Boolean> results, String winner) {
+            this.gameId = gameId;
+            this.timestamp = timestamp;
+            this.durationMs = durationMs;
+            this.results = Collections.unmodifiableMap(results);
+            this.winner = winner;
+        }
+    }
+
+    /**
+     * Reusable event buffer; {@link #buffer()} holds {@link #length()} bytes of the last event.
+     */
+    static final class Encoder {
+        private byte[] buf = new byte[256];
+        private int len;
+
+        Encoder encode(GameRecord record, long timestamp, Format format) {
+            len = 0;
+            if (format == Format.BINARY) {
+                writeBinary(record.getGameId(), record.getResults(), record.getWinner(), record.getDurationMs(), timestamp);
+            } else {
+                writeJson(record.getGameId(), record.getResults(), record.getWinner(), record.getDurationMs(), timestamp);
+            }
+            return this;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        int length() {
+            return len;
+        }
+
+        private void writeJson(long gameId, Map<String, Boolean> results, String winner, long durationMs, long timestamp) {
+            writeAscii("{\"event_type\":\"GAME_FINISHED\",\"schema_version\":");
+            writeNumber(SCHEMA_VERSION);
+            writeAscii(",\"game_id\":");
+            writeNumber(gameId);
+            writeAscii(",\"winner\":");
+            writeJsonString(winner != null ? winner : NO_WINNER);
+            writeAscii(",\"duration_ms\":");
+            writeNumber(durationMs);
+            writeAscii(",\"players\":[");
+            boolean first = true;
+            for (Map.Entry<String, Boolean> e : results.entrySet()) {
+                writeAscii(first ? "{\"username\":" : ",{\"username\":");
+                writeJsonString(e.getKey());
+                writeAscii(Boolean.TRUE.equals(e.getValue()) ? ",\"won\":true}" : ",\"won\":false}");
+                first = false;
+            }
+            writeAscii("],\"timestamp\":");
+            writeNumber(timestamp);
+            writeByte('}');
+        }
+
+        private void writeBinary(long gameId, Map<String, Boolean> results, String winner, long durationMs, long timestamp) {
+            writeByte(BINARY_MAGIC);
+            writeByte(SCHEMA_VERSION);
+            writeByte(TYPE_GAME_FINISHED);
+            writeVarLong(gameId);
+            writeVarLong(timestamp);
+            writeVarLong(durationMs);
+            writeVarLong(results.size());
+            int winnerIndex = 0;
+            int index = 0;
+            for (Map.Entry<String, Boolean> e : results.entrySet()) {
+                index++;
+                if (e.getKey().equals(winner)) {
+                    winnerIndex = index;
+                }
+                // Length is only known after encoding; names are short, so reserve one varint byte
+                int lengthAt = len;
+                writeByte(0);
+                writeUtf8(e.getKey(), false);
+                int length = len - lengthAt - 1;
+                if (length > 0x7F) {
+                    byte[] name = Arrays.copyOfRange(buf, lengthAt + 1, len);
+                    len = lengthAt;
+                    writeVarLong(name.length);
+                    ensure(name.length);
+                    System.arraycopy(name, 0, buf, len, name.length);
+                    len += name.length;
+                } else {
+                    buf[lengthAt] = (byte) length;
+                }
+                writeByte(Boolean.TRUE.equals(e.getValue()) ? 1 : 0);
+            }
+            writeVarLong(winnerIndex);
+        }
+
+        private void writeJsonString(String s) {
+            writeByte('"');
+            writeUtf8(s, true);
+            writeByte('"');
+        }
+
+        // UTF-8 of s; escaped for a JSON string if json. Unpaired surrogates become '?', as in String.getBytes
+        private void writeUtf8(String s, boolean json) {
+            ensure(s.length() * 3);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    if (json && (c < 0x20 || c == '"' || c == '\\')) {
+                        // Up to six bytes for this char, beyond the three each reserved above
+                        ensure(6 + 3 * (s.length() - i - 1));
+                        writeEscape(c);
+                    } else {
+                        buf[len++] = (byte) c;
+                    }
+                } else if (c < 0x800) {
+                    buf[len++] = (byte) (0xC0 | c >> 6);
+                    buf[len++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[len++] = (byte) (0xF0 | cp >> 18);
+                    buf[len++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    buf[len++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    buf[len++] = (byte) (0x80 | cp & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    buf[len++] = '?';
+                } else {
+                    buf[len++] = (byte) (0xE0 | c >> 12);
+                    buf[len++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buf[len++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+        }
+
+        private void writeEscape(char c) {
+            buf[len++] = '\\';
+            switch (c) {
+                case '"':
+                case '\\':
+                    buf[len++] = (byte) c;
+                    break;
+                case '\n':
+                    buf[len++] = 'n';
+                    break;
+                case '\r':
+                    buf[len++] = 'r';
+                    break;
+                case '\t':
+                    buf[len++] = 't';
+                    break;
+                default:
+                    buf[len++] = 'u';
+                    buf[len++] = '0';
+                    buf[len++] = '0';
+                    buf[len++] = HEX[c >> 4];
+                    buf[len++] = HEX[c & 0xF];
+            }
+        }
+
+        private void writeAscii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                buf[len++] = (byte) s.charAt(i);
+            }
+        }
+
+        private void writeNumber(long v) {
+            if (v < 0) {
+                writeByte('-');
+                if (v == Long.MIN_VALUE) {
+                    writeAscii("9223372036854775808");
+                    return;
+                }
+                v = -v;
+            }
+            ensure(19);
+            int start = len;
+            do {
+                buf[len++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            for (int i = start, j = len - 1; i < j; i++, j--) {
+                byte t = buf[i];
+                buf[i] = buf[j];
+                buf[j] = t;
+            }
+        }
+
+        // Unsigned varint; every field is non-negative
+        private void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[len++] = (byte) b;
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            if (pos >= buf.length) {
+                throw new IllegalArgumentException("Truncated analytics event");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in analytics event");
+        }
+
+        String readString() {
+            long length = readVarLong();
+            if (length > buf.length - pos) {
+                throw new IllegalArgumentException("Truncated analytics event");
+            }
+            String s = new String(buf, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return s;
+        }
+    }
+}
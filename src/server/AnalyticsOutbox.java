@@ -0,0 +1,366 @@
+package server;
+
+import common.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Durable local outbox for analytics events, drained to Kafka in the background.
+ * <p>
+ * {@link #append} writes each event to the end of an append-only log of
+ * memory-mapped segment files, {@code -DANALYTICS_OUTBOX_SEGMENT_BYTES} each,
+ * so recording an event is a sequential memory write and never waits on the
+ * broker. A record is {@code [length][crc32][key length][key][payload]};
+ * the zero-filled rest of a segment marks its end. Offsets are byte
+ * positions in the whole log: a segment file is named after the offset of its
+ * first byte, and the next one starts where the previous one's records end.
+ * <p>
+ * One relay thread reads from the checkpointed offset, sends a batch through
+ * the {@link AnalyticsPublisher} and waits for every acknowledgement before
+ * moving the checkpoint past it and deleting fully relayed segments. A failed
+ * batch is retried with backoff, so delivery is at least once. The checkpoint
+ * file is replaced atomically, and on startup the log resumes from it, after
+ * trimming a torn record at the tail. When more than
+ * {@code -DANALYTICS_OUTBOX_MAX_BYTES} are waiting, new events are dropped and
+ * counted rather than filling the disk.
+ */
+final class AnalyticsOutbox implements AutoCloseable {
+    private static final Log LOG = Log.get("AnalyticsOutbox");
+
+    private static final String SEGMENT_SUFFIX = ".outbox";
+    private static final String CHECKPOINT_FILE = "relay.checkpoint";
+    private static final int HEADER_BYTES = 8;
+    private static final int RELAY_BATCH = 500;
+    private static final long RELAY_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long RETRY_MIN_MS = 1000;
+    private static final long RETRY_MAX_MS = 30_000;
+    private static final long ACK_TIMEOUT_MS = 150_000;
+
+    private static final class Event {
+        final String key;
+        final byte[] payload;
+
+        Event(String key, byte[] payload) {
+            this.key = key;
+            this.payload = payload;
+        }
+    }
+
+    private final File dir;
+    private final int segmentBytes;
+    private final long maxBacklogBytes;
+    private final AnalyticsPublisher publisher;
+    // Segments by the log offset of their first byte; the last one is being written
+    private final ConcurrentSkipListMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+    // Writer state, guarded by this
+    private long activeBase;
+    private MappedByteBuffer active;
+    private int activePosition;
+
+    // End of the durable records; the relay reads up to here
+    private volatile long writeOffset;
+    private volatile long checkpoint;
+    private volatile boolean running = true;
+    private Thread relay;
+
+    /**
+     * @param publisher where the relay sends events, or null to only keep them on disk
+     */
+    AnalyticsOutbox(File dir, int segmentBytes, long maxBacklogBytes, AnalyticsPublisher publisher) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxBacklogBytes = maxBacklogBytes;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Map the existing segments, find the end of the log and start the relay.
+     */
+    void start() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create outbox directory " + dir);
+        }
+        checkpoint = readCheckpoint();
+        for (long base : listSegments()) {
+            segments.put(base, map(base));
+        }
+        if (segments.isEmpty()) {
+            segments.put(checkpoint, map(checkpoint));
+        }
+        // Records never span segments, so only the newest one can end in a torn record
+        activeBase = segments.lastKey();
+        active = segments.lastEntry().getValue();
+        activePosition = scanEnd(active);
+        writeOffset = activeBase + activePosition;
+        if (checkpoint < segments.firstKey() || checkpoint > writeOffset) {
+            LOG.warn("Outbox checkpoint {} is outside the log, relaying from {}", checkpoint, segments.firstKey());
+            checkpoint = segments.firstKey();
+        }
+        if (writeOffset > checkpoint) {
+            LOG.info("Outbox holds {} bytes of events not yet relayed", writeOffset - checkpoint);
+        }
+        if (publisher != null) {
+            relay = new Thread(this::runRelay, "analytics-relay");
+            relay.setDaemon(true);
+            relay.start();
+        }
+    }
+
+    /**
+     * Append the first {@code payloadLength} bytes of {@code payload} as one event. Visible to the relay at once; durable in the page cache,
+     * and on disk after {@link #force()}.
+     *
+     * @return false if the event was dropped because the backlog is full
+     */
+    synchronized boolean append(String key, byte[] payload, int payloadLength) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + keyBytes.length + payloadLength;
+        // A record and the zero length after it must fit in an empty segment
+        if (HEADER_BYTES + length + 4 > segmentBytes || keyBytes.length > 0xFFFF) {
+            LOG.warn("Analytics event of {} bytes does not fit an outbox segment, dropping it", length);
+            ServerMetrics.OUTBOX_DROPPED.increment();
+            return false;
+        }
+        if (writeOffset - checkpoint + length > maxBacklogBytes) {
+            ServerMetrics.OUTBOX_DROPPED.increment();
+            return false;
+        }
+        try {
+            if (activePosition + HEADER_BYTES + length + 4 > segmentBytes) {
+                roll();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to open outbox segment, dropping event: {}", e.getMessage());
+            ServerMetrics.OUTBOX_DROPPED.increment();
+            return false;
+        }
+        ByteBuffer out = active.duplicate();
+        out.position(activePosition + HEADER_BYTES);
+        out.putShort((short) keyBytes.length);
+        out.put(keyBytes);
+        out.put(payload, 0, payloadLength);
+        CRC32 crc = new CRC32();
+        ByteBuffer body = active.duplicate();
+        body.position(activePosition + HEADER_BYTES);
+        body.limit(activePosition + HEADER_BYTES + length);
+        crc.update(body);
+        // Length last: a record is not there until its length is
+        active.putInt(activePosition + 4, (int) crc.getValue());
+        active.putInt(activePosition, length);
+        activePosition += HEADER_BYTES + length;
+        writeOffset = activeBase + activePosition;
+        return true;
+    }
+
+    /**
+     * Write appended events through to disk.
+     */
+    synchronized void force() {
+        active.force();
+    }
+
+    /**
+     * Bytes of events not yet acknowledged by Kafka.
+     */
+    long backlogBytes() {
+        return writeOffset - checkpoint;
+    }
+
+    /**
+     * Stop the relay and flush the log; unrelayed events are sent after the next start.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (relay != null) {
+            relay.interrupt();
+            try {
+                relay.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        force();
+    }
+
+    // Called with the lock held; the new segment starts where the old one's records end
+    private void roll() throws IOException {
+        active.force();
+        long base = activeBase + activePosition;
+        MappedByteBuffer next = map(base);
+        segments.put(base, next);
+        activeBase = base;
+        active = next;
+        activePosition = 0;
+    }
+
+    private void runRelay() {
+        long retryMs = RETRY_MIN_MS;
+        while (running) {
+            long from = checkpoint;
+            long end = writeOffset;
+            if (from == end) {
+                LockSupport.parkNanos(RELAY_IDLE_NANOS);
+                continue;
+            }
+            List<Event> batch = new ArrayList<>();
+            long batchEnd = read(from, end, batch);
+            try {
+                if (batch.isEmpty() || send(batch)) {
+                    commit(batchEnd);
+                    ServerMetrics.OUTBOX_RELAYED.add(batch.size());
+                    retryMs = RETRY_MIN_MS;
+                } else {
+                    LOG.warn("Relaying {} analytics events failed, retrying in {} ms", batch.size(), retryMs);
+                    Thread.sleep(retryMs);
+                    retryMs = Math.min(RETRY_MAX_MS, retryMs * 2);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                LOG.warn("Failed to write the outbox checkpoint: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Reads up to RELAY_BATCH records between the offsets into batch; returns the offset after the last
+    private long read(long from, long end, List<Event> batch) {
+        long offset = from;
+        while (offset < end && batch.size() < RELAY_BATCH) {
+            Map.Entry<Long, MappedByteBuffer> segment = segments.floorEntry(offset);
+            int position = (int) (offset - segment.getKey());
+            ByteBuffer in = segment.getValue().duplicate();
+            int length = position + HEADER_BYTES <= segmentBytes ? in.getInt(position) : 0;
+            if (length == 0) {
+                // The rest of this segment is unused; the log continues in the next one
+                Long next = segments.higherKey(segment.getKey());
+                if (next == null) {
+                    break;
+                }
+                offset = next;
+                continue;
+            }
+            in.position(position + HEADER_BYTES);
+            byte[] key = new byte[in.getShort() & 0xFFFF];
+            in.get(key);
+            byte[] payload = new byte[length - 2 - key.length];
+            in.get(payload);
+            batch.add(new Event(new String(key, StandardCharsets.UTF_8), payload));
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    // Send the batch and wait until every event is acknowledged; false if any failed
+    private boolean send(List<Event> batch) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(batch.size());
+        AtomicInteger failures = new AtomicInteger();
+        for (Event event : batch) {
+            boolean sent = publisher.publish(event.key, event.payload, e -> {
+                if (e != null) {
+                    failures.incrementAndGet();
+                }
+                done.countDown();
+            });
+            if (!sent) {
+                failures.incrementAndGet();
+                done.countDown();
+            }
+        }
+        return done.await(ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS) && failures.get() == 0;
+    }
+
+    private void commit(long offset) throws IOException {
+        File tmp = new File(dir, CHECKPOINT_FILE + ".tmp");
+        Files.write(tmp.toPath(), Long.toString(offset).getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp.toPath(), new File(dir, CHECKPOINT_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpoint = offset;
+        // A segment is done once the next one starts at or before the checkpoint
+        while (true) {
+            Map.Entry<Long, MappedByteBuffer> first = segments.firstEntry();
+            Long next = segments.higherKey(first.getKey());
+            if (next == null || next > offset) {
+                break;
+            }
+            segments.remove(first.getKey());
+            segmentFile(first.getKey()).delete();
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        File file = new File(dir, CHECKPOINT_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim());
+    }
+
+    // Offset within the segment after its last intact record; anything after it is zeroed
+    private int scanEnd(MappedByteBuffer segment) {
+        int position = 0;
+        while (position + HEADER_BYTES <= segmentBytes) {
+            int length = segment.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > segmentBytes) {
+                break;
+            }
+            ByteBuffer body = segment.duplicate();
+            body.position(position + HEADER_BYTES);
+            body.limit(position + HEADER_BYTES + length);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != segment.getInt(position + 4)) {
+                LOG.warn("Torn record at offset {} of the outbox, discarding the tail", position);
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        for (int i = position; i < segmentBytes && i < position + HEADER_BYTES; i++) {
+            segment.put(i, (byte) 0);
+        }
+        return position;
+    }
+
+    private MappedByteBuffer map(long base) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(base), "rw")) {
+            file.setLength(segmentBytes);
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private File segmentFile(long base) {
+        return new File(dir, String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private long[] listSegments() {
+        String[] names = dir.list((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (names == null) {
+            return new long[0];
+        }
+        long[] bases = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            bases[i] = Long.parseLong(names[i].substring(0, names[i].length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(bases);
+        return bases;
+    }
+}
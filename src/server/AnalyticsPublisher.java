@@ -0,0 +1,144 @@
+package server;
+
+import common.Log;
+import org.apache.kafka.clients.producer.BufferExhaustedException;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Sends analytics events to Kafka asynchronously, with bounded memory.
+ * <p>
+ * The producer batches for {@code -DKAFKA_LINGER_MS} up to
+ * {@code -DKAFKA_BATCH_BYTES} per partition, compresses batches with
+ * {@code -DKAFKA_COMPRESSION} (lz4) and is idempotent, so retries cannot
+ * duplicate or reorder events. Every send carries a callback that records
+ * the time to acknowledgement or counts the failure.
+ * <p>
+ * At most {@code -DKAFKA_MAX_IN_FLIGHT} events are unacknowledged at a time,
+ * well inside the producer's buffer, so {@code send} does not block waiting
+ * for buffer space. When the permits run out the caller waits up to
+ * {@code -DKAFKA_PERMIT_WAIT_MS}, and then the event is refused and counted as
+ * shed; the {@link AnalyticsOutbox} relay sends it again later. The caller
+ * never waits on a slow broker beyond that bound, or beyond
+ * {@code -DKAFKA_MAX_BLOCK_MS} for metadata.
+ */
+final class AnalyticsPublisher implements AutoCloseable {
+    private static final Log LOG = Log.get("AnalyticsPublisher");
+    // Failures usually come in runs, one per event; a few lines a second are enough
+    private static final Log.Sampler FAILURE_SAMPLE = new Log.Sampler(2);
+
+    private final Producer<String, byte[]> producer;
+    private final String topic;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final long permitWaitMs;
+
+    AnalyticsPublisher(Producer<String, byte[]> producer, String topic, int maxInFlight, long permitWaitMs) {
+        this.producer = producer;
+        this.topic = topic;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.permitWaitMs = permitWaitMs;
+    }
+
+    /**
+     * A publisher for {@code topic} configured from system properties.
+     */
+    static AnalyticsPublisher create(String topic) {
+        Properties props = new Properties();
+        props.put("bootstrap.servers", System.getProperty("KAFKA_BOOTSTRAP", "localhost:9092"));
+        props.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+        // Events arrive encoded by AnalyticsEvents
+        props.put("value.serializer", "org.apache.kafka.common.serialization.ByteArraySerializer");
+        props.put("acks", "all");
+        props.put("enable.idempotence", "true");
+        props.put("max.in.flight.requests.per.connection", "5");
+        props.put("linger.ms", System.getProperty("KAFKA_LINGER_MS", "20"));
+        props.put("batch.size", System.getProperty("KAFKA_BATCH_BYTES", "65536"));
+        props.put("compression.type", System.getProperty("KAFKA_COMPRESSION", "lz4"));
+        props.put("buffer.memory", System.getProperty("KAFKA_BUFFER_BYTES", "33554432"));
+        props.put("max.block.ms", System.getProperty("KAFKA_MAX_BLOCK_MS", "100"));
+        props.put("delivery.timeout.ms", System.getProperty("KAFKA_DELIVERY_TIMEOUT_MS", "120000"));
+        int maxInFlight = Integer.parseInt(System.getProperty("KAFKA_MAX_IN_FLIGHT", "10000"));
+        long permitWaitMs = Long.parseLong(System.getProperty("KAFKA_PERMIT_WAIT_MS", "50"));
+        return new AnalyticsPublisher(new KafkaProducer<>(props), topic, maxInFlight, permitWaitMs);
+    }
+
+    /**
+     * Hand one event to the producer.
+     *
+     * @param done called once the event is acknowledged (with null) or has
+     *             failed, on the producer's I/O thread; not called if this returns false
+     * @return false if the event was shed or rejected outright
+     */
+    boolean publish(String key, byte[] payload, Consumer<Exception> done) {
+        boolean permitted;
+        try {
+            permitted = permits.tryAcquire(permitWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permitted = false;
+        }
+        if (!permitted) {
+            ServerMetrics.KAFKA_SHED.increment();
+            LOG.warn(FAILURE_SAMPLE, "Shedding analytics event: {} events awaiting Kafka", maxInFlight);
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            producer.send(new ProducerRecord<>(topic, key, payload), (metadata, e) -> {
+                completed(start, e);
+                done.accept(e);
+            });
+            return true;
+        } catch (RuntimeException e) {
+            // Most errors arrive through the callback; this is a closed producer or the like
+            permits.release();
+            failed(e);
+            return false;
+        } finally {
+            ServerMetrics.KAFKA_SEND.recordSince(start);
+        }
+    }
+
+    // Runs on the producer's I/O thread
+    private void completed(long start, Exception e) {
+        permits.release();
+        if (e == null) {
+            ServerMetrics.KAFKA_ACK.recordSince(start);
+        } else {
+            failed(e);
+        }
+    }
+
+    private void failed(Exception e) {
+        if (e instanceof BufferExhaustedException) {
+            ServerMetrics.KAFKA_BUFFER_EXHAUSTED.increment();
+        } else {
+            ServerMetrics.KAFKA_ERRORS.increment();
+        }
+        LOG.warn(FAILURE_SAMPLE, "Analytics event not delivered: {}", e.toString());
+    }
+
+    /**
+     * Events sent and not yet acknowledged or failed.
+     */
+    int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Wait up to five seconds for outstanding events, then release the producer.
+     */
+    @Override
+    public void close() {
+        producer.close(Duration.ofSeconds(5));
+    }
+}
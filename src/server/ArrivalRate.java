@@ -0,0 +1,58 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sliding-window event rate: events are counted in a ring of fixed-width
+ * slots, and the rate is the count over the slots still inside the window.
+ * Recording and reading are O(1) apart from clearing slots that aged out.
+ */
+final class ArrivalRate {
+    private final long slotNanos;
+    private final long[] counts;
+    // Newest slot, as System.nanoTime() / slotNanos
+    private long head;
+    private long total;
+
+    /**
+     * @param windowMs how far back events count
+     * @param slots    resolution of the window
+     */
+    ArrivalRate(long windowMs, int slots) {
+        this.counts = new long[Math.max(1, slots)];
+        this.slotNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(windowMs) / counts.length);
+        this.head = Math.floorDiv(System.nanoTime(), slotNanos);
+    }
+
+    synchronized void record(long now) {
+        advance(now);
+        counts[slot(head)]++;
+        total++;
+    }
+
+    /**
+     * Events per second over the window ending at {@code now}.
+     */
+    synchronized double perSecond(long now) {
+        advance(now);
+        return total * 1e9 / (slotNanos * counts.length);
+    }
+
+    private void advance(long now) {
+        long slot = Math.floorDiv(now, slotNanos);
+        if (slot <= head) {
+            return;
+        }
+        long stale = Math.min(slot - head, counts.length);
+        for (long i = 1; i <= stale; i++) {
+            int index = slot(head + i);
+            total -= counts[index];
+            counts[index] = 0;
+        }
+        head = slot;
+    }
+
+    private int slot(long index) {
+        return (int) Math.floorMod(index, (long) counts.length);
+    }
+}
@@ -0,0 +1,361 @@
+package server;
+
+import common.Log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small bounded JDBC connection pool.
+ * <p>
+ * Borrowed connections are proxies whose {@code close()} returns the physical
+ * connection to the pool, so callers keep using try-with-resources exactly as with
+ * {@link DriverManager}. Connections idle for a while are validated before reuse, connections
+ * held longer than the leak threshold are reported together with the stack trace
+ * that borrowed them, and prepared statements are cached per connection by the
+ * MySQL driver.
+ */
+final class ConnectionPool {
+    private static final Log LOG = Log.get("ConnectionPool");
+
+    private static final long VALIDATE_AFTER_IDLE_MS = 30_000;
+
+    private final String url;
+    private final Properties driverProps;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final long leakThresholdMs;
+    private final int validationTimeoutSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+    private final Map<Connection, Long> idleSince = new java.util.HashMap<>();
+    private int total;
+    private boolean closed;
+
+    private final Map<Connection, Lease> leases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService housekeeper;
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    private static final class Lease {
+        final long borrowedAt = System.currentTimeMillis();
+        final Throwable borrowedBy = new Throwable("Connection borrowed here");
+        volatile boolean reported;
+    }
+
+    ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                   long borrowTimeoutMs, long leakThresholdMs, int statementCacheSize) {
+        this.url = url;
+        this.minSize = Math.max(0, Math.min(minSize, maxSize));
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.validationTimeoutSeconds = 2;
+        this.driverProps = new Properties();
+        driverProps.setProperty("user", user);
+        driverProps.setProperty("password", password);
+        // Client-side prepared statement cache in Connector/J, kept per physical connection
+        driverProps.setProperty("cachePrepStmts", "true");
+        driverProps.setProperty("prepStmtCacheSize", String.valueOf(statementCacheSize));
+        driverProps.setProperty("prepStmtCacheSqlLimit", "2048");
+        driverProps.setProperty("useServerPrepStmts", "true");
+        driverProps.setProperty("cacheServerConfiguration", "true");
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(leakThresholdMs, 30_000));
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+        housekeeper.execute(this::fillToMinimum);
+    }
+
+    /**
+     * Borrow a connection, waiting up to the borrow timeout for one to free up.
+     */
+    Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection physical = acquire(start);
+        long waited = System.nanoTime() - start;
+        borrows.incrementAndGet();
+        waitNanosTotal.addAndGet(waited);
+        waitNanosMax.accumulateAndGet(waited, Math::max);
+        leases.put(physical, new Lease());
+        return wrap(physical);
+    }
+
+    private Connection acquire(long startNanos) throws SQLException {
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+        while (true) {
+            Connection candidate = null;
+            long candidateIdleSince = 0;
+            boolean create = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    if (!idle.isEmpty()) {
+                        candidate = idle.pollFirst();
+                        candidateIdleSince = idleSince.remove(candidate);
+                        break;
+                    }
+                    if (total < maxSize) {
+                        total++;
+                        create = true;
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeouts.incrementAndGet();
+                        throw new SQLTransientConnectionException(
+                                "Timed out after " + borrowTimeoutMs + " ms waiting for a database connection ("
+                                        + total + " in use)");
+                    }
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection", e);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    return DriverManager.getConnection(url, driverProps);
+                } catch (SQLException e) {
+                    release(null);
+                    throw e;
+                }
+            }
+            // Recently used connections skip the ping; only long-idle ones are validated
+            if (System.currentTimeMillis() - candidateIdleSince < VALIDATE_AFTER_IDLE_MS || isUsable(candidate)) {
+                return candidate;
+            }
+            validationFailures.incrementAndGet();
+            closeQuietly(candidate);
+            release(null);
+        }
+    }
+
+    // Return a physical connection to the idle list, or just free its slot if it was discarded
+    private void release(Connection physical) {
+        lock.lock();
+        try {
+            if (physical == null) {
+                total--;
+            } else if (closed) {
+                total--;
+                closeQuietly(physical);
+            } else {
+                idle.addFirst(physical);
+                idleSince.put(physical, System.currentTimeMillis());
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void giveBack(Connection physical) {
+        leases.remove(physical);
+        boolean reusable;
+        try {
+            reusable = !physical.isClosed();
+            if (reusable && !physical.getAutoCommit()) {
+                // Never hand the next borrower an open transaction
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (reusable) {
+            release(physical);
+        } else {
+            closeQuietly(physical);
+            release(null);
+        }
+    }
+
+    private boolean isUsable(Connection connection) {
+        try {
+            return connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection wrap(Connection physical) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean returned;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("close".equals(name)) {
+                    if (!returned) {
+                        returned = true;
+                        giveBack(physical);
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(name)) {
+                    return returned || physical.isClosed();
+                }
+                if (returned) {
+                    throw new SQLException("Connection has been returned to the pool");
+                }
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases.values()) {
+            if (!lease.reported && now - lease.borrowedAt > leakThresholdMs) {
+                lease.reported = true;
+                leaksDetected.incrementAndGet();
+                LOG.warn("Possible connection leak: held for {} ms", now - lease.borrowedAt, lease.borrowedBy);
+            }
+        }
+        fillToMinimum();
+    }
+
+    private void fillToMinimum() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || total >= minSize) {
+                    return;
+                }
+                total++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                release(DriverManager.getConnection(url, driverProps));
+            } catch (SQLException e) {
+                release(null);
+                LOG.warn("Could not pre-open database connection: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    void close() {
+        housekeeper.shutdownNow();
+        lock.lock();
+        try {
+            closed = true;
+            for (Connection c : idle) {
+                closeQuietly(c);
+                total--;
+            }
+            idle.clear();
+            idleSince.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    // Metrics
+
+    int activeCount() {
+        return leases.size();
+    }
+
+    int idleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int totalCount() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long borrowCount() {
+        return borrows.get();
+    }
+
+    long timeoutCount() {
+        return timeouts.get();
+    }
+
+    long leakCount() {
+        return leaksDetected.get();
+    }
+
+    long validationFailureCount() {
+        return validationFailures.get();
+    }
+
+    double averageWaitMillis() {
+        long n = borrows.get();
+        return n == 0 ? 0.0 : waitNanosTotal.get() / 1e6 / n;
+    }
+
+    double maxWaitMillis() {
+        return waitNanosMax.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("active=%d idle=%d total=%d/%d borrows=%d avgWait=%.2fms maxWait=%.2fms timeouts=%d leaks=%d",
+                activeCount(), idleCount(), totalCount(), maxSize, borrowCount(), averageWaitMillis(),
+                maxWaitMillis(), timeoutCount(), leakCount());
+    }
+}
@@ -1,21 +1,65 @@
 package server;
 
+import common.Log;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 /**
  * Utility class for obtaining JDBC connections to the game24db database.
+ * <p>
+ * Connections come from a shared {@link ConnectionPool}, sized through system
+ * properties: {@code DB_POOL_MIN}, {@code DB_POOL_MAX}, {@code DB_POOL_TIMEOUT_MS}
+ * (borrow wait), {@code DB_POOL_LEAK_MS} (leak report threshold) and
+ * {@code DB_STATEMENT_CACHE} (prepared statements cached per connection).
  */
 public class DBUtil {
-    private static final String URL = "jdbc:mysql://localhost:3306/game24db";
+    private static final Log LOG = Log.get("DBUtil");
+
+    // rewriteBatchedStatements turns a JDBC batch into a single multi-row INSERT
+    private static final String URL = "jdbc:mysql://localhost:3306/game24db?rewriteBatchedStatements=true";
     private static final String USER = "root";
     private static final String PASS = "12345678";
 
+    private static volatile ConnectionPool pool;
+
     /**
-     * Returns a new JDBC Connection to the configured database.
+     * Borrows a pooled JDBC Connection; closing it returns it to the pool.
      */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASS);
+        return pool().getConnection();
+    }
+
+    /**
+     * The shared pool, created on first use.
+     */
+    static ConnectionPool pool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (DBUtil.class) {
+                p = pool;
+                if (p == null) {
+                    p = new ConnectionPool(URL, USER, PASS,
+                            Integer.parseInt(System.getProperty("DB_POOL_MIN", "2")),
+                            Integer.parseInt(System.getProperty("DB_POOL_MAX", "16")),
+                            Long.parseLong(System.getProperty("DB_POOL_TIMEOUT_MS", "5000")),
+                            Long.parseLong(System.getProperty("DB_POOL_LEAK_MS", "30000")),
+                            Integer.parseInt(System.getProperty("DB_STATEMENT_CACHE", "64")));
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Closes the pool and its idle connections.
+     */
+    public static void shutdown() {
+        ConnectionPool p = pool;
+        if (p != null) {
+            LOG.info("DB pool at shutdown: {}", p);
+            p.close();
+        }
     }
-} 
\ No newline at end of file
+}
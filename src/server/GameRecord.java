@@ -0,0 +1,95 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of one finished game as handed to the persistence pipeline.
+ */
+final class GameRecord {
+    private final long roomId;
+    private final long gameId;
+    private final Map<String, Boolean> results;
+    private final String winner;
+    private final long startTime;
+    private final long finishTime;
+
+    GameRecord(long roomId, long gameId, Map<String, Boolean> results, String winner, long startTime, long finishTime) {
+        this.roomId = roomId;
+        this.gameId = gameId;
+        this.results = Collections.unmodifiableMap(new LinkedHashMap<>(results));
+        this.winner = winner;
+        this.startTime = startTime;
+        this.finishTime = finishTime;
+    }
+
+    long getRoomId() {
+        return roomId;
+    }
+
+    /**
+     * Unique game id assigned at start, or 0 for games journaled before ids existed.
+     */
+    long getGameId() {
+        return gameId;
+    }
+
+    /**
+     * username -> won, in the order players joined
+     */
+    Map<String, Boolean> getResults() {
+        return results;
+    }
+
+    String getWinner() {
+        return winner;
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    long getFinishTime() {
+        return finishTime;
+    }
+
+    long getDurationMs() {
+        return Math.max(0, finishTime - startTime);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(roomId);
+        out.writeLong(startTime);
+        out.writeLong(finishTime);
+        out.writeBoolean(winner != null);
+        if (winner != null) {
+            out.writeUTF(winner);
+        }
+        out.writeShort(results.size());
+        for (Map.Entry<String, Boolean> entry : results.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeBoolean(entry.getValue());
+        }
+        // Last, so records journaled before it was added still read
+        out.writeLong(gameId);
+    }
+
+    static GameRecord readFrom(DataInputStream in) throws IOException {
+        long roomId = in.readLong();
+        long startTime = in.readLong();
+        long finishTime = in.readLong();
+        String winner = in.readBoolean() ? in.readUTF() : null;
+        int players = in.readUnsignedShort();
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (int i = 0; i < players; i++) {
+            results.put(in.readUTF(), in.readBoolean());
+        }
+        // Each journal record is read from its own buffer, so what is left of it is available()
+        long gameId = in.available() >= 8 ? in.readLong() : 0;
+        return new GameRecord(roomId, gameId, results, winner, startTime, finishTime);
+    }
+}
@@ -0,0 +1,256 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import common.AnswerSubmission;
+import common.CardDrawMessage;
+import common.GameResult;
+import common.GameStartNotification;
+import common.ExpressionEvaluator;
+import common.Log;
+
+/**
+ * A single game table: its players, the drawn cards, submitted answers and the
+ * answer timer. {@link Matchmaker} seats the players and the game starts at once.
+ * <p>
+ * A room is pinned to one event loop thread by {@link RoomManager}. Every method
+ * that touches room state runs on that loop, so the room needs no locking and
+ * rooms on different loops never contend with each other.
+ */
+class GameRoom {
+    private static final int ANSWER_TIMEOUT_SECONDS = 60;
+
+    private static final Log LOG = Log.get("GameRoom");
+    // Per-message lines are sampled so DEBUG stays usable under load
+    private static final Log.Sampler ANSWER_SAMPLE = new Log.Sampler();
+
+    private final long roomId;
+    private final ScheduledExecutorService loop;
+    private final RoomEvents events;
+    private final ExpressionEvaluator evaluator;
+    private final PuzzleCatalog catalog;
+    private final PuzzleCatalog.Band difficulty;
+    private final RoomManager manager;
+
+    private ScheduledFuture<?> answerTimeoutFuture = null;
+
+    // Store answers for the current game
+    private final List<AnswerSubmission> currentGameAnswers = new ArrayList<>();
+    private List<Integer> currentGameCards = null;
+    private int currentHandIndex = -1;
+    private boolean collectingAnswers = false;
+    private boolean gameFinished = false;
+    private String gameWinner = null;
+    private List<String> currentGamePlayers = new ArrayList<>();
+    private long currentGameStartTime;
+    private long currentGameId;
+    // Pending answers of the server bots at this table
+    private final List<ScheduledFuture<?>> botAnswers = new ArrayList<>();
+
+    GameRoom(long roomId, ScheduledExecutorService loop, RoomEvents events,
+             ExpressionEvaluator evaluator, PuzzleCatalog catalog, PuzzleCatalog.Band difficulty,
+             RoomManager manager) {
+        this.roomId = roomId;
+        this.loop = loop;
+        this.events = events;
+        this.evaluator = evaluator;
+        this.catalog = catalog;
+        this.difficulty = difficulty;
+        this.manager = manager;
+    }
+
+    long getRoomId() {
+        return roomId;
+    }
+
+    boolean hasBots() {
+        for (String player : currentGamePlayers) {
+            if (ServerBots.isBot(player)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run a task on this room's event loop.
+     */
+    void execute(Runnable task) {
+        loop.execute(() -> runGuarded(task));
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return loop.schedule(() -> runGuarded(task), delay, unit);
+    }
+
+    private void runGuarded(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.error("Room {}: unhandled error", roomId, e);
+        }
+    }
+
+    /**
+     * Start the game with the players the matchmaker seated here.
+     */
+    void startGame(List<String> players) {
+        currentGameId = manager.gameStarted();
+        // Record the timestamp for computing game duration
+        long startTime = System.currentTimeMillis();
+        this.currentGameStartTime = startTime;
+        // Schedule answer-collection timeout
+        answerTimeoutFuture = schedule(this::finishGame, ANSWER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        LOG.info("Room {}: game {} starting with players {}", roomId, currentGameId, players);
+        // Save current game players
+        currentGamePlayers = new ArrayList<>(players);
+        // Reset game finish state before any answer can arrive
+        gameFinished = false;
+        gameWinner = null;
+        collectingAnswers = true;
+        currentGameAnswers.clear();
+        try {
+            GameStartNotification notification = new GameStartNotification(roomId, currentGameId, new ArrayList<>(players), startTime);
+            events.publish(notification, currentGamePlayers);
+
+            // Draw 4 unique cards (values 1-13) that have a solution, in this room's difficulty band
+            List<Integer> cards = catalog.drawHand(ThreadLocalRandom.current(), difficulty, false);
+            currentGameCards = new ArrayList<>(cards);
+            currentHandIndex = catalog.indexOf(cards);
+            LOG.debug("Room {}: drawn cards {}", roomId, cards);
+            events.publish(new CardDrawMessage(roomId, cards), currentGamePlayers);
+            for (String player : currentGamePlayers) {
+                if (ServerBots.isBot(player)) {
+                    scheduleBotAnswer(player, cards);
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("Room {}: failed to send GameStartNotification or CardDrawMessage", roomId, e);
+        }
+    }
+
+    // The solver's search runs on a pool thread, so it never holds up the other rooms on this loop
+    private void scheduleBotAnswer(String bot, List<Integer> cards) {
+        long answerAt = System.currentTimeMillis()
+                + ServerBots.thinkMs(ThreadLocalRandom.current(), catalog.score(currentHandIndex));
+        long gameId = currentGameId;
+        CompletableFuture.supplyAsync(() -> ServerBots.answer(ThreadLocalRandom.current(), cards))
+                .thenAccept(expression -> execute(() -> {
+                    if (gameId != currentGameId || gameFinished) {
+                        return;
+                    }
+                    botAnswers.add(schedule(() -> handleAnswerSubmission(
+                                    new AnswerSubmission(bot, expression, System.currentTimeMillis(), cards)),
+                            Math.max(0, answerAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+                }));
+    }
+
+    void handleAnswerSubmission(AnswerSubmission answer) {
+        if (!collectingAnswers || gameFinished) {
+            LOG.debug(ANSWER_SAMPLE, "Room {}: not accepting answers, ignoring submission from {}", roomId, answer.getUsername());
+            return;
+        }
+        currentGameAnswers.add(answer);
+        ServerMetrics.ANSWERS.increment();
+        LOG.debug(ANSWER_SAMPLE, "Room {}: answer from {}: {}", roomId, answer.getUsername(), answer.getExpression());
+        if (currentGameCards == null) {
+            LOG.warn("Room {}: no cards drawn for the current game, cannot validate answer", roomId);
+            return;
+        }
+        // Validate card usage and evaluate in one pass
+        long validationStart = System.nanoTime();
+        ExpressionEvaluator.Verdict verdict = evaluator.evaluate(answer.getExpression(), currentGameCards);
+        ServerMetrics.ANSWER_VALIDATION.recordSince(validationStart);
+        switch (verdict) {
+            case CORRECT:
+                LOG.debug(ANSWER_SAMPLE, "Room {}: answer from {} is correct", roomId, answer.getUsername());
+                declareWinner(answer);
+                break;
+            case INCORRECT:
+                LOG.debug(ANSWER_SAMPLE, "Room {}: answer is incorrect, evaluates to {}", roomId, evaluator.resultString());
+                break;
+            case WRONG_CARDS:
+                LOG.debug(ANSWER_SAMPLE, "Room {}: answer does not use the drawn cards {}", roomId, currentGameCards);
+                break;
+            default:
+                LOG.debug(ANSWER_SAMPLE, "Room {}: malformed expression: {}", roomId, answer.getExpression());
+                break;
+        }
+        // If all players have submitted and no winner yet, finish the game
+        if (currentGameAnswers.size() == currentGamePlayers.size() && !gameFinished) {
+            finishGame();
+        }
+    }
+
+    // First correct answer wins: broadcast the result and hand it off for persistence
+    private void declareWinner(AnswerSubmission answer) {
+        // Cancel answer timeout on first correct answer
+        if (answerTimeoutFuture != null && !answerTimeoutFuture.isDone()) {
+            answerTimeoutFuture.cancel(false);
+        }
+        gameFinished = true;
+        gameWinner = answer.getUsername();
+        collectingAnswers = false;
+        // Skipped at bot tables, where a player's time depends on the bots' too
+        if (!hasBots()) {
+            catalog.recordSolveTime(currentHandIndex, answer.getSubmitTime() - currentGameStartTime);
+        }
+        // Build results map
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (String player : currentGamePlayers) {
+            results.put(player, player.equals(gameWinner));
+        }
+        GameResult gameResult = new GameResult(roomId, currentGameId, results, gameWinner, answer.getExpression());
+        closeRoom(results);
+        try {
+            events.publish(gameResult, currentGamePlayers);
+            LOG.info("Room {}: game won by {}", roomId, gameWinner);
+        } catch (Exception ex) {
+            LOG.error("Room {}: failed to send GameResult", roomId, ex);
+        }
+    }
+
+    // Finish game when answer timeout expires or everyone answered wrongly
+    private void finishGame() {
+        if (gameFinished) return;
+        gameFinished = true;
+        collectingAnswers = false;
+        if (answerTimeoutFuture != null && !answerTimeoutFuture.isDone()) {
+            answerTimeoutFuture.cancel(false);
+        }
+        LOG.info("Room {}: game finished with no correct answer", roomId);
+        // Bots answer on their own schedule, so their tables say nothing about how hard players find the hand
+        if (!hasBots()) {
+            catalog.recordSolveTime(currentHandIndex, PuzzleCatalog.MAX_SOLVE_MS);
+        }
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (String player : currentGamePlayers) {
+            results.put(player, false);
+        }
+        GameResult gameResult = new GameResult(roomId, currentGameId, results, null, "Time up, no correct answers.");
+        closeRoom(results);
+        try {
+            events.publish(gameResult, currentGamePlayers);
+        } catch (Exception e) {
+            LOG.error("Room {}: failed to send GameResult on timeout", roomId, e);
+        }
+    }
+
+    // Runs before the result is sent, so players who rejoin on seeing it are free to be matched
+    private void closeRoom(Map<String, Boolean> results) {
+        for (ScheduledFuture<?> answer : botAnswers) {
+            answer.cancel(false);
+        }
+        botAnswers.clear();
+        // Only players' results are persisted; a bot's win is recorded as a game without a winner
+        Map<String, Boolean> recorded = new LinkedHashMap<>(results);
+        recorded.keySet().removeIf(ServerBots::isBot);
+        String recordedWinner = gameWinner != null && ServerBots.isBot(gameWinner) ? null : gameWinner;
+        events.gameFinished(roomId, currentGameId, recorded, recordedWinner, currentGameStartTime);
+        // Ratings are updated before the players can queue for their next table
+        manager.roomClosed(this, results, gameWinner);
+        for (String player : currentGamePlayers) {
+            manager.playerLeft(player, this);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package server;
+
+import common.InMemoryBroker;
+import common.Log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link ServerTransport} over an {@link InMemoryBroker}, for running the server
+ * in the same JVM as its clients. Stats requests are served by worker threads
+ * taking from the broker's stats queue, as the JMS workers do from theirs.
+ */
+final class InMemoryServerTransport implements ServerTransport {
+    private static final Log LOG = Log.get("InMemoryServerTransport");
+
+    private final InMemoryBroker broker;
+    private final List<Thread> statsWorkers = new ArrayList<>();
+    private volatile Thread gameThread;
+    private volatile boolean closed;
+
+    InMemoryServerTransport(InMemoryBroker broker) {
+        this.broker = broker;
+    }
+
+    @Override
+    public Publisher openPublisher(int loopIndex) {
+        // Every in-memory client reads whatever it is sent
+        return (payload, players) -> broker.publish(payload);
+    }
+
+    @Override
+    public void serveStats(int workerCount, RequestHandler handler) {
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Thread worker = new Thread(() -> serve(handler), "stats-worker-" + i);
+            worker.setDaemon(true);
+            statsWorkers.add(worker);
+        }
+    }
+
+    private void serve(RequestHandler handler) {
+        while (!closed) {
+            InMemoryBroker.Delivery request;
+            try {
+                request = broker.takeStats();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (request == null) {
+                return; // Broker closed
+            }
+            try {
+                Serializable response = handler.handle(request.getPayload());
+                if (response != null) {
+                    broker.reply(request, response);
+                }
+            } catch (Exception e) {
+                // A bad request must not take the worker down
+                LOG.warn("Error serving stats request: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        for (Thread worker : statsWorkers) {
+            worker.start();
+        }
+        LOG.info("In-memory transport started with {} stats workers", statsWorkers.size());
+    }
+
+    @Override
+    public void runGameQueue(Consumer<Object> handler) throws InterruptedException {
+        gameThread = Thread.currentThread();
+        while (!closed) {
+            Object payload;
+            try {
+                payload = broker.takeGame();
+            } catch (InterruptedException e) {
+                if (closed) {
+                    return;
+                }
+                throw e;
+            }
+            if (payload == null) {
+                return; // Broker closed
+            }
+            handler.accept(payload);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // The broker belongs to whoever created it; just stop our own threads
+        for (Thread worker : statsWorkers) {
+            worker.interrupt();
+        }
+        Thread game = gameThread;
+        if (game != null && game != Thread.currentThread()) {
+            game.interrupt();
+        }
+    }
+}
@@ -1,478 +1,489 @@
 package server;
 
-import javax.jms.*;
-import javax.naming.Context;
-import javax.naming.InitialContext;
+import java.io.Serializable;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import common.JoinGameRequest;
-import common.GameStartNotification;
-import common.CardDrawMessage;
 import common.AnswerSubmission;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import common.GameResult;
+import common.InMemoryBroker;
+import common.Log;
 import server.DBUtil;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import model.UserStats;
 import common.LeaderboardRequest;
 import common.LeaderboardResponse;
 import common.UserStatsRequest;
 import common.UserStatsResponse;
-import org.apache.kafka.clients.producer.KafkaProducer;
-import org.apache.kafka.clients.producer.Producer;
-import org.apache.kafka.clients.producer.ProducerRecord;
-import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
 public class JPoker24GameServer {
-    private static final int MAX_PLAYERS = 4;
-    private static final int MIN_PLAYERS = 2;
-    private static final int WAIT_TIME_SECONDS = 10;
-    private static final int ANSWER_TIMEOUT_SECONDS = 60;
-
-    private final List<String> waitingPlayers = new ArrayList<>();
-    private ScheduledFuture<?> timerFuture = null;
-    private ScheduledFuture<?> answerTimeoutFuture = null;
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private static final Log LOG = Log.get("Server");
+    private static final Log.Sampler REQUEST_SAMPLE = new Log.Sampler();
+    private static final int ROOM_LOOPS = Integer.parseInt(System.getProperty("ROOM_LOOPS",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final String PUZZLE_CATALOG = System.getProperty("PUZZLE_CATALOG", "data/puzzle-catalog.bin");
+    // Difficulty band rooms deal from (EASY, MEDIUM, HARD, EXPERT), or ANY
+    private static final String ROOM_DIFFICULTY = System.getProperty("ROOM_DIFFICULTY", "ANY");
+    private static final String STATS_JOURNAL_DIR = System.getProperty("STATS_JOURNAL_DIR", "data/stats-journal");
+    private static final int STATS_QUEUE_CAPACITY = Integer.parseInt(System.getProperty("STATS_QUEUE_CAPACITY", "1024"));
+    private static final int STATS_FLUSH_GAMES = Integer.parseInt(System.getProperty("STATS_FLUSH_GAMES", "64"));
+    private static final long STATS_FLUSH_INTERVAL_MS = Long.parseLong(System.getProperty("STATS_FLUSH_INTERVAL_MS", "1000"));
 
     // Kafka analytics producer
-    private Producer<String, String> analyticsProducer;
+    private AnalyticsPublisher analyticsPublisher;
     private static final String KAFKA_TOPIC = "game-analytics";
+    // Analytics events are written here first and relayed to Kafka in the background
+    private AnalyticsOutbox analyticsOutbox;
+    private static final String ANALYTICS_OUTBOX_DIR = System.getProperty("ANALYTICS_OUTBOX_DIR", "data/analytics-outbox");
+    private static final int ANALYTICS_OUTBOX_SEGMENT_BYTES = Integer.parseInt(
+            System.getProperty("ANALYTICS_OUTBOX_SEGMENT_BYTES", String.valueOf(16 << 20)));
+    private static final long ANALYTICS_OUTBOX_MAX_BYTES = Long.parseLong(
+            System.getProperty("ANALYTICS_OUTBOX_MAX_BYTES", String.valueOf(1L << 30)));
+    // JSON or BINARY; the archive keeps binary events as b64: lines
+    private static final AnalyticsEvents.Format ANALYTICS_EVENT_FORMAT = AnalyticsEvents.Format.valueOf(
+            System.getProperty("ANALYTICS_EVENT_FORMAT", "JSON").toUpperCase());
 
     // Redis pool
     private JedisPool jedisPool = new JedisPool(System.getProperty("REDIS_HOST", "localhost"), Integer.parseInt(System.getProperty("REDIS_PORT", "6379")));
-    private static final String REDIS_LEADERBOARD_KEY = "leaderboard:zset";
+    // Scored by RedisStatsCache.rankScore; replaces the old wins-only "leaderboard:zset"
+    private static final String REDIS_LEADERBOARD_KEY = "leaderboard:rank";
     private static final String REDIS_STATS_PREFIX = "userstats:";
-
-    private Session session;
-    private MessageProducer topicProducer;
-
-    // Store answers for the current game
-    private final List<AnswerSubmission> currentGameAnswers = new ArrayList<>();
-    private List<Integer> currentGameCards = null;
-    private boolean collectingAnswers = false;
-    private boolean gameFinished = false;
-    private String gameWinner = null;
-    private List<String> currentGamePlayers = new ArrayList<>();
-    private long currentGameStartTime;
-
-    private boolean timerRunning = false;
+    private final RedisStatsCache redisStats = new RedisStatsCache(jedisPool, REDIS_LEADERBOARD_KEY, REDIS_STATS_PREFIX);
+
+    private static final int STATS_WORKERS = Integer.parseInt(System.getProperty("STATS_WORKERS",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final long STATS_CACHE_FRESH_MS = Long.parseLong(System.getProperty("STATS_CACHE_FRESH_MS", "1000"));
+    private static final long STATS_CACHE_STALE_MS = Long.parseLong(System.getProperty("STATS_CACHE_STALE_MS", "30000"));
+    private static final int STATS_CACHE_ENTRIES = Integer.parseInt(System.getProperty("STATS_CACHE_ENTRIES", "1024"));
+    private static final int LEADERBOARD_MAX_LIMIT = Integer.parseInt(System.getProperty("LEADERBOARD_MAX_LIMIT", "100"));
+    // Metrics on http://METRICS_HOST:METRICS_PORT/metrics; 0 turns the endpoint off (JMX stays on)
+    private static final String METRICS_HOST = System.getProperty("METRICS_HOST", "localhost");
+    private static final int METRICS_PORT = Integer.parseInt(System.getProperty("METRICS_PORT", "9404"));
+    // Leaderboard order; served by idx_user_stats_leaderboard and identical to the Redis rank score order
+    private static final String LEADERBOARD_ORDER = " ORDER BY games_won DESC, avg_ms ASC, username DESC";
+    private static final String LEADERBOARD_SELECT = "SELECT username, games_played, games_won, total_time FROM user_stats";
+    // Rank of user_stats row u: one plus the users ahead of it in leaderboard order (ZREVRANK + 1 on the cache)
+    private static final String USER_RANK_SQL = "((SELECT COUNT(*) FROM user_stats o WHERE o.games_won > u.games_won " +
+            "OR (o.games_won = u.games_won AND (o.avg_ms < u.avg_ms " +
+            "OR (o.avg_ms = u.avg_ms AND o.username > u.username)))) + 1)";
+
+    // Background reloads for the stale-while-revalidate caches below
+    private final java.util.concurrent.ExecutorService cacheRefresher = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "stats-cache-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private final SingleFlightCache<LeaderboardKey, LeaderboardResponse> leaderboardCache = new SingleFlightCache<>(
+            this::loadLeaderboard, STATS_CACHE_FRESH_MS, STATS_CACHE_STALE_MS, STATS_CACHE_ENTRIES, cacheRefresher);
+    private final SingleFlightCache<String, UserStats> userStatsCache = new SingleFlightCache<>(
+            this::getUserStatsFromDB, STATS_CACHE_FRESH_MS, STATS_CACHE_STALE_MS, STATS_CACHE_ENTRIES, cacheRefresher);
+
+    private final PlayerRatings ratings = new PlayerRatings();
+    private RoomManager roomManager;
+    private PuzzleCatalog puzzleCatalog;
+    private StatsWriteBehind statsWriteBehind;
+    private MetricsExporter metricsExporter;
+
+    // JMS unless the server was created around an in-memory broker
+    private final Callable<ServerTransport> transportFactory;
+    private volatile ServerTransport transport;
+    private final AtomicBoolean shutDown = new AtomicBoolean();
 
     public static void main(String[] args) throws Exception {
         new JPoker24GameServer().run();
     }
 
+    public JPoker24GameServer() {
+        transportFactory = JmsServerTransport::new;
+    }
+
+    /**
+     * A server whose clients connect through {@code broker} instead of GlassFish.
+     * MySQL, Redis and Kafka are still used when they are reachable.
+     */
+    public JPoker24GameServer(InMemoryBroker broker) {
+        transportFactory = () -> new InMemoryServerTransport(broker);
+    }
+
+    /**
+     * Start the server and handle game queue messages on the calling thread until
+     * {@link #shutdown()}.
+     */
     public void run() throws Exception {
-        Properties props = new Properties();
         initKafkaProducer();
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            if (analyticsProducer != null) analyticsProducer.close();
-            if (jedisPool != null) jedisPool.close();
-        }));
-        props.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.enterprise.naming.SerialInitContextFactory");
-        props.setProperty(Context.PROVIDER_URL, "iiop://localhost:3700");
-        Context ctx = new InitialContext(props);
-
-        ConnectionFactory factory = (ConnectionFactory) ctx.lookup("jms/JPoker24GameConnectionFactory");
-        javax.jms.Queue queue = (javax.jms.Queue) ctx.lookup("jms/JPoker24GameQueue");
-        Topic topic = (Topic) ctx.lookup("jms/JPoker24GameTopic");
-        javax.jms.Queue statsQueue = (javax.jms.Queue) ctx.lookup("jms/JPoker24StatsQueue");
-        Connection connection = factory.createConnection();
-        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-        MessageConsumer consumer = session.createConsumer(queue);
-        MessageProducer topicProducer = session.createProducer(topic);
-        MessageConsumer statsConsumer = session.createConsumer(statsQueue);
-        connection.start();
-
-        this.session = session;
-        this.topicProducer = topicProducer;
-
-        System.out.println("[Server] Waiting for JoinGameRequest messages...");
-        // Start a thread to listen for leaderboard requests
-        new Thread(() -> listenForLeaderboardRequests(statsConsumer, session)).start();
-        while (true) {
-            Message msg = consumer.receive();
-            System.out.println("[Server] Received LeaderboardRequest");
-            // System.out.println("[Server] Sending LeaderboardResponse with " + leaderboard.size() + " users");
-            if (msg instanceof ObjectMessage) {
-                ObjectMessage objMsg = (ObjectMessage) msg;
-                Object obj = objMsg.getObject();
-                if (obj instanceof JoinGameRequest) {
-                    String username = ((JoinGameRequest) obj).getUsername();
-                    System.out.println("[Server] Received JoinGameRequest from: " + username);
-                    handleJoinRequest(username);
-                } else if (obj instanceof AnswerSubmission) {
-                    handleAnswerSubmission((AnswerSubmission) obj);
-                }
+        // Before the write-behind worker starts, as replayed games publish their events
+        analyticsOutbox = new AnalyticsOutbox(new java.io.File(ANALYTICS_OUTBOX_DIR), ANALYTICS_OUTBOX_SEGMENT_BYTES,
+                ANALYTICS_OUTBOX_MAX_BYTES, analyticsPublisher);
+        analyticsOutbox.start();
+        puzzleCatalog = PuzzleCatalog.open(PUZZLE_CATALOG, SolverTable::build);
+        // Before the write-behind worker starts, so replayed games are not counted twice
+        seedFromUserStats();
+        statsWriteBehind = new StatsWriteBehind(new java.io.File(STATS_JOURNAL_DIR), STATS_QUEUE_CAPACITY,
+                STATS_FLUSH_GAMES, STATS_FLUSH_INTERVAL_MS, this::onGamesPersisted);
+        statsWriteBehind.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+
+        transport = transportFactory.call();
+        // Stats requests are served by their own workers, off the game queue thread
+        transport.serveStats(STATS_WORKERS, this::handleStatsRequest);
+
+        // Each event loop gets its own publisher, as JMS sessions are single-threaded
+        PuzzleCatalog.Band difficulty = "ANY".equalsIgnoreCase(ROOM_DIFFICULTY)
+                ? null : PuzzleCatalog.Band.valueOf(ROOM_DIFFICULTY.toUpperCase());
+        roomManager = new RoomManager(ROOM_LOOPS, puzzleCatalog, difficulty, ratings, index -> {
+            try {
+                return new TopicRoomEvents(transport.openPublisher(index));
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to open publisher for room loop " + index, e);
+            }
+        });
+        transport.start();
+        startMetrics();
+
+        LOG.info("Waiting for JoinGameRequest messages...");
+        transport.runGameQueue(obj -> {
+            if (obj instanceof JoinGameRequest) {
+                String username = ((JoinGameRequest) obj).getUsername();
+                LOG.debug(REQUEST_SAMPLE, "Received JoinGameRequest from {}", username);
+                roomManager.handleJoinRequest(username);
+            } else if (obj instanceof AnswerSubmission) {
+                roomManager.handleAnswerSubmission((AnswerSubmission) obj);
             }
+        });
+    }
+
+    /**
+     * Stop taking requests, finish the running rooms' stats and release every
+     * connection. Runs on JVM shutdown; calling it again does nothing.
+     */
+    public void shutdown() {
+        if (!shutDown.compareAndSet(false, true)) {
+            return;
         }
+        if (transport != null) transport.close();
+        if (metricsExporter != null) metricsExporter.close();
+        if (roomManager != null) roomManager.shutdown();
+        if (statsWriteBehind != null) statsWriteBehind.close();
+        cacheRefresher.shutdownNow();
+        LOG.info("Leaderboard cache: {}; user stats cache: {}", leaderboardCache, userStatsCache);
+        DBUtil.shutdown();
+        if (puzzleCatalog != null) puzzleCatalog.force();
+        if (analyticsOutbox != null) analyticsOutbox.close();
+        if (analyticsPublisher != null) analyticsPublisher.close();
+        if (jedisPool != null) jedisPool.close();
+        Log.flush(2000);
     }
-    private void initKafkaProducer() {
-        try {
-            Properties kafkaProps = new Properties();
-            kafkaProps.put("bootstrap.servers", System.getProperty("KAFKA_BOOTSTRAP", "localhost:9092"));
-            kafkaProps.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
-            kafkaProps.put("value.serializer", "org.apache.kafka.common.serialization.StringSerializer");
-            kafkaProps.put("acks", "all");
-            analyticsProducer = new KafkaProducer<>(kafkaProps);
-            System.out.println("[Server] Kafka Producer initialized.");
-        } catch (Exception ex) {
-            System.err.println("[Server] Failed to initialize Kafka producer: " + ex.getMessage());
-            analyticsProducer = null; // Keep the server running even if Kafka is down
+
+    private void startMetrics() {
+        RoomManager rooms = roomManager;
+        ServerMetrics.REGISTRY.gauge("games_in_flight", "Games started and not yet finished", rooms::gamesInFlight);
+        ServerMetrics.REGISTRY.gauge("active_players", "Players waiting for a table or in a running game", rooms::activePlayers);
+        ServerMetrics.REGISTRY.gauge("players_waiting", "Players in the matchmaking queue", rooms::waitingPlayers);
+        ServerMetrics.REGISTRY.gauge("join_rate_per_minute", "Joins per minute over the matchmaking rate window",
+                rooms::joinsPerMinute);
+        ServerMetrics.REGISTRY.gauge("short_table_wait_ms", "Wait a two-player table would get for more players now",
+                rooms::shortTableWaitMs);
+        ServerMetrics.REGISTRY.gauge("stats_db_pending", "Finished games waiting to be written to MySQL",
+                statsWriteBehind::pending);
+        ConnectionPool pool = DBUtil.pool();
+        ServerMetrics.REGISTRY.gauge("db_pool_active", "JDBC connections borrowed from the pool", pool::activeCount);
+        ServerMetrics.REGISTRY.gauge("db_pool_timeouts", "Connection borrows that timed out waiting for the pool",
+                pool::timeoutCount);
+        ServerMetrics.REGISTRY.gauge("db_pool_wait_ms_avg", "Average wait to borrow a pooled connection, in ms",
+                () -> Math.round(pool.averageWaitMillis()));
+        ServerMetrics.REGISTRY.gauge("db_pool_wait_ms_max", "Longest wait to borrow a pooled connection, in ms",
+                () -> Math.round(pool.maxWaitMillis()));
+        ServerMetrics.REGISTRY.gauge("db_pool_validation_failures", "Idle connections that failed validation and were discarded",
+                pool::validationFailureCount);
+        ServerMetrics.REGISTRY.gauge("db_pool_leaks", "Connections held longer than the leak threshold",
+                pool::leakCount);
+        if (analyticsPublisher != null) {
+            AnalyticsPublisher publisher = analyticsPublisher;
+            ServerMetrics.REGISTRY.gauge("kafka_in_flight", "Analytics events sent and not yet acknowledged",
+                    publisher::inFlight);
+        }
+        AnalyticsOutbox outbox = analyticsOutbox;
+        ServerMetrics.REGISTRY.gauge("outbox_backlog_bytes", "Bytes of analytics events in the outbox not yet relayed",
+                outbox::backlogBytes);
+        ServerMetrics.REGISTRY.gauge("log_dropped", "Log lines dropped because the log buffer was full", Log::dropped);
+        metricsExporter = new MetricsExporter(ServerMetrics.REGISTRY);
+        metricsExporter.registerMBeans();
+        if (METRICS_PORT > 0) {
+            try {
+                metricsExporter.startHttp(METRICS_HOST, METRICS_PORT);
+            } catch (java.io.IOException e) {
+                // Metrics are optional; the server runs without the endpoint
+                LOG.warn("Failed to start metrics endpoint: {}", e.getMessage());
+            }
         }
     }
 
-    private synchronized void handleJoinRequest(String username) {
-        System.out.println("[Server] handleJoinRequest called by: " + username);
-        System.out.println("[Server] Current waitingPlayers: " + waitingPlayers + ", timerRunning: " + timerRunning);
-        if (waitingPlayers.contains(username)) {
-            System.out.println("[Server] Player already waiting: " + username);
-            return;
+    /**
+     * Publishes room events on the game topic and persists finished games.
+     */
+    private class TopicRoomEvents implements RoomEvents {
+        private final ServerTransport.Publisher publisher;
+
+        TopicRoomEvents(ServerTransport.Publisher publisher) {
+            this.publisher = publisher;
         }
-        waitingPlayers.add(username);
-        System.out.println("[Server] Player joined: " + username + " | Waiting list: " + waitingPlayers);
-        if (!timerRunning) {
-            timerRunning = true;
-            timerFuture = scheduler.schedule(this::timerExpired, WAIT_TIME_SECONDS, TimeUnit.SECONDS);
-            System.out.println("[Server] Timer started for 10 seconds.");
+
+        @Override
+        public void publish(Serializable payload, Collection<String> players) throws Exception {
+            publisher.publish(payload, players);
         }
-        if (waitingPlayers.size() == MAX_PLAYERS) {
-            startGame();
+
+        @Override
+        public void gameFinished(long roomId, long gameId, Map<String, Boolean> results, String winner, long startTime) {
+            persistGameResult(new GameRecord(roomId, gameId, results, winner, startTime, System.currentTimeMillis()));
         }
-        System.out.println("[Server] handleJoinRequest END. waitingPlayers: " + waitingPlayers + ", timerRunning: " + timerRunning);
     }
 
-    private synchronized void timerExpired() {
-        System.out.println("[Server] Timer expired. Players waiting: " + waitingPlayers);
-        timerRunning = false;
-        if (waitingPlayers.size() >= MIN_PLAYERS) {
-            startGame();
-        } else {
-            System.out.println("[Server] Not enough players to start the game after timer expired.");
-            waitingPlayers.clear();
-            System.out.println("[Server] Waiting list cleared: " + waitingPlayers);
+    private void initKafkaProducer() {
+        try {
+            analyticsPublisher = AnalyticsPublisher.create(KAFKA_TOPIC);
+            LOG.info("Kafka producer initialized");
+        } catch (Exception ex) {
+            LOG.warn("Failed to initialize Kafka producer: {}", ex.getMessage());
+            analyticsPublisher = null; // Keep the server running even if Kafka is down
         }
-        System.out.println("[Server] timerExpired END. waitingPlayers: " + waitingPlayers + ", timerRunning: " + timerRunning);
     }
 
-    private synchronized void startGame() {
-        // Record the timestamp for computing game duration
-        long startTime = System.currentTimeMillis();
-        this.currentGameStartTime = startTime;
-        // Cancel timer if still running
-        if (timerFuture != null && !timerFuture.isDone()) {
-            timerFuture.cancel(false);
+    /**
+     * Seed the matchmaking ratings from MySQL, and rebuild the Redis leaderboard
+     * from the same rows if Redis does not have one.
+     */
+    private void seedFromUserStats() {
+        Map<String, long[]> stats = new HashMap<>();
+        try (java.sql.Connection conn = DBUtil.getConnection();
+             java.sql.Statement stmt = conn.createStatement();
+             java.sql.ResultSet rs = stmt.executeQuery(
+                     "SELECT username, games_played, games_won, total_time FROM user_stats")) {
+            while (rs.next()) {
+                stats.put(rs.getString(1), new long[]{rs.getLong(2), rs.getLong(3), rs.getLong(4)});
+            }
+        } catch (Exception ex) {
+            LOG.warn("Failed to read user stats for seeding: {}", ex.getMessage());
+            return;
         }
-        // Schedule answer-collection timeout
-        answerTimeoutFuture = scheduler.schedule(this::finishGame, ANSWER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        System.out.println("[Server] Answer timeout scheduled for " + ANSWER_TIMEOUT_SECONDS + " seconds.");
-        System.out.println("[Server] Game starting with players: " + waitingPlayers);
-        // Save current game players
-        currentGamePlayers = new ArrayList<>(waitingPlayers);
-        // Notify clients via JMS topic
+        ratings.seed(stats);
+        LOG.info("Seeded matchmaking ratings for {} users", stats.size());
         try {
-            GameStartNotification notification = new GameStartNotification(new ArrayList<>(waitingPlayers), startTime);
-            ObjectMessage msg = session.createObjectMessage(notification);
-            topicProducer.send(msg);
-            System.out.println("[Server] Sent GameStartNotification to topic.");
-
-            // Draw 4 unique cards (values 1-13)
-            List<Integer> cards = drawUniqueCards(4, 1, 13);
-            currentGameCards = new ArrayList<>(cards);
-            System.out.println("[Server] Drawn cards: " + cards);
-            CardDrawMessage cardMsg = new CardDrawMessage(cards);
-            ObjectMessage cardObjMsg = session.createObjectMessage(cardMsg);
-            topicProducer.send(cardObjMsg);
-            System.out.println("[Server] Sent CardDrawMessage to topic.");
-
-            // Reset game finish state
-            gameFinished = false;
-            gameWinner = null;
-            collectingAnswers = true;
-            currentGameAnswers.clear();
-            System.out.println("[Server] Now collecting answers for this game...");
-        } catch (Exception e) {
-            System.err.println("[Server] Failed to send GameStartNotification or CardDrawMessage: " + e.getMessage());
-            e.printStackTrace();
+            if (!redisStats.needsSeed()) {
+                return;
+            }
+            redisStats.seed(stats);
+            LOG.info("Seeded Redis leaderboard with {} users", stats.size());
+        } catch (Exception ex) {
+            LOG.warn("Failed to seed Redis leaderboard: {}", ex.getMessage());
         }
-        waitingPlayers.clear();
-        timerRunning = false;
-        System.out.println("[Server] Game started. Waiting list cleared and timerRunning set to false.");
     }
 
-    // Helper method to draw n unique cards in a given range
-    private List<Integer> drawUniqueCards(int n, int min, int max) {
-        List<Integer> deck = new ArrayList<>();
-        for (int i = min; i <= max; i++) deck.add(i);
-        Collections.shuffle(deck);
-        return new ArrayList<>(deck.subList(0, n));
+    /**
+     * Hand a finished game to the write-behind pipeline; the database, Kafka and
+     * Redis are updated later on its worker thread.
+     */
+    private void persistGameResult(GameRecord record) {
+        statsWriteBehind.submit(record);
     }
 
-    private synchronized void handleAnswerSubmission(AnswerSubmission answer) {
-        if (!collectingAnswers || gameFinished) {
-            System.out.println("[Server] Not accepting answers (game finished or not started). Ignoring submission from: " + answer.getUsername());
-            return;
+    // Runs on the write-behind worker once a batch of games is committed to MySQL
+    private void onGamesPersisted(List<GameRecord> records) {
+        for (GameRecord record : records) {
+            publishAnalyticsEvent(record);
         }
-        currentGameAnswers.add(answer);
-        System.out.println("[Server] Received answer from " + answer.getUsername() + ": " + answer.getExpression());
-        // Step 1.1: Validate card usage
-        if (currentGameCards == null) {
-            System.out.println("[Server] No cards drawn for current game. Cannot validate answer.");
-            return;
+        // One write to disk per batch; the events are already visible to the relay
+        analyticsOutbox.force();
+        updateRedisCaches(records);
+        // Any result can move every rank, so all cached pages and stats go stale (but stay servable)
+        leaderboardCache.invalidateAll();
+        userStatsCache.invalidateAll();
+    }
+
+    private void updateRedisCaches(List<GameRecord> records) {
+        long start = System.nanoTime();
+        try {
+            redisStats.recordGames(records);
+        } catch (Exception ex) {
+            LOG.warn("Redis update failed: {}", ex.getMessage());
+        } finally {
+            ServerMetrics.REDIS_WRITE.recordSince(start);
         }
-        List<Integer> usedNumbers = extractNumbers(answer.getExpression());
-        List<Integer> drawnCards = new ArrayList<>(currentGameCards);
-        Collections.sort(usedNumbers);
-        Collections.sort(drawnCards);
-        boolean correctCards = usedNumbers.equals(drawnCards);
-        if (correctCards) {
-            // Cancel answer timeout on first correct answer
-            if (answerTimeoutFuture != null && !answerTimeoutFuture.isDone()) {
-                answerTimeoutFuture.cancel(false);
-            }
-            System.out.println("[Server] Answer uses correct cards.");
-            // Step 1.2: Evaluate expression
-            try {
-                ScriptEngine engine = new ScriptEngineManager().getEngineByName("JavaScript");
-                String expr = answer.getExpression().replaceAll("÷", "/").replaceAll("×", "*");
-                Object resultObj = engine.eval(expr);
-                double result = Double.parseDouble(resultObj.toString());
-                if (Math.abs(result - 24.0) < 1e-6) {
-                    System.out.println("[Server] Answer is CORRECT! Expression evaluates to 24.");
-                    // Winner logic: first correct answer wins
-                    gameFinished = true;
-                    gameWinner = answer.getUsername();
-                    collectingAnswers = false;
-                    // Build results map
-                    Map<String, Boolean> results = new LinkedHashMap<>();
-                    for (String player : drawnPlayers()) {
-                        results.put(player, player.equals(gameWinner));
-                    }
-                    // Broadcast game result
-                    GameResult gameResult = new GameResult(results, gameWinner, answer.getExpression());
-                    try {
-                        ObjectMessage resultMsg = session.createObjectMessage(gameResult);
-                        topicProducer.send(resultMsg);
-                        System.out.println("[Server] Sent GameResult: winner=" + gameWinner);
-                        // Persist stats for this game
-                        persistGameResult(results);
-                    } catch (Exception ex) {
-                        System.err.println("[Server] Failed to send GameResult: " + ex.getMessage());
-                        ex.printStackTrace();
-                    }
-                } else {
-                    System.out.println("[Server] Answer is INCORRECT. Expression evaluates to: " + result);
-                }
-            } catch (Exception e) {
-                System.out.println("[Server] Error evaluating expression: " + e.getMessage());
-            }
-        } else {
-            System.out.println("[Server] Answer does NOT use correct cards. Used: " + usedNumbers + ", Drawn: " + drawnCards);
+    }
+
+    // Kafka delivery is the outbox relay's job, so a broker outage never holds up this worker.
+    // Keyed by game id, which spreads games evenly over the partitions; per-player events
+    // would be keyed by username, so one player's events stay in order.
+    private void publishAnalyticsEvent(GameRecord record) {
+        long start = System.nanoTime();
+        AnalyticsEvents.Encoder event = AnalyticsEvents.encoder()
+                .encode(record, System.currentTimeMillis(), ANALYTICS_EVENT_FORMAT);
+        if (analyticsOutbox.append(Long.toString(record.getGameId()), event.buffer(), event.length())) {
+            LOG.debug(REQUEST_SAMPLE, "Queued {}-byte analytics event for game {}", event.length(), record.getGameId());
         }
-        // If all players have submitted and no winner yet, finish the game
-        if (currentGameAnswers.size() == currentGamePlayers.size() && !gameFinished) {
-            finishGame();
+        ServerMetrics.OUTBOX_APPEND.recordSince(start);
+    }
+
+    // Answer one stats-queue request; runs on a StatsService worker
+    private Serializable handleStatsRequest(Object obj) {
+        long start = System.nanoTime();
+        try {
+            return answerStatsRequest(obj);
+        } finally {
+            ServerMetrics.STATS_REQUEST.recordSince(start);
         }
     }
 
-    // Helper to extract all integer numbers from an expression string
-    private List<Integer> extractNumbers(String expr) {
-        List<Integer> numbers = new ArrayList<>();
-        java.util.regex.Matcher m = java.util.regex.Pattern.compile("\\d+").matcher(expr);
-        while (m.find()) {
-            numbers.add(Integer.parseInt(m.group()));
+    private Serializable answerStatsRequest(Object obj) {
+        if (obj instanceof LeaderboardRequest) {
+            LeaderboardResponse response = getLeaderboard((LeaderboardRequest) obj);
+            LOG.debug(REQUEST_SAMPLE, "Sending LeaderboardResponse with {} users", response.getLeaderboard().size());
+            return response;
+        } else if (obj instanceof UserStatsRequest) {
+            String username = ((UserStatsRequest) obj).getUsername();
+            LOG.debug(REQUEST_SAMPLE, "Received UserStatsRequest for {}", username);
+            return new UserStatsResponse(userStatsCache.get(username));
         }
-        return numbers;
+        return null;
     }
 
-    // Helper to get list of players in the current game
-    private List<String> drawnPlayers() {
-        return new ArrayList<>(currentGamePlayers);
+    /**
+     * One leaderboard page through the in-process cache; identical concurrent
+     * requests share a single backend fetch.
+     */
+    private LeaderboardResponse getLeaderboard(LeaderboardRequest request) {
+        int limit = request.getLimit() <= 0 ? LeaderboardRequest.DEFAULT_LIMIT
+                : Math.min(request.getLimit(), LEADERBOARD_MAX_LIMIT);
+        return leaderboardCache.get(new LeaderboardKey(request, limit));
     }
 
-    // Finish game when answer timeout expires (no correct answers)
-    private synchronized void finishGame() {
-        if (gameFinished) return;
-        gameFinished = true;
-        collectingAnswers = false;
-        System.out.println("[Server] Answer timeout reached, finishing game with no correct submissions.");
-        Map<String, Boolean> results = new LinkedHashMap<>();
-        for (String player : drawnPlayers()) {
-            results.put(player, false);
-        }
-        GameResult gameResult = new GameResult(results, null, "Time up, no correct answers.");
-        try {
-            ObjectMessage resultMsg = session.createObjectMessage(gameResult);
-            topicProducer.send(resultMsg);
-            System.out.println("[Server] Sent GameResult on timeout: no winner.");
-            // Persist stats for timeout game (no winner)
-            persistGameResult(results);
-        } catch (Exception e) {
-            System.err.println("[Server] Failed to send GameResult on timeout: " + e.getMessage());
-            e.printStackTrace();
+    // One leaderboard page, from Redis when it has the leaderboard, else from MySQL
+    private LeaderboardResponse loadLeaderboard(LeaderboardKey key) {
+        LeaderboardResponse cached = fetchLeaderboardFromRedis(key.request, key.limit);
+        if (cached != null) {
+            return cached;
         }
+        return getLeaderboardFromDB(key.request, key.limit);
     }
 
     /**
-     * Persist game results (games played/won and durations) to the database.
+     * Cache key for a leaderboard page: the request fields that select rows, with the limit already clamped.
      */
-    private void persistGameResult(Map<String, Boolean> results) {
-        try (java.sql.Connection conn = DBUtil.getConnection()) {
-            conn.setAutoCommit(false);
-            String sql = "INSERT INTO user_stats (username, games_played, games_won, total_time) VALUES (?, 1, ?, ?) " +
-                         "ON DUPLICATE KEY UPDATE games_played = games_played + 1, games_won = games_won + ?, total_time = total_time + ?;";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                for (Map.Entry<String, Boolean> entry : results.entrySet()) {
-                    ps.setString(1, entry.getKey());
-                    int won = entry.getValue() ? 1 : 0;
-                    ps.setInt(2, won);
-                    long time = entry.getValue() ? (System.currentTimeMillis() - currentGameStartTime) : 0;
-                    ps.setLong(3, time);
-                    ps.setInt(4, won);
-                    ps.setLong(5, time);
-                    ps.addBatch();
-                }
-                ps.executeBatch();
-            }
-            conn.commit();
-            publishAnalyticsEvent(results);
-            updateRedisCaches(results);
-        } catch (SQLException e) {
-            System.err.println("[Server] DB persistence error: " + e.getMessage());
-            e.printStackTrace();
+    private static final class LeaderboardKey {
+        final LeaderboardRequest request;
+        final int limit;
+
+        LeaderboardKey(LeaderboardRequest request, int limit) {
+            this.request = request;
+            this.limit = limit;
         }
-    }
 
-    private void updateRedisCaches(Map<String, Boolean> results) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            long durationMs = Math.max(0, System.currentTimeMillis() - currentGameStartTime);
-            for (Map.Entry<String, Boolean> entry : results.entrySet()) {
-                String username = entry.getKey();
-                boolean won = entry.getValue();
-                String statsKey = REDIS_STATS_PREFIX + username;
-
-                jedis.hincrBy(statsKey, "games_played", 1);
-                if (won) {
-                    jedis.hincrBy(statsKey, "games_won", 1);
-                    jedis.hincrBy(statsKey, "total_time_ms", durationMs);
-                    jedis.zincrby(REDIS_LEADERBOARD_KEY, 1, username);
-                }
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LeaderboardKey)) {
+                return false;
             }
-        } catch (Exception ex) {
-            System.err.println("[Server] Redis update failed: " + ex.getMessage());
+            LeaderboardKey other = (LeaderboardKey) o;
+            return limit == other.limit && request.getOffset() == other.request.getOffset()
+                    && Objects.equals(request.getCursor(), other.request.getCursor())
+                    && Objects.equals(request.getAroundUser(), other.request.getAroundUser());
         }
-    }
 
-    private void publishAnalyticsEvent(Map<String, Boolean> results) {
-        if (analyticsProducer == null) {
-            return;
+        @Override
+        public int hashCode() {
+            return Objects.hash(limit, request.getOffset(), request.getCursor(), request.getAroundUser());
         }
-        try {
-            String winner = gameWinner != null ? gameWinner : "None";
-            long durationMs = Math.max(0, System.currentTimeMillis() - currentGameStartTime);
-            String playersJson = results.entrySet().stream()
-                    .map(e -> String.format("{\"username\":\"%s\",\"won\":%s}", e.getKey(), e.getValue()))
-                    .collect(Collectors.joining(",", "[", "]"));
-            String payload = String.format(
-                    "{\"event_type\":\"GAME_FINISHED\",\"winner\":\"%s\",\"duration_ms\":%d,\"players\":%s,\"timestamp\":%d}",
-                    winner,
-                    durationMs,
-                    playersJson,
-                    System.currentTimeMillis()
-            );
-            analyticsProducer.send(new ProducerRecord<>(KAFKA_TOPIC, winner, payload));
-            System.out.println("[Server] Sent analytics event to Kafka: " + payload);
-        } catch (Exception ex) {
-            System.err.println("[Server] Failed to publish analytics event: " + ex.getMessage());
+
+        @Override
+        public String toString() {
+            return "leaderboard[offset=" + request.getOffset() + ", limit=" + limit + ", cursor=" + request.getCursor()
+                    + ", around=" + request.getAroundUser() + "]";
         }
     }
 
-    // Listen for LeaderboardRequest messages and reply with LeaderboardResponse
-    private void listenForLeaderboardRequests(MessageConsumer statsConsumer, Session session) {
-        System.out.println("[Server] Leaderboard listener started, waiting for requests...");
-        try {
-            while (true) {
-                Message msg = statsConsumer.receive();
-                if (msg instanceof ObjectMessage) {
-                    ObjectMessage objMsg = (ObjectMessage) msg;
-                    Object obj = objMsg.getObject();
-                    if (obj instanceof LeaderboardRequest) {
-                        System.out.println("[Server] Received LeaderboardRequest");
-                        List<UserStats> leaderboard = getLeaderboardFromDB();
-                        System.out.println("[Server] Sending LeaderboardResponse with " + leaderboard.size() + " users");
-                        LeaderboardResponse response = new LeaderboardResponse(leaderboard);
-                        Destination replyDest = msg.getJMSReplyTo();
-                        if (replyDest != null) {
-                            ObjectMessage respMsg = session.createObjectMessage(response);
-                            session.createProducer(replyDest).send(respMsg);
-                        }
-                    } else if (obj instanceof UserStatsRequest) {
-                        String username = ((UserStatsRequest) obj).getUsername();
-                        System.out.println("[Server] Received UserStatsRequest for: " + username);
-                        UserStats stats = getUserStatsFromDB(username);
-                        UserStatsResponse response = new UserStatsResponse(stats);
-                        Destination replyDest = msg.getJMSReplyTo();
-                        if (replyDest != null) {
-                            ObjectMessage respMsg = session.createObjectMessage(response);
-                            session.createProducer(replyDest).send(respMsg);
-                        }
-                    }
+    // Query one leaderboard page from DB: keyset after a cursor, otherwise by offset
+    private LeaderboardResponse getLeaderboardFromDB(LeaderboardRequest request, int limit) {
+        LeaderboardCursor cursor = LeaderboardCursor.decode(request.getCursor());
+        long start = System.nanoTime();
+        try (java.sql.Connection conn = DBUtil.getConnection()) {
+            if (cursor != null) {
+                try (java.sql.PreparedStatement ps = conn.prepareStatement(LEADERBOARD_SELECT
+                        + " WHERE games_won < ? OR (games_won = ? AND (avg_ms > ? OR (avg_ms = ? AND username < ?)))"
+                        + LEADERBOARD_ORDER + " LIMIT ?")) {
+                    ps.setLong(1, cursor.gamesWon);
+                    ps.setLong(2, cursor.gamesWon);
+                    ps.setLong(3, cursor.avgMs);
+                    ps.setLong(4, cursor.avgMs);
+                    ps.setString(5, cursor.username);
+                    ps.setInt(6, limit + 1);
+                    return readLeaderboardPage(ps, cursor.rank + 1, limit);
                 }
             }
+            int offset = Math.max(0, request.getOffset());
+            if (request.getAroundUser() != null) {
+                int rank = getRankFromDB(conn, request.getAroundUser());
+                offset = rank > 0 ? Math.max(0, rank - 1 - limit / 2) : 0;
+            }
+            try (java.sql.PreparedStatement ps = conn.prepareStatement(LEADERBOARD_SELECT + LEADERBOARD_ORDER
+                    + " LIMIT ? OFFSET ?")) {
+                ps.setInt(1, limit + 1);
+                ps.setInt(2, offset);
+                return readLeaderboardPage(ps, offset + 1, limit);
+            }
         } catch (Exception e) {
-            System.err.println("[Server] Error in leaderboard listener: " + e.getMessage());
-            e.printStackTrace();
+            LOG.warn("Error reading leaderboard from DB: {}", e.getMessage());
+        } finally {
+            ServerMetrics.DB_READ.recordSince(start);
         }
+        return new LeaderboardResponse(new ArrayList<>());
     }
 
-    // Query leaderboard from DB
-    private List<UserStats> getLeaderboardFromDB() {
-        List<UserStats> cached = fetchLeaderboardFromRedis();
-        if (!cached.isEmpty()) {
-            return cached;
-        }
+    // The query fetches limit + 1 rows; the extra one only tells whether there is a next page
+    private static LeaderboardResponse readLeaderboardPage(java.sql.PreparedStatement ps, int firstRank, int limit)
+            throws java.sql.SQLException {
         List<UserStats> stats = new ArrayList<>();
-        String sql = "SELECT username, games_played, games_won, " +
-                     "CASE WHEN games_won > 0 THEN total_time / games_won / 1000 ELSE 0 END AS avg_time " +
-                     "FROM user_stats ORDER BY games_won DESC, avg_time ASC";
-        try (java.sql.Connection conn = DBUtil.getConnection();
-             java.sql.Statement stmt = conn.createStatement();
-             java.sql.ResultSet rs = stmt.executeQuery(sql)) {
-            int rank = 1;
+        String nextCursor = null;
+        long lastTotalTime = 0;
+        try (java.sql.ResultSet rs = ps.executeQuery()) {
+            int rank = firstRank;
             while (rs.next()) {
+                if (stats.size() == limit) {
+                    nextCursor = LeaderboardCursor.after(stats.get(limit - 1), lastTotalTime).encode();
+                    break;
+                }
                 String username = rs.getString("username");
                 int gamesPlayed = rs.getInt("games_played");
                 int gamesWon = rs.getInt("games_won");
-                double avgTime = rs.getDouble("avg_time");
+                lastTotalTime = rs.getLong("total_time");
+                double avgTime = gamesWon > 0 ? lastTotalTime / 1000.0 / gamesWon : 0.0;
                 stats.add(new UserStats(username, gamesPlayed, gamesWon, avgTime, rank++));
             }
-        } catch (Exception e) {
-            System.err.println("[Server] Error reading leaderboard from DB: " + e.getMessage());
         }
-        return stats;
+        return new LeaderboardResponse(stats, nextCursor);
     }
 
-    private List<UserStats> fetchLeaderboardFromRedis() {
-        List<UserStats> result = new ArrayList<>();
-        try (Jedis jedis = jedisPool.getResource()) {
-            List<String> topUsers = jedis.zrevrange(REDIS_LEADERBOARD_KEY, 0, 9);
-            int rank = 1;
-            for (String username : topUsers) {
-                double score = jedis.zscore(REDIS_LEADERBOARD_KEY, username);
-                Map<String, String> statsMap = jedis.hgetAll(REDIS_STATS_PREFIX + username);
-                int gamesPlayed = Integer.parseInt(statsMap.getOrDefault("games_played", "0"));
-                int gamesWon = Integer.parseInt(statsMap.getOrDefault("games_won", "0"));
-                long totalTime = Long.parseLong(statsMap.getOrDefault("total_time_ms", "0"));
-                double avgTime = (gamesWon > 0) ? (totalTime / 1000.0 / gamesWon) : 0.0;
-                result.add(new UserStats(username, gamesPlayed, gamesWon, avgTime, rank++));
+    // 1-based leaderboard position of a user, or 0 if they have no stats
+    private static int getRankFromDB(java.sql.Connection conn, String username) throws java.sql.SQLException {
+        try (java.sql.PreparedStatement ps = conn.prepareStatement(
+                "SELECT " + USER_RANK_SQL + " AS user_rank FROM user_stats u WHERE u.username = ?")) {
+            ps.setString(1, username);
+            try (java.sql.ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt("user_rank") : 0;
             }
+        }
+    }
+
+    private LeaderboardResponse fetchLeaderboardFromRedis(LeaderboardRequest request, int limit) {
+        long start = System.nanoTime();
+        try {
+            return redisStats.leaderboard(request, limit);
         } catch (Exception ex) {
-            System.err.println("[Server] Redis leaderboard lookup failed: " + ex.getMessage());
+            LOG.warn("Redis leaderboard lookup failed: {}", ex.getMessage());
+        } finally {
+            ServerMetrics.REDIS_READ.recordSince(start);
         }
-        return result;
+        return null;
     }
 
 
@@ -482,7 +493,10 @@ public class JPoker24GameServer {
         if (cached != null) {
             return cached;
         }
-        String sql = "SELECT username, games_played, games_won, CASE WHEN games_won > 0 THEN total_time / games_won / 1000 ELSE 0 END AS avg_time FROM user_stats WHERE username = ?";
+        String sql = "SELECT u.username, u.games_played, u.games_won, " +
+                     "CASE WHEN u.games_won > 0 THEN u.total_time / u.games_won / 1000 ELSE 0 END AS avg_time, " +
+                     USER_RANK_SQL + " AS user_rank FROM user_stats u WHERE u.username = ?";
+        long start = System.nanoTime();
         try (java.sql.Connection conn = DBUtil.getConnection();
              java.sql.PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, username);
@@ -491,30 +505,25 @@ public class JPoker24GameServer {
                     int gamesPlayed = rs.getInt("games_played");
                     int gamesWon = rs.getInt("games_won");
                     double avgTime = rs.getDouble("avg_time");
-                    // Rank is not calculated here, set to 0
-                    return new UserStats(username, gamesPlayed, gamesWon, avgTime, 0);
+                    return new UserStats(username, gamesPlayed, gamesWon, avgTime, rs.getInt("user_rank"));
                 }
             }
         } catch (Exception e) {
-            System.err.println("[Server] Error reading user stats from DB: " + e.getMessage());
+            LOG.warn("Error reading user stats from DB: {}", e.getMessage());
+        } finally {
+            ServerMetrics.DB_READ.recordSince(start);
         }
         return new UserStats(username, 0, 0, 0.0, 0);
     }
 
     private UserStats fetchUserStatsFromRedis(String username) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            Map<String, String> statsMap = jedis.hgetAll(REDIS_STATS_PREFIX + username);
-            if (!statsMap.isEmpty()) {
-                int gamesPlayed = Integer.parseInt(statsMap.getOrDefault("games_played", "0"));
-                int gamesWon = Integer.parseInt(statsMap.getOrDefault("games_won", "0"));
-                long totalTime = Long.parseLong(statsMap.getOrDefault("total_time_ms", "0"));
-                double avgTime = (gamesWon > 0) ? (totalTime / 1000.0 / gamesWon) : 0.0;
-                Double rankScore = jedis.zscore(REDIS_LEADERBOARD_KEY, username);
-                int rank = rankScore != null ? (int) rankScore.doubleValue() : 0;
-                return new UserStats(username, gamesPlayed, gamesWon, avgTime, rank);
-            }
+        long start = System.nanoTime();
+        try {
+            return redisStats.userStats(username);
         } catch (Exception ex) {
-            System.err.println("[Server] Redis user stats lookup failed: " + ex.getMessage());
+            LOG.warn("Redis user stats lookup failed: {}", ex.getMessage());
+        } finally {
+            ServerMetrics.REDIS_READ.recordSince(start);
         }
         return null;
     }
@@ -0,0 +1,150 @@
+package server;
+
+import common.JoinGameRequest;
+import common.Log;
+import common.WireCodec;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * {@link ServerTransport} over the GlassFish JMS destinations.
+ * <p>
+ * JMS sessions are single-threaded, so the game queue, each room loop's topic
+ * producer and each stats worker get a session of their own. Payloads go out in
+ * the binary {@link WireCodec} format to clients that advertised it and as
+ * ObjectMessages otherwise.
+ */
+final class JmsServerTransport implements ServerTransport {
+    private static final Log LOG = Log.get("JmsServerTransport");
+
+    // -DWIRE_FORMAT=object turns off binary replies and broadcasts; binary input is always read
+    private static final boolean WIRE_BINARY = !"object".equalsIgnoreCase(System.getProperty("WIRE_FORMAT", "binary"));
+
+    private final Context context;
+    private final Connection connection;
+    private final Session session;
+    private final MessageConsumer gameConsumer;
+    private final Topic topic;
+    private final Queue statsQueue;
+    private StatsService statsService;
+    private volatile boolean closed;
+
+    // Players whose last join came from a client that reads the binary codec
+    private final Set<String> binaryClients = ConcurrentHashMap.newKeySet();
+
+    JmsServerTransport() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.enterprise.naming.SerialInitContextFactory");
+        props.setProperty(Context.PROVIDER_URL, "iiop://localhost:3700");
+        context = new InitialContext(props);
+
+        ConnectionFactory factory = (ConnectionFactory) context.lookup("jms/JPoker24GameConnectionFactory");
+        Queue queue = (Queue) context.lookup("jms/JPoker24GameQueue");
+        topic = (Topic) context.lookup("jms/JPoker24GameTopic");
+        statsQueue = (Queue) context.lookup("jms/JPoker24StatsQueue");
+        connection = factory.createConnection();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        gameConsumer = session.createConsumer(queue);
+    }
+
+    @Override
+    public Publisher openPublisher(int loopIndex) throws JMSException {
+        Session loopSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = loopSession.createProducer(topic);
+        return (payload, players) -> {
+            // Binary only if every player can read it; clients in other rooms skip it either way
+            boolean binary = WIRE_BINARY && readBinary(players);
+            producer.send(WireCodec.toMessage(loopSession, payload, binary));
+        };
+    }
+
+    // Server bots have no client, so only the real players decide
+    private boolean readBinary(Collection<String> players) {
+        for (String player : players) {
+            if (!ServerBots.isBot(player) && !binaryClients.contains(player)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void serveStats(int workerCount, RequestHandler handler) throws JMSException {
+        statsService = new StatsService(connection, statsQueue, workerCount, WIRE_BINARY, handler);
+    }
+
+    @Override
+    public void start() throws JMSException {
+        connection.start();
+        if (statsService != null) {
+            statsService.start();
+        }
+    }
+
+    @Override
+    public void runGameQueue(Consumer<Object> handler) throws JMSException {
+        while (!closed) {
+            Message msg;
+            try {
+                msg = gameConsumer.receive();
+            } catch (JMSException e) {
+                if (closed) {
+                    return;
+                }
+                throw e;
+            }
+            if (msg == null) {
+                return; // Consumer closed
+            }
+            Object obj;
+            try {
+                obj = WireCodec.fromMessage(msg);
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Dropping malformed game message: {}", e.getMessage());
+                continue;
+            }
+            if (obj instanceof JoinGameRequest) {
+                noteWireFormat(((JoinGameRequest) obj).getUsername(), msg);
+            }
+            handler.accept(obj);
+        }
+    }
+
+    // Remember whether this player's client reads the binary codec, for room broadcasts
+    private void noteWireFormat(String username, Message msg) throws JMSException {
+        if (WireCodec.acceptsBinary(msg)) {
+            binaryClients.add(username);
+        } else {
+            binaryClients.remove(username);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (statsService != null) {
+            statsService.close();
+        }
+        try {
+            connection.close();
+            context.close();
+        } catch (Exception e) {
+            LOG.warn("Error closing JMS connection: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package server;
+
+import model.UserStats;
+
+/**
+ * Keyset position in the leaderboard: the sort key (wins, average ms to win,
+ * username) and rank of the last row of a page. Encoded as
+ * {@code rank:gamesWon:avgMs:username} in {@link common.LeaderboardResponse}.
+ */
+final class LeaderboardCursor {
+    final int rank;
+    final long gamesWon;
+    final long avgMs;
+    final String username;
+
+    LeaderboardCursor(int rank, long gamesWon, long avgMs, String username) {
+        this.rank = rank;
+        this.gamesWon = gamesWon;
+        this.avgMs = avgMs;
+        this.username = username;
+    }
+
+    static LeaderboardCursor after(UserStats row, long totalTimeMs) {
+        return new LeaderboardCursor(row.getRank(), row.getGamesWon(), avgMs(row.getGamesWon(), totalTimeMs),
+                row.getUsername());
+    }
+
+    /**
+     * Whole-millisecond average time to win, capped so it fits the rank score.
+     */
+    static long avgMs(long gamesWon, long totalTimeMs) {
+        return gamesWon > 0 ? Math.min(totalTimeMs / gamesWon, RedisStatsCache.MAX_AVG_MS) : 0;
+    }
+
+    String encode() {
+        return rank + ":" + gamesWon + ":" + avgMs + ":" + username;
+    }
+
+    /**
+     * @return the cursor, or null if {@code s} is not one
+     */
+    static LeaderboardCursor decode(String s) {
+        if (s == null) {
+            return null;
+        }
+        String[] parts = s.split(":", 4);
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            return new LeaderboardCursor(Integer.parseInt(parts[0]), Long.parseLong(parts[1]),
+                    Long.parseLong(parts[2]), parts[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
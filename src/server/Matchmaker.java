@@ -0,0 +1,310 @@
+package server;
+
+import common.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Groups waiting players into tables of similar skill.
+ * <p>
+ * Waiting players are kept in buckets of {@code -DMATCH_BUCKET_WIDTH} rating
+ * points ({@link PlayerRatings}), oldest first, plus a map by name, so joins,
+ * duplicate checks and removals are O(1). The oldest player of a bucket
+ * anchors its table: it only matches its own bucket at first, and every
+ * {@code -DMATCH_WIDEN_MS} its band widens by one bucket on each side, until it
+ * covers every rating at {@code -DMATCH_MAX_WAIT_MS} (10 s). A full table of
+ * {@link #MAX_PLAYERS} starts at once.
+ * <p>
+ * How long a short table waits follows the join rate, measured over the last
+ * {@code -DMATCH_RATE_WINDOW_MS}. A table of at least {@link #MIN_PLAYERS}
+ * keeps waiting only while the missing players are expected to arrive before
+ * the 10 s cap, so at peak tables fill and off-peak they start as soon as they
+ * can. A player still alone stops waiting after {@code -DMATCH_MIN_WAIT_MS}
+ * once another join within the cap is less likely than not, and at the cap in
+ * any case; {@link ServerBots} then fill the table, or the player is dropped
+ * when bots are off. The join rate and the wait chosen for a two-player table
+ * are gauges.
+ * <p>
+ * All state is confined to one thread, which also runs each bucket's timer for
+ * its anchor's next widening step. Join to table time is recorded in
+ * {@link ServerMetrics#TIME_TO_MATCH}.
+ */
+final class Matchmaker {
+    static final int MAX_PLAYERS = 4;
+    static final int MIN_PLAYERS = 2;
+    private static final int BUCKET_WIDTH = Integer.parseInt(System.getProperty("MATCH_BUCKET_WIDTH", "100"));
+    private static final long WIDEN_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(System.getProperty("MATCH_WIDEN_MS", "2000")));
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(System.getProperty("MATCH_MAX_WAIT_MS", "10000")));
+    private static final long MIN_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(System.getProperty("MATCH_MIN_WAIT_MS", "2000")));
+    private static final long RATE_WINDOW_MS = Long.parseLong(System.getProperty("MATCH_RATE_WINDOW_MS", "10000"));
+    // Ratings from 0 to 3000 get their own bucket; the rest share the end buckets
+    private static final int BUCKETS = Math.max(1, 3000 / BUCKET_WIDTH);
+
+    private static final Log LOG = Log.get("Matchmaker");
+    private static final Log.Sampler JOIN_SAMPLE = new Log.Sampler();
+
+    private static final class Ticket {
+        final String username;
+        final int bucket;
+        final long joinedAt;
+
+        Ticket(String username, int bucket, long joinedAt) {
+            this.username = username;
+            this.bucket = bucket;
+            this.joinedAt = joinedAt;
+        }
+    }
+
+    private static final class Bucket {
+        final int index;
+        // Insertion order is join order, so the first ticket is the anchor
+        final LinkedHashSet<Ticket> tickets = new LinkedHashSet<>();
+        ScheduledFuture<?> timer;
+        long timerAt;
+
+        Bucket(int index) {
+            this.index = index;
+        }
+
+        Ticket anchor() {
+            return tickets.iterator().next();
+        }
+    }
+
+    private final ScheduledExecutorService loop;
+    private final PlayerRatings ratings;
+    private final Predicate<String> playing;
+    private final Consumer<List<String>> tableFormed;
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+    private final Map<String, Ticket> waiting = new HashMap<>();
+    private final ArrivalRate joins = new ArrivalRate(RATE_WINDOW_MS, 40);
+    // Read by the metrics gauges from other threads
+    private volatile int waitingCount;
+
+    /**
+     * @param playing     whether a player is already at a table; such joins are ignored
+     * @param tableFormed receives the players of each new table, on the matchmaker thread
+     */
+    Matchmaker(PlayerRatings ratings, Predicate<String> playing, Consumer<List<String>> tableFormed) {
+        this.ratings = ratings;
+        this.playing = playing;
+        this.tableFormed = tableFormed;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket(i);
+        }
+        loop = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "matchmaker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queue a join; it is handled on the matchmaker thread.
+     *
+     * @param receivedAt System.nanoTime() the request arrived
+     */
+    void join(String username, long receivedAt) {
+        loop.execute(() -> runGuarded(() -> {
+            ServerMetrics.GAME_MESSAGE_DELAY.recordSince(receivedAt);
+            add(username);
+        }));
+    }
+
+    int waiting() {
+        return waitingCount;
+    }
+
+    /**
+     * Joins per minute over the rate window.
+     */
+    long joinsPerMinute() {
+        return Math.round(joins.perSecond(System.nanoTime()) * 60);
+    }
+
+    /**
+     * How long a table of {@link #MIN_PLAYERS} would wait for more players at the current join rate.
+     */
+    long shortTableWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(decisionAt(MIN_PLAYERS, System.nanoTime()));
+    }
+
+    void shutdown() {
+        loop.shutdownNow();
+    }
+
+    private void runGuarded(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.error("Unhandled matchmaking error", e);
+        }
+    }
+
+    private void add(String username) {
+        if (waiting.containsKey(username) || playing.test(username)) {
+            LOG.debug(JOIN_SAMPLE, "Player already waiting or playing: {}", username);
+            return;
+        }
+        int rating = ratings.rating(username);
+        long now = System.nanoTime();
+        joins.record(now);
+        Ticket ticket = new Ticket(username, bucketOf(rating), now);
+        waiting.put(username, ticket);
+        waitingCount = waiting.size();
+        buckets[ticket.bucket].tickets.add(ticket);
+        LOG.debug(JOIN_SAMPLE, "Player {} waiting with rating {}", username, rating);
+
+        // The new player may complete the table of any anchor whose band reaches it
+        for (Bucket bucket : buckets) {
+            if (!bucket.tickets.isEmpty()
+                    && reach(bucket.anchor(), now) >= Math.abs(bucket.index - ticket.bucket)) {
+                match(bucket, now);
+            }
+        }
+    }
+
+    private static int bucketOf(int rating) {
+        return Math.max(0, Math.min(BUCKETS - 1, rating / BUCKET_WIDTH));
+    }
+
+    // How many buckets on each side the ticket's band covers after waiting until now
+    private static int reach(Ticket ticket, long now) {
+        long waited = now - ticket.joinedAt;
+        return waited >= MAX_WAIT_NANOS ? BUCKETS : (int) (waited / WIDEN_NANOS);
+    }
+
+    private void timerFired(Bucket bucket) {
+        bucket.timer = null;
+        match(bucket, System.nanoTime());
+    }
+
+    /**
+     * How long after its anchor joined a short table of {@code seated} players
+     * stops waiting: a table that can play starts once its missing players are
+     * not expected before the cap, a lone player gives up once another join
+     * before the cap is less likely than not.
+     */
+    private long decisionAt(int seated, long now) {
+        double perNano = joins.perSecond(now) / 1e9;
+        if (seated >= MIN_PLAYERS) {
+            double fill = (MAX_PLAYERS - seated) / perNano;
+            return Math.max(0, MAX_WAIT_NANOS - (long) Math.min(fill, MAX_WAIT_NANOS));
+        }
+        // The rate includes the anchor's own join; P(another join within t) = 1 - e^(-rate * t)
+        double others = Math.max(0, perNano - 1.0 / TimeUnit.MILLISECONDS.toNanos(RATE_WINDOW_MS));
+        double halfChance = Math.log(2) / others;
+        return Math.max(MIN_WAIT_NANOS, MAX_WAIT_NANOS - (long) Math.min(halfChance, MAX_WAIT_NANOS));
+    }
+
+    // Form every table the bucket's anchors can fill, dropping anchors left alone at the deadline
+    private void match(Bucket bucket, long now) {
+        while (!bucket.tickets.isEmpty()) {
+            Ticket anchor = bucket.anchor();
+            long waited = now - anchor.joinedAt;
+            List<Ticket> table = gather(anchor, reach(anchor, now));
+            boolean decided = waited >= decisionAt(table.size(), now);
+            if (table.size() == MAX_PLAYERS || (decided && table.size() >= MIN_PLAYERS)) {
+                startTable(table, 0, now);
+            } else if (decided && ServerBots.ENABLED) {
+                startTable(table, MIN_PLAYERS - table.size(), now);
+            } else if (decided) {
+                LOG.info("No table for {} after {} ms", anchor.username, TimeUnit.NANOSECONDS.toMillis(waited));
+                ServerMetrics.PLAYERS_UNMATCHED.increment();
+                remove(anchor);
+            } else {
+                break;
+            }
+        }
+        schedule(bucket);
+    }
+
+    // The anchor, then the oldest players of its bucket and of ever farther buckets
+    private List<Ticket> gather(Ticket anchor, int reach) {
+        List<Ticket> table = new ArrayList<>(MAX_PLAYERS);
+        table.add(anchor);
+        for (int distance = 0; distance <= reach && table.size() < MAX_PLAYERS; distance++) {
+            collect(anchor.bucket - distance, anchor, table);
+            if (distance > 0) {
+                collect(anchor.bucket + distance, anchor, table);
+            }
+        }
+        return table;
+    }
+
+    private void collect(int index, Ticket anchor, List<Ticket> table) {
+        if (index < 0 || index >= BUCKETS) {
+            return;
+        }
+        for (Iterator<Ticket> it = buckets[index].tickets.iterator(); it.hasNext() && table.size() < MAX_PLAYERS; ) {
+            Ticket ticket = it.next();
+            if (ticket != anchor) {
+                table.add(ticket);
+            }
+        }
+    }
+
+    private void startTable(List<Ticket> table, int bots, long now) {
+        List<String> players = new ArrayList<>(table.size() + bots);
+        for (Ticket ticket : table) {
+            remove(ticket);
+            players.add(ticket.username);
+            ServerMetrics.TIME_TO_MATCH.recordNanos(now - ticket.joinedAt);
+        }
+        for (int i = 0; i < bots; i++) {
+            players.add(ServerBots.newName());
+        }
+        for (Ticket ticket : table) {
+            schedule(buckets[ticket.bucket]);
+        }
+        (players.size() == MAX_PLAYERS ? ServerMetrics.TABLES_FULL : ServerMetrics.TABLES_SHORT).increment();
+        ServerMetrics.BOT_SEATS.add(bots);
+        tableFormed.accept(players);
+    }
+
+    private void remove(Ticket ticket) {
+        waiting.remove(ticket.username);
+        waitingCount = waiting.size();
+        buckets[ticket.bucket].tickets.remove(ticket);
+    }
+
+    // Keep the bucket's timer on its anchor's next widening step or decision
+    private void schedule(Bucket bucket) {
+        if (bucket.tickets.isEmpty()) {
+            if (bucket.timer != null) {
+                bucket.timer.cancel(false);
+                bucket.timer = null;
+            }
+            return;
+        }
+        Ticket anchor = bucket.anchor();
+        long now = System.nanoTime();
+        long waited = now - anchor.joinedAt;
+        long decision = decisionAt(gather(anchor, reach(anchor, now)).size(), now);
+        long at = anchor.joinedAt + Math.min(decision, (waited / WIDEN_NANOS + 1) * WIDEN_NANOS);
+        // The join rate moves under the decision; never spin on a time already past
+        at = Math.max(at, now + TimeUnit.MILLISECONDS.toNanos(1));
+        if (bucket.timer != null) {
+            if (bucket.timerAt == at) {
+                return;
+            }
+            bucket.timer.cancel(false);
+        }
+        bucket.timerAt = at;
+        bucket.timer = loop.schedule(() -> runGuarded(() -> timerFired(bucket)), at - now, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,187 @@
+package server;
+
+import com.sun.net.httpserver.HttpServer;
+import common.LatencyHistogram;
+import common.Log;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Publishes a {@link MetricsRegistry} as JMX MBeans and on a small HTTP endpoint.
+ * <p>
+ * Each metric is an MBean named {@code jpoker24:type=Metrics,name=<metric>}, so
+ * JConsole or any JMX collector shows histogram percentiles, counters and
+ * gauges live. {@code GET /metrics} returns the same data in the Prometheus text
+ * format. Both read the registry only when asked; recording pays nothing for them.
+ */
+final class MetricsExporter implements AutoCloseable {
+    private static final Log LOG = Log.get("MetricsExporter");
+
+    private static final String DOMAIN = "jpoker24";
+    private static final String[] HISTOGRAM_ATTRIBUTES =
+            {"Count", "MeanMicros", "P50Micros", "P90Micros", "P95Micros", "P99Micros", "P999Micros", "MaxMicros"};
+
+    private final MetricsRegistry registry;
+    private HttpServer http;
+
+    MetricsExporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Register an MBean for every metric registered so far.
+     */
+    void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (MetricsRegistry.Metric metric : registry.metrics()) {
+            try {
+                server.registerMBean(new MetricMBean(metric), new ObjectName(DOMAIN + ":type=Metrics,name=" + metric.name));
+            } catch (InstanceAlreadyExistsException e) {
+                // Another server in this JVM shares the static metrics; its MBeans already show them
+            } catch (Exception e) {
+                LOG.warn("Failed to register MBean for {}: {}", metric.name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serve {@code GET /metrics} on {@code host:port}.
+     */
+    void startHttp(String host, int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        http.createContext("/metrics", exchange -> {
+            try {
+                byte[] body = registry.exposition().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        http.start();
+        LOG.info("Metrics at http://{}:{}/metrics", host, http.getAddress().getPort());
+    }
+
+    @Override
+    public void close() {
+        if (http != null) {
+            http.stop(0);
+        }
+    }
+
+    /**
+     * Read-only view of one metric; histogram percentiles come from one snapshot per read.
+     */
+    private static final class MetricMBean implements DynamicMBean {
+        private final MetricsRegistry.Metric metric;
+
+        MetricMBean(MetricsRegistry.Metric metric) {
+            this.metric = metric;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (metric.kind != MetricsRegistry.Kind.HISTOGRAM) {
+                if (attribute.equals(metric.kind == MetricsRegistry.Kind.COUNTER ? "Count" : "Value")) {
+                    return metric.longValue();
+                }
+                throw new AttributeNotFoundException(attribute);
+            }
+            return histogramAttribute(metric.histogram().snapshot(), attribute);
+        }
+
+        private static Object histogramAttribute(LatencyHistogram.Snapshot snapshot, String attribute)
+                throws AttributeNotFoundException {
+            switch (attribute) {
+                case "Count":
+                    return snapshot.count();
+                case "MeanMicros":
+                    return snapshot.meanMicros();
+                case "P50Micros":
+                    return snapshot.percentileMicros(50);
+                case "P90Micros":
+                    return snapshot.percentileMicros(90);
+                case "P95Micros":
+                    return snapshot.percentileMicros(95);
+                case "P99Micros":
+                    return snapshot.percentileMicros(99);
+                case "P999Micros":
+                    return snapshot.percentileMicros(99.9);
+                case "MaxMicros":
+                    return snapshot.percentileMicros(100);
+                default:
+                    throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            LatencyHistogram.Snapshot snapshot = metric.kind == MetricsRegistry.Kind.HISTOGRAM
+                    ? metric.histogram().snapshot() : null;
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, snapshot != null
+                            ? histogramAttribute(snapshot, attribute) : getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Skipped, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attributes;
+            if (metric.kind == MetricsRegistry.Kind.HISTOGRAM) {
+                attributes = new MBeanAttributeInfo[HISTOGRAM_ATTRIBUTES.length];
+                for (int i = 0; i < attributes.length; i++) {
+                    String name = HISTOGRAM_ATTRIBUTES[i];
+                    attributes[i] = new MBeanAttributeInfo(name, name.equals("MeanMicros") ? "double" : "long",
+                            name, true, false, false);
+                }
+            } else {
+                String name = metric.kind == MetricsRegistry.Kind.COUNTER ? "Count" : "Value";
+                attributes = new MBeanAttributeInfo[]{new MBeanAttributeInfo(name, "long", metric.help, true, false, false)};
+            }
+            return new MBeanInfo(getClass().getName(), metric.help, attributes, null, null, null);
+        }
+    }
+}
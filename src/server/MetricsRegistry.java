@@ -0,0 +1,112 @@
+package server;
+
+import common.LatencyHistogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named latency histograms, counters and gauges.
+ * <p>
+ * Recording never takes a lock: histograms are {@link LatencyHistogram}s,
+ * counters are {@link LongAdder}s and gauges are read only when exported.
+ * Metrics are created once, typically into static fields of
+ * {@link ServerMetrics}, and {@link MetricsExporter} publishes them over JMX
+ * and HTTP.
+ */
+final class MetricsRegistry {
+    enum Kind { HISTOGRAM, COUNTER, GAUGE }
+
+    static final class Metric {
+        final String name;
+        final String help;
+        final Kind kind;
+        final Object value;
+
+        Metric(String name, String help, Kind kind, Object value) {
+            this.name = name;
+            this.help = help;
+            this.kind = kind;
+            this.value = value;
+        }
+
+        LatencyHistogram histogram() {
+            return (LatencyHistogram) value;
+        }
+
+        long longValue() {
+            return kind == Kind.COUNTER ? ((LongAdder) value).sum() : ((LongSupplier) value).getAsLong();
+        }
+    }
+
+    // Sorted, so exports list metrics in a stable order
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    LatencyHistogram histogram(String name, String help) {
+        return (LatencyHistogram) register(name, help, Kind.HISTOGRAM, new LatencyHistogram()).value;
+    }
+
+    LongAdder counter(String name, String help) {
+        return (LongAdder) register(name, help, Kind.COUNTER, new LongAdder()).value;
+    }
+
+    /**
+     * A value read on export; registering the name again replaces the supplier.
+     */
+    void gauge(String name, String help, LongSupplier value) {
+        metrics.put(name, new Metric(name, help, Kind.GAUGE, value));
+    }
+
+    private Metric register(String name, String help, Kind kind, Object value) {
+        Metric metric = metrics.computeIfAbsent(name, n -> new Metric(n, help, kind, value));
+        if (metric.kind != kind) {
+            throw new IllegalArgumentException("Metric " + name + " is already a " + metric.kind);
+        }
+        return metric;
+    }
+
+    Iterable<Metric> metrics() {
+        return metrics.values();
+    }
+
+    /**
+     * All metrics in the Prometheus text format. Histograms are summaries in
+     * seconds with p50, p90, p95, p99 and p99.9 quantiles.
+     */
+    String exposition() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics.values()) {
+            // HELP and TYPE must name the family the samples belong to, suffix included
+            String name = "jpoker24_" + metric.name
+                    + (metric.kind == Kind.HISTOGRAM ? "_seconds" : metric.kind == Kind.COUNTER ? "_total" : "");
+            out.append("# HELP ").append(name).append(' ').append(metric.help).append('\n');
+            switch (metric.kind) {
+                case HISTOGRAM:
+                    LatencyHistogram.Snapshot snapshot = metric.histogram().snapshot();
+                    out.append("# TYPE ").append(name).append(" summary\n");
+                    for (double q : new double[]{0.5, 0.9, 0.95, 0.99, 0.999}) {
+                        out.append(name).append("{quantile=\"").append(q).append("\"} ")
+                                .append(seconds(snapshot.percentileMicros(q * 100))).append('\n');
+                    }
+                    out.append(name).append("_sum ").append(seconds(snapshot.sumMicros())).append('\n');
+                    out.append(name).append("_count ").append(snapshot.count()).append('\n');
+                    break;
+                case COUNTER:
+                    out.append("# TYPE ").append(name).append(" counter\n");
+                    out.append(name).append(' ').append(metric.longValue()).append('\n');
+                    break;
+                default:
+                    out.append("# TYPE ").append(name).append(" gauge\n");
+                    out.append(name).append(' ').append(metric.longValue()).append('\n');
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    private static String seconds(long micros) {
+        return Double.toString(micros / 1e6);
+    }
+}
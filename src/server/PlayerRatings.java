@@ -0,0 +1,68 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Elo ratings the matchmaker groups players by.
+ * <p>
+ * Ratings live in memory. At startup every player with recorded games is
+ * seeded from their {@code user_stats} win rate, mapped onto the Elo scale, and
+ * each finished game with a winner then moves the ratings: the winner takes
+ * points from every other player at the table in proportion to how unexpected
+ * the win was. Players never seen before start at {@link #INITIAL}.
+ */
+final class PlayerRatings {
+    static final int INITIAL = 1500;
+    private static final double K = Double.parseDouble(System.getProperty("RATING_K", "32"));
+
+    private final ConcurrentHashMap<String, Double> ratings = new ConcurrentHashMap<>();
+
+    int rating(String username) {
+        return (int) Math.round(exact(username));
+    }
+
+    private double exact(String username) {
+        Double rating = ratings.get(username);
+        return rating == null ? INITIAL : rating;
+    }
+
+    /**
+     * Seed ratings from games played and won per user; ratings already known are kept.
+     */
+    void seed(Map<String, long[]> stats) {
+        for (Map.Entry<String, long[]> entry : stats.entrySet()) {
+            long played = entry.getValue()[0];
+            long won = entry.getValue()[1];
+            if (played == 0) {
+                continue;
+            }
+            // Laplace smoothing keeps one-game players near the middle
+            double winRate = (won + 1.0) / (played + 2.0);
+            ratings.putIfAbsent(entry.getKey(), INITIAL + 400 * Math.log10(winRate / (1 - winRate)));
+        }
+    }
+
+    /**
+     * Update the table's ratings after a game. Games without a winner change nothing.
+     * A player is at one table at a time, so concurrent calls never share a player.
+     */
+    void recordGame(Map<String, Boolean> results, String winner) {
+        if (winner == null || results.size() < 2) {
+            return;
+        }
+        double winnerRating = exact(winner);
+        double gained = 0;
+        for (String player : results.keySet()) {
+            if (player.equals(winner)) {
+                continue;
+            }
+            double loserRating = exact(player);
+            double expected = 1 / (1 + Math.pow(10, (loserRating - winnerRating) / 400));
+            double delta = K * (1 - expected) / (results.size() - 1);
+            ratings.put(player, loserRating - delta);
+            gained += delta;
+        }
+        ratings.put(winner, winnerRating + gained);
+    }
+}
@@ -0,0 +1,319 @@
+package server;
+
+import common.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Persisted catalog of every 24-game hand with a difficulty score.
+ * <p>
+ * The catalog is a fixed-layout binary file that is memory-mapped at startup, so
+ * the solver only runs the first time (or when the format changes). Each record
+ * holds the hand, its solution count and requirement flags from {@link SolverTable},
+ * a base difficulty derived from them, and the running mean of observed solve times.
+ * Observations are written straight into the mapping and survive restarts.
+ * <p>
+ * Solvable hands are split into {@link Band}s by score quantile. Each band is a
+ * plain index array, so drawing a hand of a given difficulty is O(1). Bands are
+ * rebuilt as observations accumulate, on a background thread that publishes the
+ * new arrays through volatile fields. Rooms on different loops record solve
+ * times under per-hand lock stripes, never a catalog-wide lock.
+ */
+final class PuzzleCatalog {
+    private static final Log LOG = Log.get("PuzzleCatalog");
+
+    enum Band { EASY, MEDIUM, HARD, EXPERT }
+
+    private static final int MAGIC = 0x50323443; // "P24C"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    // key(2) solutions(2) requirements(1) pad(3) baseScore(4) observedCount(4) observedMeanMs(4)
+    private static final int RECORD_SIZE = 20;
+    private static final int OFF_KEY = 0;
+    private static final int OFF_SOLUTIONS = 2;
+    private static final int OFF_REQUIREMENTS = 4;
+    private static final int OFF_BASE_SCORE = 8;
+    private static final int OFF_OBSERVED_COUNT = 12;
+    private static final int OFF_OBSERVED_MEAN = 16;
+
+    // Observations needed before solve times carry half the weight of the base score
+    private static final int OBSERVATION_WEIGHT = 20;
+    private static final int REBAND_EVERY = 200;
+    private static final long REBAND_CHECK_MS = 5000;
+    private static final int LOCK_STRIPES = 64;
+    // A round nobody solves is scored as taking the whole answer window
+    static final long MAX_SOLVE_MS = 60_000;
+
+    private final MappedByteBuffer buffer;
+    private final int handCount;
+    private final short[] indexByKey = new short[1 << 16];
+    private final Object[] stripes = new Object[LOCK_STRIPES];
+    private final AtomicInteger observationsSinceReband = new AtomicInteger();
+    private final ScheduledExecutorService rebander;
+
+    // [0] distinct-value hands, [1] all hands; replaced wholesale on reband
+    private volatile int[][][] bands;
+    private volatile int[][] solvable;
+
+    private PuzzleCatalog(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.handCount = buffer.getInt(8);
+        Arrays.fill(indexByKey, (short) -1);
+        for (int i = 0; i < handCount; i++) {
+            indexByKey[buffer.getShort(offset(i) + OFF_KEY) & 0xFFFF] = (short) i;
+        }
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+        rebuildBands();
+        rebander = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "puzzle-reband");
+            t.setDaemon(true);
+            return t;
+        });
+        rebander.scheduleWithFixedDelay(this::rebandIfDue, REBAND_CHECK_MS, REBAND_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Map the catalog at {@code path}, building it with the solver first if the
+     * file is missing or was written by an incompatible version.
+     */
+    static PuzzleCatalog open(String path, Supplier<SolverTable> solver) throws IOException {
+        File file = new File(path);
+        if (!isValid(file)) {
+            LOG.info("Building puzzle catalog at {}", file.getPath());
+            write(file, solver.get());
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            PuzzleCatalog catalog = new PuzzleCatalog(buffer);
+            LOG.info("Puzzle catalog loaded: {} hands, {} solvable", catalog.handCount, catalog.solvable[1].length);
+            return catalog;
+        }
+    }
+
+    private static boolean isValid(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int magic = raf.readInt();
+            int version = raf.readInt();
+            int count = raf.readInt();
+            int recordSize = raf.readInt();
+            return magic == MAGIC && version == VERSION && recordSize == RECORD_SIZE
+                    && file.length() == HEADER_SIZE + (long) count * RECORD_SIZE;
+        }
+    }
+
+    private static void write(File file, SolverTable table) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        int count = table.handCount();
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE);
+        out.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(RECORD_SIZE);
+        for (int i = 0; i < count; i++) {
+            int at = offset(i);
+            out.putShort(at + OFF_KEY, (short) table.handKey(i));
+            out.putShort(at + OFF_SOLUTIONS, (short) table.solutionCount(i));
+            out.put(at + OFF_REQUIREMENTS, (byte) table.requirements(i));
+            out.putFloat(at + OFF_BASE_SCORE, baseScore(table.solutionCount(i), table.requirements(i)));
+        }
+        // Write to a temp file first so a crash never leaves a half-written catalog
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            out.clear();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot move " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Difficulty from the solver alone, 0 (trivial) to 100: scarce solutions,
+     * needing × or ÷, and needing fractions all make a hand harder.
+     */
+    static float baseScore(int solutions, int requirements) {
+        if (solutions == 0) {
+            return 100f;
+        }
+        float scarcity = 40f * (1f - (float) Math.min(1.0, Math.log(solutions) / Math.log(64)));
+        float score = scarcity;
+        if ((requirements & SolverTable.NEEDS_MULTIPLY) != 0) score += 10f;
+        if ((requirements & SolverTable.NEEDS_DIVIDE) != 0) score += 15f;
+        if ((requirements & SolverTable.NEEDS_FRACTION) != 0) score += 35f;
+        return Math.min(100f, score);
+    }
+
+    int handCount() {
+        return handCount;
+    }
+
+    /**
+     * Index of the hand holding these cards in any order, or -1.
+     */
+    int indexOf(List<Integer> cards) {
+        if (cards.size() != SolverTable.HAND_SIZE) {
+            return -1;
+        }
+        int[] sorted = new int[SolverTable.HAND_SIZE];
+        for (int i = 0; i < sorted.length; i++) {
+            int card = cards.get(i);
+            if (card < SolverTable.MIN_CARD || card > SolverTable.MAX_CARD) {
+                return -1;
+            }
+            sorted[i] = card;
+        }
+        Arrays.sort(sorted);
+        return indexByKey[sorted[0] << 12 | sorted[1] << 8 | sorted[2] << 4 | sorted[3]];
+    }
+
+    int solutionCount(int index) {
+        return buffer.getShort(offset(index) + OFF_SOLUTIONS);
+    }
+
+    int requirements(int index) {
+        return buffer.get(offset(index) + OFF_REQUIREMENTS);
+    }
+
+    /**
+     * Current difficulty, blending the base score with observed solve times as
+     * they accumulate.
+     */
+    float score(int index) {
+        int at = offset(index);
+        float base = buffer.getFloat(at + OFF_BASE_SCORE);
+        int observed = buffer.getInt(at + OFF_OBSERVED_COUNT);
+        if (observed == 0) {
+            return base;
+        }
+        float observedScore = 100f * Math.min(1f, buffer.getFloat(at + OFF_OBSERVED_MEAN) / MAX_SOLVE_MS);
+        float weight = observed / (float) (observed + OBSERVATION_WEIGHT);
+        return base * (1 - weight) + observedScore * weight;
+    }
+
+    /**
+     * Draw a random solvable hand, in random card order.
+     *
+     * @param band difficulty band, or null for any solvable hand
+     */
+    List<Integer> drawHand(Random random, Band band, boolean allowDuplicates) {
+        int dup = allowDuplicates ? 1 : 0;
+        int[] pool = band == null ? solvable[dup] : bands[dup][band.ordinal()];
+        int index = pool[random.nextInt(pool.length)];
+        int key = buffer.getShort(offset(index) + OFF_KEY) & 0xFFFF;
+        List<Integer> cards = new ArrayList<>(SolverTable.HAND_SIZE);
+        for (int i = 0; i < SolverTable.HAND_SIZE; i++) {
+            cards.add((key >>> (12 - 4 * i)) & 0xF);
+        }
+        Collections.shuffle(cards, random);
+        return cards;
+    }
+
+    /**
+     * Fold one observed solve time (or {@link #MAX_SOLVE_MS} for an unsolved round)
+     * into the hand's running mean.
+     */
+    void recordSolveTime(int index, long solveMs) {
+        if (index < 0) {
+            return;
+        }
+        int at = offset(index);
+        float sample = Math.max(0, Math.min(MAX_SOLVE_MS, solveMs));
+        synchronized (stripes[index % LOCK_STRIPES]) {
+            int count = buffer.getInt(at + OFF_OBSERVED_COUNT);
+            float mean = buffer.getFloat(at + OFF_OBSERVED_MEAN);
+            count = count == Integer.MAX_VALUE ? count : count + 1;
+            buffer.putFloat(at + OFF_OBSERVED_MEAN, mean + (sample - mean) / count);
+            buffer.putInt(at + OFF_OBSERVED_COUNT, count);
+        }
+        observationsSinceReband.incrementAndGet();
+    }
+
+    /**
+     * Flush observed solve times to disk.
+     */
+    synchronized void force() {
+        buffer.force();
+    }
+
+    private void rebandIfDue() {
+        int observed = observationsSinceReband.get();
+        if (observed < REBAND_EVERY) {
+            return;
+        }
+        observationsSinceReband.addAndGet(-observed);
+        try {
+            rebuildBands();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to rebuild difficulty bands: {}", e.getMessage());
+        }
+    }
+
+    // Split solvable hands into equal-size bands ordered by current score; constructor or rebander thread
+    private void rebuildBands() {
+        int[][][] newBands = new int[2][][];
+        int[][] newSolvable = new int[2][];
+        for (int dup = 0; dup < 2; dup++) {
+            List<Integer> hands = new ArrayList<>();
+            for (int i = 0; i < handCount; i++) {
+                if (solutionCount(i) > 0 && (dup == 1 || isDistinct(i))) {
+                    hands.add(i);
+                }
+            }
+            float[] scores = new float[handCount];
+            for (int i : hands) {
+                scores[i] = score(i);
+            }
+            hands.sort((a, b) -> Float.compare(scores[a], scores[b]));
+            int[] all = new int[hands.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = hands.get(i);
+            }
+            Band[] values = Band.values();
+            newBands[dup] = new int[values.length][];
+            for (int b = 0; b < values.length; b++) {
+                int from = all.length * b / values.length;
+                int to = all.length * (b + 1) / values.length;
+                newBands[dup][b] = Arrays.copyOfRange(all, from, to);
+            }
+            newSolvable[dup] = all;
+        }
+        solvable = newSolvable;
+        bands = newBands;
+    }
+
+    private boolean isDistinct(int index) {
+        int key = buffer.getShort(offset(index) + OFF_KEY) & 0xFFFF;
+        int a = key >>> 12, b = (key >>> 8) & 0xF, c = (key >>> 4) & 0xF, d = key & 0xF;
+        return a != b && b != c && c != d;
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+}
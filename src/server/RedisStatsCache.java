@@ -0,0 +1,318 @@
+package server;
+
+import common.LeaderboardRequest;
+import common.LeaderboardResponse;
+import model.UserStats;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis view of the leaderboard and per-user stats.
+ * <p>
+ * Every operation is a server-side Lua script, so a leaderboard read, a single
+ * user's stats, or all the increments of one finished game each cost one round
+ * trip, and a game's increments are applied atomically. Scripts are invoked by
+ * SHA and re-sent in full only if Redis has lost them (restart or SCRIPT FLUSH).
+ * <p>
+ * The leaderboard sorted set holds every player, scored by {@link #rankScore} so
+ * that descending score order is the same as the SQL leaderboard order: most wins,
+ * then lowest average time to win, then username descending (which is how Redis
+ * breaks ties between equal scores). A user's rank is their {@code ZREVRANK}.
+ * <p>
+ * The scripts read per-user hashes they discover from the sorted set, which is
+ * fine on a single Redis node but would need hash tags under Cluster.
+ */
+final class RedisStatsCache {
+    private static final String FIELD_PLAYED = "games_played";
+    private static final String FIELD_WON = "games_won";
+    private static final String FIELD_TIME = "total_time_ms";
+
+    /** Bits of the rank score holding the inverted average time to win, in ms. */
+    static final int AVG_MS_BITS = 24;
+    /** Averages are capped here (about 4.6 hours), far beyond the answer timeout. */
+    static final long MAX_AVG_MS = (1L << AVG_MS_BITS) - 1;
+
+    // Same formula as rankScore(), shared by the scripts that change a user's stats
+    private static final String LUA_RANK_SCORE =
+            "local function rank_score(won, total)\n"
+            + "  local avg = 0\n"
+            + "  if won > 0 then avg = math.min(math.floor(total / won), " + MAX_AVG_MS + ") end\n"
+            + "  return string.format('%.0f', won * " + (MAX_AVG_MS + 1) + " + " + MAX_AVG_MS + " - avg)\n"
+            + "end\n";
+
+    // KEYS[1] leaderboard zset; ARGV[1] stats key prefix, ARGV[2] mode, ARGV[3] row count,
+    // ARGV[4] offset (offset mode) or radius (around mode), ARGV[5] cursor score, ARGV[6] cursor or centre user
+    // -> 0-based rank of the first row, then username, games_played, games_won, total_time_ms per row;
+    //    empty if there is no leaderboard
+    private static final Script LEADERBOARD_PAGE = new Script(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return {} end\n"
+            + "local start = tonumber(ARGV[4])\n"
+            + "if ARGV[2] == 'after' then\n"
+            // Resume right after the cursor user if their score has not moved, else after every higher score
+            + "  local s = redis.call('ZSCORE', KEYS[1], ARGV[6])\n"
+            + "  if s and tonumber(s) == tonumber(ARGV[5]) then\n"
+            + "    start = redis.call('ZREVRANK', KEYS[1], ARGV[6]) + 1\n"
+            + "  else\n"
+            + "    start = redis.call('ZCOUNT', KEYS[1], '(' .. ARGV[5], '+inf')\n"
+            // Ties come in descending username order, so those above the cursor user were on the last page
+            + "    for _, tied in ipairs(redis.call('ZRANGEBYSCORE', KEYS[1], ARGV[5], ARGV[5])) do\n"
+            + "      if tied > ARGV[6] then start = start + 1 end\n"
+            + "    end\n"
+            + "  end\n"
+            + "elseif ARGV[2] == 'around' then\n"
+            + "  local r = redis.call('ZREVRANK', KEYS[1], ARGV[6])\n"
+            + "  start = r and math.max(0, r - start) or 0\n"
+            + "end\n"
+            + "local users = redis.call('ZREVRANGE', KEYS[1], start, start + tonumber(ARGV[3]) - 1)\n"
+            + "local out = {start}\n"
+            + "for _, user in ipairs(users) do\n"
+            + "  local s = redis.call('HMGET', ARGV[1] .. user, '" + FIELD_PLAYED + "', '" + FIELD_WON + "', '" + FIELD_TIME + "')\n"
+            + "  out[#out + 1] = user\n"
+            + "  out[#out + 1] = s[1] or '0'\n"
+            + "  out[#out + 1] = s[2] or '0'\n"
+            + "  out[#out + 1] = s[3] or '0'\n"
+            + "end\n"
+            + "return out\n");
+
+    // KEYS[1] user stats hash, KEYS[2] leaderboard zset; ARGV[1] username
+    // -> games_played, games_won, total_time_ms, 0-based rank or -1; empty if the user is not cached
+    private static final Script USER_STATS = new Script(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return {} end\n"
+            + "local s = redis.call('HMGET', KEYS[1], '" + FIELD_PLAYED + "', '" + FIELD_WON + "', '" + FIELD_TIME + "')\n"
+            + "local rank = redis.call('ZREVRANK', KEYS[2], ARGV[1])\n"
+            + "return {s[1] or '0', s[2] or '0', s[3] or '0', rank or -1}\n");
+
+    // KEYS[1] leaderboard zset, KEYS[2..n] stats hash per player;
+    // ARGV[1] duration ms, then username and won flag (1/0) per player in KEYS order
+    private static final Script RECORD_GAME = new Script(
+            LUA_RANK_SCORE
+            + "local duration = tonumber(ARGV[1])\n"
+            + "for i = 2, #KEYS do\n"
+            + "  local user = ARGV[2 * i - 2]\n"
+            + "  redis.call('HINCRBY', KEYS[i], '" + FIELD_PLAYED + "', 1)\n"
+            + "  if ARGV[2 * i - 1] == '1' then\n"
+            + "    redis.call('HINCRBY', KEYS[i], '" + FIELD_WON + "', 1)\n"
+            + "    redis.call('HINCRBY', KEYS[i], '" + FIELD_TIME + "', duration)\n"
+            + "  end\n"
+            + "  local s = redis.call('HMGET', KEYS[i], '" + FIELD_WON + "', '" + FIELD_TIME + "')\n"
+            + "  redis.call('ZADD', KEYS[1], rank_score(tonumber(s[1] or '0'), tonumber(s[2] or '0')), user)\n"
+            + "end\n"
+            + "return #KEYS - 1\n");
+
+    private final JedisPool pool;
+    private final String leaderboardKey;
+    private final String statsPrefix;
+
+    RedisStatsCache(JedisPool pool, String leaderboardKey, String statsPrefix) {
+        this.pool = pool;
+        this.leaderboardKey = leaderboardKey;
+        this.statsPrefix = statsPrefix;
+    }
+
+    /**
+     * One page of the leaderboard in a single round trip, or null if Redis has no
+     * leaderboard. {@code limit} must already be validated.
+     */
+    LeaderboardResponse leaderboard(LeaderboardRequest request, int limit) {
+        String mode = "offset";
+        String position = String.valueOf(Math.max(0, request.getOffset()));
+        String cursorScore = "0";
+        String user = "";
+        LeaderboardCursor cursor = LeaderboardCursor.decode(request.getCursor());
+        if (cursor != null) {
+            mode = "after";
+            cursorScore = String.valueOf(score(cursor.gamesWon, cursor.avgMs));
+            user = cursor.username;
+        } else if (request.getAroundUser() != null) {
+            mode = "around";
+            position = String.valueOf(limit / 2);
+            user = request.getAroundUser();
+        }
+        List<?> rows;
+        try (Jedis jedis = pool.getResource()) {
+            // One extra row tells whether there is a next page
+            rows = (List<?>) LEADERBOARD_PAGE.eval(jedis, Collections.singletonList(leaderboardKey),
+                    Arrays.asList(statsPrefix, mode, String.valueOf(limit + 1), position, cursorScore, user));
+        }
+        if (rows.isEmpty()) {
+            return null;
+        }
+        int rank = ((Number) rows.get(0)).intValue() + 1;
+        List<UserStats> page = new ArrayList<>(limit);
+        String nextCursor = null;
+        for (int i = 1; i + 3 < rows.size(); i += 4) {
+            if (page.size() == limit) {
+                UserStats last = page.get(limit - 1);
+                nextCursor = LeaderboardCursor.after(last, Long.parseLong(String.valueOf(rows.get(i - 1)))).encode();
+                break;
+            }
+            page.add(toStats(String.valueOf(rows.get(i)), rows.get(i + 1), rows.get(i + 2), rows.get(i + 3), rank++));
+        }
+        return new LeaderboardResponse(page, nextCursor);
+    }
+
+    /**
+     * One user's cached stats, or null if Redis has none for them.
+     */
+    UserStats userStats(String username) {
+        List<String> keys = Arrays.asList(statsPrefix + username, leaderboardKey);
+        List<?> row;
+        try (Jedis jedis = pool.getResource()) {
+            row = (List<?>) USER_STATS.eval(jedis, keys, Collections.singletonList(username));
+        }
+        if (row.size() < 4) {
+            return null;
+        }
+        long index = ((Number) row.get(3)).longValue();
+        int rank = index < 0 ? 0 : (int) index + 1;
+        return toStats(username, row.get(0), row.get(1), row.get(2), rank);
+    }
+
+    /**
+     * Apply the stat increments of a batch of games. The batch is pipelined, so it
+     * costs one round trip, and each game is applied atomically by its own script call.
+     */
+    void recordGames(List<GameRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            String sha = RECORD_GAME.sha(jedis);
+            List<Response<Object>> responses = new ArrayList<>(records.size());
+            Pipeline pipeline = jedis.pipelined();
+            for (GameRecord record : records) {
+                responses.add(pipeline.evalsha(sha, recordKeys(record), recordArgs(record)));
+            }
+            pipeline.sync();
+            for (int i = 0; i < responses.size(); i++) {
+                try {
+                    responses.get(i).get();
+                } catch (JedisNoScriptException e) {
+                    // Script cache was flushed mid-batch; only the games that failed are resent
+                    GameRecord record = records.get(i);
+                    RECORD_GAME.eval(jedis, recordKeys(record), recordArgs(record));
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the leaderboard has to be rebuilt with {@link #seed}, i.e. Redis
+     * has no leaderboard yet (first start, flushed, or the key format changed).
+     */
+    boolean needsSeed() {
+        try (Jedis jedis = pool.getResource()) {
+            return !jedis.exists(leaderboardKey);
+        }
+    }
+
+    /**
+     * Replace the cached stats and leaderboard with {@code stats}
+     * (username -> games played, games won, total time to win in ms). The
+     * leaderboard is built under a temporary key and swapped in with RENAME, so
+     * readers never see it half-filled.
+     */
+    void seed(Map<String, long[]> stats) {
+        String buildKey = leaderboardKey + ":seed";
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.del(buildKey);
+            for (Map.Entry<String, long[]> entry : stats.entrySet()) {
+                long[] s = entry.getValue();
+                Map<String, String> fields = new HashMap<>();
+                fields.put(FIELD_PLAYED, String.valueOf(s[0]));
+                fields.put(FIELD_WON, String.valueOf(s[1]));
+                fields.put(FIELD_TIME, String.valueOf(s[2]));
+                pipeline.hset(statsPrefix + entry.getKey(), fields);
+                pipeline.zadd(buildKey, rankScore(s[1], s[2]), entry.getKey());
+            }
+            if (stats.isEmpty()) {
+                pipeline.del(leaderboardKey);
+            } else {
+                pipeline.rename(buildKey, leaderboardKey);
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Sortable leaderboard score: wins in the high bits and the inverted average
+     * time to win (capped at {@link #MAX_AVG_MS}) in the low {@link #AVG_MS_BITS},
+     * so more wins always ranks higher and a faster average breaks ties. Exact in
+     * a double for up to 2^29 wins.
+     */
+    static double rankScore(long gamesWon, long totalTimeMs) {
+        return score(gamesWon, LeaderboardCursor.avgMs(gamesWon, totalTimeMs));
+    }
+
+    private static long score(long gamesWon, long avgMs) {
+        return (gamesWon << AVG_MS_BITS) + MAX_AVG_MS - avgMs;
+    }
+
+    private List<String> recordKeys(GameRecord record) {
+        List<String> keys = new ArrayList<>(record.getResults().size() + 1);
+        keys.add(leaderboardKey);
+        for (String username : record.getResults().keySet()) {
+            keys.add(statsPrefix + username);
+        }
+        return keys;
+    }
+
+    private static List<String> recordArgs(GameRecord record) {
+        List<String> args = new ArrayList<>(record.getResults().size() * 2 + 1);
+        args.add(String.valueOf(record.getDurationMs()));
+        for (Map.Entry<String, Boolean> entry : record.getResults().entrySet()) {
+            args.add(entry.getKey());
+            args.add(entry.getValue() ? "1" : "0");
+        }
+        return args;
+    }
+
+    private static UserStats toStats(String username, Object played, Object won, Object totalTime, int rank) {
+        int gamesPlayed = Integer.parseInt(String.valueOf(played));
+        int gamesWon = Integer.parseInt(String.valueOf(won));
+        long totalTimeMs = Long.parseLong(String.valueOf(totalTime));
+        double avgTime = (gamesWon > 0) ? (totalTimeMs / 1000.0 / gamesWon) : 0.0;
+        return new UserStats(username, gamesPlayed, gamesWon, avgTime, rank);
+    }
+
+    /**
+     * A Lua script invoked by SHA, loading it on first use or after Redis forgets it.
+     */
+    private static final class Script {
+        private final String source;
+        private volatile String sha;
+
+        Script(String source) {
+            this.source = source;
+        }
+
+        String sha(Jedis jedis) {
+            String s = sha;
+            if (s == null) {
+                s = jedis.scriptLoad(source);
+                sha = s;
+            }
+            return s;
+        }
+
+        Object eval(Jedis jedis, List<String> keys, List<String> args) {
+            try {
+                return jedis.evalsha(sha(jedis), keys, args);
+            } catch (JedisNoScriptException e) {
+                sha = jedis.scriptLoad(source);
+                return jedis.evalsha(sha, keys, args);
+            }
+        }
+    }
+}
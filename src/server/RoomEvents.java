@@ -0,0 +1,24 @@
+package server;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Callbacks a {@link GameRoom} uses to reach the outside world. Each event loop
+ * gets its own instance, so implementations may hold per-thread resources such as
+ * a JMS session.
+ */
+interface RoomEvents {
+    /**
+     * Broadcast a payload to every client subscribed to the game topic.
+     *
+     * @param players the room's players, who must all be able to read the message
+     */
+    void publish(Serializable payload, Collection<String> players) throws Exception;
+
+    /**
+     * Called once per finished game with the per-player results.
+     */
+    void gameFinished(long roomId, long gameId, Map<String, Boolean> results, String winner, long startTime);
+}
@@ -0,0 +1,159 @@
+package server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import common.AnswerSubmission;
+import common.ExpressionEvaluator;
+import common.Log;
+
+/**
+ * Holds the independent game rooms and shards them across a fixed set of
+ * single-threaded event loops. A room always runs on loop {@code roomId % loops},
+ * so games on different loops progress in parallel.
+ * <p>
+ * New players queue in the {@link Matchmaker}; each table it forms becomes a
+ * fresh room whose game starts at once, and finished games update the
+ * {@link PlayerRatings} it matches by.
+ */
+class RoomManager {
+    private static final Log LOG = Log.get("RoomManager");
+    private static final Log.Sampler ANSWER_SAMPLE = new Log.Sampler();
+
+    private final ScheduledExecutorService[] loops;
+    private final RoomEvents[] loopEvents;
+    // Evaluators keep scratch state, so each loop gets its own
+    private final ExpressionEvaluator[] loopEvaluators;
+    private final PuzzleCatalog catalog;
+    private final PuzzleCatalog.Band difficulty;
+    private final AtomicLong nextRoomId = new AtomicLong(1);
+    // Starts at the clock in microseconds, so ids keep increasing across restarts
+    // unless a run averaged more than a million games a second
+    private final AtomicLong nextGameId = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final ConcurrentHashMap<Long, GameRoom> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, GameRoom> playerRooms = new ConcurrentHashMap<>();
+    private final AtomicInteger gamesInFlight = new AtomicInteger();
+    private final PlayerRatings ratings;
+    private final Matchmaker matchmaker;
+
+    /**
+     * @param difficulty band new rooms deal from, or null for any solvable hand
+     */
+    RoomManager(int loopCount, PuzzleCatalog catalog, PuzzleCatalog.Band difficulty, PlayerRatings ratings,
+                IntFunction<RoomEvents> eventsFactory) {
+        this.catalog = catalog;
+        this.difficulty = difficulty;
+        this.ratings = ratings;
+        loops = new ScheduledExecutorService[loopCount];
+        loopEvents = new RoomEvents[loopCount];
+        loopEvaluators = new ExpressionEvaluator[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            final int index = i;
+            loops[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "room-loop-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+            loopEvents[i] = eventsFactory.apply(i);
+            loopEvaluators[i] = new ExpressionEvaluator();
+        }
+        matchmaker = new Matchmaker(ratings, playerRooms::containsKey, this::seatTable);
+        LOG.info("Room manager started with {} event loops", loopCount);
+    }
+
+    void handleJoinRequest(String username) {
+        if (ServerBots.isBot(username)) {
+            LOG.warn("Rejected join with a reserved bot name: {}", username);
+            return;
+        }
+        matchmaker.join(username, System.nanoTime());
+    }
+
+    void handleAnswerSubmission(AnswerSubmission answer) {
+        GameRoom room = playerRooms.get(answer.getUsername());
+        if (room == null) {
+            LOG.debug(ANSWER_SAMPLE, "No room for answer from {}", answer.getUsername());
+            return;
+        }
+        long receivedAt = System.nanoTime();
+        room.execute(() -> {
+            ServerMetrics.GAME_MESSAGE_DELAY.recordSince(receivedAt);
+            room.handleAnswerSubmission(answer);
+        });
+    }
+
+    int activeRooms() {
+        return rooms.size();
+    }
+
+    int gamesInFlight() {
+        return gamesInFlight.get();
+    }
+
+    int activePlayers() {
+        return playerRooms.size() + matchmaker.waiting();
+    }
+
+    int waitingPlayers() {
+        return matchmaker.waiting();
+    }
+
+    long joinsPerMinute() {
+        return matchmaker.joinsPerMinute();
+    }
+
+    long shortTableWaitMs() {
+        return matchmaker.shortTableWaitMs();
+    }
+
+    /**
+     * Count a new game and assign its id. Called from a room's loop when its game starts.
+     */
+    long gameStarted() {
+        gamesInFlight.incrementAndGet();
+        ServerMetrics.GAMES_STARTED.increment();
+        return nextGameId.getAndIncrement();
+    }
+
+    void shutdown() {
+        matchmaker.shutdown();
+        for (ScheduledExecutorService loop : loops) {
+            loop.shutdownNow();
+        }
+    }
+
+    // Called on the matchmaker thread; the players are marked as playing before it takes another join
+    private void seatTable(List<String> players) {
+        long roomId = nextRoomId.getAndIncrement();
+        int shard = (int) (roomId % loops.length);
+        GameRoom room = new GameRoom(roomId, loops[shard], loopEvents[shard], loopEvaluators[shard], catalog, difficulty, this);
+        rooms.put(roomId, room);
+        for (String player : players) {
+            // Bots answer from inside the room, so only players need routing
+            if (!ServerBots.isBot(player)) {
+                playerRooms.put(player, room);
+            }
+        }
+        room.execute(() -> room.startGame(players));
+    }
+
+    void playerLeft(String username, GameRoom room) {
+        playerRooms.remove(username, room);
+    }
+
+    /**
+     * Record the finished game and forget the room. Called from the room's loop once its game has finished.
+     */
+    void roomClosed(GameRoom room, Map<String, Boolean> results, String winner) {
+        // Bots have no rating, and wins against them would only inflate the players'
+        if (!room.hasBots()) {
+            ratings.recordGame(results, winner);
+        }
+        gamesInFlight.decrementAndGet();
+        ServerMetrics.GAMES_FINISHED.increment();
+        rooms.remove(room.getRoomId());
+    }
+}
@@ -0,0 +1,63 @@
+package server;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-side bot players that fill tables which would otherwise not start.
+ * <p>
+ * When the {@link Matchmaker} would give up on a lone player, it seats bots up
+ * to {@link Matchmaker#MIN_PLAYERS} instead ({@code -DSERVER_BOTS=false} turns
+ * this off). A bot answers through {@link SolverTable#solve} after a think time
+ * drawn from a log-normal distribution around {@code -DSERVER_BOT_MEDIAN_MS}
+ * with shape {@code -DSERVER_BOT_SPREAD}, stretched for harder hands, and gets
+ * the answer right with probability {@code -DSERVER_BOT_ACCURACY}.
+ * <p>
+ * Bots are named with {@link #NAME_PREFIX}, which players cannot join with.
+ * Their results are left out of {@code user_stats}, Redis, Kafka and the
+ * ratings; the players they sat with are recorded as usual.
+ */
+final class ServerBots {
+    static final String NAME_PREFIX = "[bot] ";
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("SERVER_BOTS", "true"));
+    private static final long MEDIAN_MS = Long.parseLong(System.getProperty("SERVER_BOT_MEDIAN_MS", "8000"));
+    private static final double SPREAD = Double.parseDouble(System.getProperty("SERVER_BOT_SPREAD", "0.5"));
+    private static final double ACCURACY = Double.parseDouble(System.getProperty("SERVER_BOT_ACCURACY", "0.8"));
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private ServerBots() {
+    }
+
+    static boolean isBot(String username) {
+        return username.startsWith(NAME_PREFIX);
+    }
+
+    static String newName() {
+        return NAME_PREFIX + NEXT_ID.getAndIncrement();
+    }
+
+    /**
+     * How long a bot takes on a hand.
+     *
+     * @param difficulty the hand's catalog score, 0 (trivial) to 100
+     */
+    static long thinkMs(Random random, float difficulty) {
+        double stretch = 0.5 + difficulty / 100.0;
+        return (long) (MEDIAN_MS * stretch * Math.exp(SPREAD * random.nextGaussian()));
+    }
+
+    /**
+     * The bot's answer: the solver's, or a wrong one that uses the same cards.
+     */
+    static String answer(Random random, List<Integer> cards) {
+        String solution = random.nextDouble() < ACCURACY ? SolverTable.solve(cards) : null;
+        if (solution != null) {
+            return solution;
+        }
+        int a = cards.get(0), b = cards.get(1), c = cards.get(2), d = cards.get(3);
+        // a+b+c-d is 24 - 2d when the sum is 24, so one of the two is always wrong
+        return a + b + c + d != 24 ? a + "+" + b + "+" + c + "+" + d : a + "+" + b + "+" + c + "-" + d;
+    }
+}
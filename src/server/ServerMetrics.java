@@ -0,0 +1,60 @@
+package server;
+
+import common.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The server's metrics. They are static so the hot paths that record them need
+ * no plumbing; gauges over per-instance state are registered when the server starts.
+ */
+final class ServerMetrics {
+    static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    static final LatencyHistogram GAME_MESSAGE_DELAY = REGISTRY.histogram("game_message_delay",
+            "Game queue message received to handled on its room loop");
+    static final LatencyHistogram ANSWER_VALIDATION = REGISTRY.histogram("answer_validation",
+            "Card check and evaluation of one submitted answer");
+    static final LatencyHistogram TIME_TO_MATCH = REGISTRY.histogram("time_to_match",
+            "Player joined the matchmaking queue to seated at a table");
+    static final LatencyHistogram STATS_DB_FLUSH = REGISTRY.histogram("stats_db_flush",
+            "JDBC batch upsert and commit of persisted game results");
+    static final LatencyHistogram DB_READ = REGISTRY.histogram("db_read",
+            "Leaderboard or user stats query against MySQL");
+    static final LatencyHistogram REDIS_READ = REGISTRY.histogram("redis_read",
+            "Leaderboard or user stats read from Redis");
+    static final LatencyHistogram REDIS_WRITE = REGISTRY.histogram("redis_write",
+            "Redis stats update for a batch of persisted games");
+    static final LatencyHistogram KAFKA_SEND = REGISTRY.histogram("kafka_send",
+            "Handing one analytics event to the Kafka producer");
+    static final LatencyHistogram KAFKA_ACK = REGISTRY.histogram("kafka_ack",
+            "Analytics event handed to the Kafka producer to acknowledged by the brokers");
+    static final LatencyHistogram OUTBOX_APPEND = REGISTRY.histogram("outbox_append",
+            "Encoding one analytics event and appending it to the local outbox");
+    static final LatencyHistogram STATS_REQUEST = REGISTRY.histogram("stats_request",
+            "Leaderboard or user stats request handled by a stats worker");
+
+    static final LongAdder GAMES_STARTED = REGISTRY.counter("games_started", "Games started");
+    static final LongAdder GAMES_FINISHED = REGISTRY.counter("games_finished", "Games finished");
+    static final LongAdder ANSWERS = REGISTRY.counter("answers", "Answers submitted while a game was running");
+    static final LongAdder TABLES_FULL = REGISTRY.counter("tables_full", "Tables started with every seat taken");
+    static final LongAdder TABLES_SHORT = REGISTRY.counter("tables_short",
+            "Tables started short because the missing players were not expected in time");
+    static final LongAdder PLAYERS_UNMATCHED = REGISTRY.counter("players_unmatched",
+            "Players dropped from matchmaking without a table");
+    static final LongAdder STATS_QUEUE_OVERFLOW = REGISTRY.counter("stats_queue_overflow",
+            "Finished games left in the journal because the stats queue was full");
+    static final LongAdder KAFKA_ERRORS = REGISTRY.counter("kafka_errors", "Analytics events Kafka failed to deliver");
+    static final LongAdder KAFKA_BUFFER_EXHAUSTED = REGISTRY.counter("kafka_buffer_exhausted",
+            "Analytics events rejected because the producer buffer was full");
+    static final LongAdder KAFKA_SHED = REGISTRY.counter("kafka_shed",
+            "Analytics events dropped because too many were awaiting acknowledgement");
+    static final LongAdder OUTBOX_RELAYED = REGISTRY.counter("outbox_relayed",
+            "Analytics events relayed from the outbox and acknowledged by Kafka");
+    static final LongAdder OUTBOX_DROPPED = REGISTRY.counter("outbox_dropped",
+            "Analytics events dropped because the outbox backlog was full");
+    static final LongAdder BOT_SEATS = REGISTRY.counter("bot_seats", "Server bots seated to fill short tables");
+
+    private ServerMetrics() {
+    }
+}
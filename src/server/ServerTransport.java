@@ -0,0 +1,54 @@
+package server;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * How the server exchanges messages with clients: a game queue it consumes, a
+ * stats queue whose requests it answers, and a game topic it broadcasts on.
+ * {@link JmsServerTransport} binds these to the GlassFish destinations;
+ * {@link InMemoryServerTransport} binds them to an in-process
+ * {@link common.InMemoryBroker}, so the engine can run without an app server.
+ * <p>
+ * Publishers and stats workers are set up before {@link #start()}.
+ */
+interface ServerTransport extends AutoCloseable {
+    /**
+     * Broadcasts on the game topic for one room event loop.
+     */
+    interface Publisher {
+        /**
+         * @param players the room's players, who must all be able to read the message
+         */
+        void publish(Serializable payload, Collection<String> players) throws Exception;
+    }
+
+    /**
+     * Turns a stats request payload into the reply payload, or null if there is nothing to send.
+     */
+    interface RequestHandler {
+        Serializable handle(Object request) throws Exception;
+    }
+
+    /**
+     * A publisher owned by one room loop; it is only ever used from that loop's thread.
+     */
+    Publisher openPublisher(int loopIndex) throws Exception;
+
+    /**
+     * Answer stats-queue requests with {@code workerCount} concurrent workers.
+     */
+    void serveStats(int workerCount, RequestHandler handler) throws Exception;
+
+    void start() throws Exception;
+
+    /**
+     * Deliver game-queue payloads to {@code handler} on the calling thread until the
+     * transport is closed.
+     */
+    void runGameQueue(Consumer<Object> handler) throws Exception;
+
+    @Override
+    void close();
+}
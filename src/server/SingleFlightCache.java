@@ -0,0 +1,183 @@
+package server;
+
+import common.Log;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Read-through cache that coalesces concurrent loads of the same key and serves
+ * stale values while refreshing them.
+ * <p>
+ * A value is fresh for {@code freshMs} after it was loaded and not invalidated
+ * since. After that, for up to {@code maxStaleMs}, callers still get the old value
+ * immediately while a single background reload replaces it. Only a missing or
+ * too-old value makes callers wait, and then all callers for that key wait on
+ * the same load. {@link #invalidateAll()} and {@link #invalidate} mark values
+ * stale rather than dropping them, so a burst of requests right after a write
+ * costs one backend fetch per key.
+ */
+final class SingleFlightCache<K, V> {
+    private static final Log LOG = Log.get("SingleFlightCache");
+
+    private final Function<K, V> loader;
+    private final long freshMs;
+    private final long maxStaleMs;
+    private final int maxEntries;
+    private final Executor refresher;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    // Bumped by invalidateAll(); values loaded under an older generation are stale
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    private static final class Entry<V> {
+        V value;
+        long loadedAt;
+        long generation = -1;
+        CompletableFuture<V> loading;
+    }
+
+    SingleFlightCache(Function<K, V> loader, long freshMs, long maxStaleMs, int maxEntries, Executor refresher) {
+        this.loader = loader;
+        this.freshMs = freshMs;
+        this.maxStaleMs = Math.max(freshMs, maxStaleMs);
+        this.maxEntries = maxEntries;
+        this.refresher = refresher;
+    }
+
+    V get(K key) {
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evictExpired();
+        }
+        Entry<V> entry = entries.computeIfAbsent(key, k -> new Entry<>());
+        CompletableFuture<V> pending = null;
+        boolean leader = false;
+        V stale = null;
+        CompletableFuture<V> inlineRefresh = null;
+        synchronized (entry) {
+            long now = System.currentTimeMillis();
+            if (entry.value != null) {
+                long age = now - entry.loadedAt;
+                if (age < freshMs && entry.generation == generation.get()) {
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+                if (age < maxStaleMs) {
+                    staleHits.incrementAndGet();
+                    if (entry.loading != null) {
+                        return entry.value;
+                    }
+                    CompletableFuture<V> refresh = new CompletableFuture<>();
+                    entry.loading = refresh;
+                    try {
+                        refresher.execute(() -> load(key, entry, refresh));
+                        return entry.value;
+                    } catch (RejectedExecutionException e) {
+                        // The refresher is shut down; this caller reloads, outside the lock
+                        inlineRefresh = refresh;
+                        stale = entry.value;
+                    }
+                }
+            }
+            if (inlineRefresh == null) {
+                if (entry.loading == null) {
+                    entry.loading = new CompletableFuture<>();
+                    leader = true;
+                }
+                pending = entry.loading;
+            }
+        }
+        if (inlineRefresh != null) {
+            // load() always completes the future and clears entry.loading, so no caller hangs on it
+            load(key, entry, inlineRefresh);
+            return stale;
+        }
+        if (leader) {
+            load(key, entry, pending);
+        }
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void load(K key, Entry<V> entry, CompletableFuture<V> future) {
+        long loadGeneration = generation.get();
+        loads.incrementAndGet();
+        try {
+            V value = loader.apply(key);
+            synchronized (entry) {
+                if (value != null) {
+                    entry.value = value;
+                    entry.loadedAt = System.currentTimeMillis();
+                    // An invalidation during the load leaves the new value already stale
+                    entry.generation = loadGeneration;
+                }
+                entry.loading = null;
+            }
+            future.complete(value);
+        } catch (RuntimeException e) {
+            synchronized (entry) {
+                entry.loading = null;
+            }
+            LOG.warn("Cache load failed for {}: {}", key, e.getMessage());
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Mark every value stale; they are still served while being reloaded.
+     */
+    void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Mark one key's value stale.
+     */
+    void invalidate(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.generation = -1;
+            }
+        }
+    }
+
+    // Drop values too old to be served; if that frees nothing, start over
+    private void evictExpired() {
+        long cutoff = System.currentTimeMillis() - maxStaleMs;
+        for (Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Entry<V> entry = it.next().getValue();
+            synchronized (entry) {
+                if (entry.loading == null && entry.loadedAt < cutoff) {
+                    it.remove();
+                }
+            }
+        }
+        if (entries.size() >= maxEntries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "entries=" + entries.size() + " hits=" + hits.get() + " staleHits=" + staleHits.get()
+                + " loads=" + loads.get();
+    }
+}
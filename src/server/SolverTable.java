@@ -0,0 +1,308 @@
+package server;
+
+import common.Log;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed answers for every possible 24-game hand.
+ * <p>
+ * There are only 1820 multisets of four card values in 1-13 (715 with distinct
+ * values), so the table solves each of them once at startup, in parallel, and keeps
+ * the outcome in primitive arrays indexed by hand. A hand is identified by its
+ * sorted values packed four bits each, which maps to the hand index through a
+ * direct lookup array, so every query and every deal is O(1).
+ * <p>
+ * The table is immutable once built and safe to share between room loops. It is
+ * public so the load generator's bots can answer from it too.
+ */
+public final class SolverTable {
+    private static final Log LOG = Log.get("SolverTable");
+
+    static final int HAND_SIZE = 4;
+    static final int MIN_CARD = 1;
+    static final int MAX_CARD = 13;
+    private static final int TARGET = 24;
+
+    /** Every solution multiplies or divides somewhere. */
+    static final int NEEDS_MULTIPLY = 1;
+    /** Every solution divides somewhere. */
+    static final int NEEDS_DIVIDE = 2;
+    /** Every solution goes through a non-integer intermediate value. */
+    static final int NEEDS_FRACTION = 4;
+
+    private final int[] handKeys;
+    private final short[] indexByKey = new short[1 << 16];
+    private final short[] solutionCounts;
+    private final byte[] requirements;
+    private final String[] solutions;
+    private final int[] solvableDistinct;
+    private final int[] solvableAll;
+
+    private SolverTable(int[] handKeys) {
+        this.handKeys = handKeys;
+        this.solutionCounts = new short[handKeys.length];
+        this.requirements = new byte[handKeys.length];
+        this.solutions = new String[handKeys.length];
+        Arrays.fill(indexByKey, (short) -1);
+        for (int i = 0; i < handKeys.length; i++) {
+            indexByKey[handKeys[i]] = (short) i;
+        }
+
+        // Each hand is independent, so the solver fans out across all cores
+        IntStream.range(0, handKeys.length).parallel().forEach(this::solveHand);
+
+        int distinct = 0;
+        int all = 0;
+        for (int i = 0; i < handKeys.length; i++) {
+            if (solutionCounts[i] > 0) {
+                all++;
+                if (isDistinct(handKeys[i])) distinct++;
+            }
+        }
+        solvableAll = new int[all];
+        solvableDistinct = new int[distinct];
+        all = 0;
+        distinct = 0;
+        for (int i = 0; i < handKeys.length; i++) {
+            if (solutionCounts[i] > 0) {
+                solvableAll[all++] = i;
+                if (isDistinct(handKeys[i])) solvableDistinct[distinct++] = i;
+            }
+        }
+    }
+
+    /**
+     * Enumerate and solve every hand.
+     */
+    public static SolverTable build() {
+        long start = System.currentTimeMillis();
+        int[] keys = new int[1820];
+        int n = 0;
+        for (int a = MIN_CARD; a <= MAX_CARD; a++)
+            for (int b = a; b <= MAX_CARD; b++)
+                for (int c = b; c <= MAX_CARD; c++)
+                    for (int d = c; d <= MAX_CARD; d++)
+                        keys[n++] = pack(a, b, c, d);
+        SolverTable table = new SolverTable(Arrays.copyOf(keys, n));
+        LOG.info("Solver table built: {}/{} hands solvable ({} with distinct values) in {} ms", table.solvableAll.length, n, table.solvableDistinct.length, System.currentTimeMillis() - start);
+        return table;
+    }
+
+    int handCount() {
+        return handKeys.length;
+    }
+
+    /**
+     * Index of the hand holding these four values, in any order.
+     */
+    int indexOf(int a, int b, int c, int d) {
+        // Sorting network for four values
+        int t;
+        if (a > b) { t = a; a = b; b = t; }
+        if (c > d) { t = c; c = d; d = t; }
+        if (a > c) { t = a; a = c; c = t; }
+        if (b > d) { t = b; b = d; d = t; }
+        if (b > c) { t = b; b = c; c = t; }
+        if (a < MIN_CARD || d > MAX_CARD) {
+            return -1;
+        }
+        return indexByKey[pack(a, b, c, d)];
+    }
+
+    public int indexOf(List<Integer> cards) {
+        if (cards.size() != HAND_SIZE) {
+            return -1;
+        }
+        return indexOf(cards.get(0), cards.get(1), cards.get(2), cards.get(3));
+    }
+
+    boolean isSolvable(int index) {
+        return solutionCounts[index] > 0;
+    }
+
+    /**
+     * Number of distinct solutions, counting commutative variants of + and × once.
+     */
+    int solutionCount(int index) {
+        return solutionCounts[index];
+    }
+
+    /**
+     * Bit set of {@link #NEEDS_MULTIPLY}, {@link #NEEDS_DIVIDE} and
+     * {@link #NEEDS_FRACTION} that hold for every solution of the hand.
+     */
+    int requirements(int index) {
+        return requirements[index];
+    }
+
+    /**
+     * A canonical solution for the hand (the shortest, then alphabetically first),
+     * or null if the hand has none.
+     */
+    public String solution(int index) {
+        return solutions[index];
+    }
+
+    /**
+     * Card value at position {@code i} (0-3) of the sorted hand.
+     */
+    int card(int index, int i) {
+        return (handKeys[index] >>> (12 - 4 * i)) & 0xF;
+    }
+
+    /**
+     * Sorted card values packed four bits each, highest nibble first.
+     */
+    int handKey(int index) {
+        return handKeys[index];
+    }
+
+    /**
+     * Draw a random solvable hand in random card order.
+     *
+     * @param allowDuplicates whether a hand may hold the same value more than once
+     */
+    List<Integer> drawSolvableHand(Random random, boolean allowDuplicates) {
+        int[] pool = allowDuplicates ? solvableAll : solvableDistinct;
+        return dealHand(pool[random.nextInt(pool.length)], random);
+    }
+
+    /**
+     * The cards of a hand, shuffled so the sorted order does not leak the hand index.
+     */
+    List<Integer> dealHand(int index, Random random) {
+        List<Integer> cards = new ArrayList<>(HAND_SIZE);
+        for (int i = 0; i < HAND_SIZE; i++) {
+            cards.add(card(index, i));
+        }
+        Collections.shuffle(cards, random);
+        return cards;
+    }
+
+    private static int pack(int a, int b, int c, int d) {
+        return a << 12 | b << 8 | c << 4 | d;
+    }
+
+    private static boolean isDistinct(int key) {
+        int a = key >>> 12, b = (key >>> 8) & 0xF, c = (key >>> 4) & 0xF, d = key & 0xF;
+        return a != b && b != c && c != d;
+    }
+
+    private void solveHand(int index) {
+        int[] cards = new int[HAND_SIZE];
+        for (int i = 0; i < HAND_SIZE; i++) {
+            cards[i] = card(index, i);
+        }
+        Search search = search(cards);
+        String best = canonical(search.found);
+        solutionCounts[index] = (short) Math.min(search.found.size(), Short.MAX_VALUE);
+        requirements[index] = (byte) (best == null ? 0 : search.required);
+        solutions[index] = best;
+    }
+
+    /**
+     * Solve one hand without the table: the same canonical solution as
+     * {@link #solution(int)}, or null. A single search takes well under a
+     * millisecond, so callers that need a few answers need not build the table.
+     */
+    static String solve(List<Integer> cards) {
+        int[] values = new int[cards.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = cards.get(i);
+        }
+        Arrays.sort(values);
+        return canonical(search(values).found);
+    }
+
+    private static Search search(int[] cards) {
+        long[] num = new long[cards.length];
+        long[] den = new long[cards.length];
+        int[] flags = new int[cards.length];
+        String[] expr = new String[cards.length];
+        for (int i = 0; i < cards.length; i++) {
+            num[i] = cards[i];
+            den[i] = 1;
+            expr[i] = Integer.toString(cards[i]);
+        }
+        Search search = new Search();
+        search.solve(num, den, flags, expr, cards.length);
+        return search;
+    }
+
+    // The shortest solution, then the alphabetically first
+    private static String canonical(Set<String> found) {
+        String best = null;
+        for (String s : found) {
+            if (best == null || s.length() < best.length()
+                    || (s.length() == best.length() && s.compareTo(best) < 0)) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Exhaustive search over one hand. Each step replaces a pair of values with
+     * their combination and recurses until one value is left. Alongside each value
+     * it tracks which operators and whether fractions were needed to reach it.
+     */
+    private static final class Search {
+        final Set<String> found = new HashSet<>();
+        int required = NEEDS_MULTIPLY | NEEDS_DIVIDE | NEEDS_FRACTION;
+
+        void solve(long[] num, long[] den, int[] flags, String[] expr, int n) {
+            if (n == 1) {
+                if (den[0] != 0 && num[0] == TARGET * den[0]) {
+                    found.add(stripOuterParens(expr[0]));
+                    required &= flags[0];
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    long an = num[i], ad = den[i], bn = num[j], bd = den[j];
+                    int af = flags[i], bf = flags[j];
+                    String ae = expr[i], be = expr[j];
+                    // Move the last value into slot j, and write the combination into slot i
+                    num[j] = num[n - 1]; den[j] = den[n - 1]; flags[j] = flags[n - 1]; expr[j] = expr[n - 1];
+                    int f = af | bf;
+
+                    combine(num, den, flags, expr, i, an * bd + bn * ad, ad * bd, f, "(" + ae + "+" + be + ")", n);
+                    combine(num, den, flags, expr, i, an * bd - bn * ad, ad * bd, f, "(" + ae + "-" + be + ")", n);
+                    combine(num, den, flags, expr, i, bn * ad - an * bd, ad * bd, f, "(" + be + "-" + ae + ")", n);
+                    combine(num, den, flags, expr, i, an * bn, ad * bd, f | NEEDS_MULTIPLY, "(" + ae + "×" + be + ")", n);
+                    if (bn != 0) {
+                        combine(num, den, flags, expr, i, an * bd, ad * bn, f | NEEDS_MULTIPLY | NEEDS_DIVIDE,
+                                "(" + ae + "÷" + be + ")", n);
+                    }
+                    if (an != 0) {
+                        combine(num, den, flags, expr, i, bn * ad, bd * an, f | NEEDS_MULTIPLY | NEEDS_DIVIDE,
+                                "(" + be + "÷" + ae + ")", n);
+                    }
+
+                    num[i] = an; den[i] = ad; flags[i] = af; expr[i] = ae;
+                    num[j] = bn; den[j] = bd; flags[j] = bf; expr[j] = be;
+                }
+            }
+        }
+
+        private void combine(long[] num, long[] den, int[] flags, String[] expr, int slot,
+                             long n, long d, int f, String e, int count) {
+            if (d < 0) {
+                n = -n;
+                d = -d;
+            }
+            num[slot] = n;
+            den[slot] = d;
+            flags[slot] = (d != 0 && n % d != 0) ? f | NEEDS_FRACTION : f;
+            expr[slot] = e;
+            solve(num, den, flags, expr, count - 1);
+        }
+    }
+
+    private static String stripOuterParens(String e) {
+        return e.startsWith("(") && e.endsWith(")") ? e.substring(1, e.length() - 1) : e;
+    }
+}
@@ -0,0 +1,122 @@
+package server;
+
+import common.Log;
+import common.WireCodec;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves leaderboard and user-stats requests from the stats queue with a pool
+ * of workers.
+ * <p>
+ * JMS sessions are single-threaded, so every worker owns a session with its own
+ * consumer on the queue (the broker spreads messages across them) and one
+ * anonymous producer that sends each reply to the request's JMSReplyTo, in the
+ * binary {@link WireCodec} format if the requester advertised it. Workers
+ * never touch the session that consumes the game queue, so slow Redis or
+ * database reads cannot hold up gameplay.
+ */
+final class StatsService {
+    private static final Log LOG = Log.get("StatsService");
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final boolean binaryReplies;
+    private volatile boolean running = true;
+
+    /**
+     * @param binaryReplies answer clients that advertise the binary codec in that format
+     */
+    StatsService(Connection connection, Queue statsQueue, int workerCount, boolean binaryReplies,
+                 ServerTransport.RequestHandler handler) throws JMSException {
+        this.binaryReplies = binaryReplies;
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            workers.add(new Worker(i, session, session.createConsumer(statsQueue), session.createProducer(null), handler));
+        }
+    }
+
+    void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        LOG.info("Stats service started with {} workers", workers.size());
+    }
+
+    void close() {
+        running = false;
+        for (Worker worker : workers) {
+            try {
+                // Unblocks receive() in the worker
+                worker.session.close();
+            } catch (JMSException e) {
+                LOG.warn("Error closing stats worker session: {}", e.getMessage());
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final Session session;
+        private final MessageConsumer consumer;
+        private final MessageProducer replies;
+        private final ServerTransport.RequestHandler handler;
+        private final Thread thread;
+
+        Worker(int index, Session session, MessageConsumer consumer, MessageProducer replies,
+               ServerTransport.RequestHandler handler) {
+            this.session = session;
+            this.consumer = consumer;
+            this.replies = replies;
+            this.handler = handler;
+            this.thread = new Thread(this, "stats-worker-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Message msg;
+                try {
+                    msg = consumer.receive();
+                } catch (JMSException e) {
+                    if (running) {
+                        LOG.warn("Stats worker stopped: {}", e.getMessage());
+                    }
+                    return;
+                }
+                if (msg == null) {
+                    return; // Consumer closed
+                }
+                try {
+                    serve(msg);
+                } catch (Exception e) {
+                    // A bad request must not take the worker down
+                    LOG.warn("Error serving stats request: {}", e.getMessage());
+                }
+            }
+        }
+
+        private void serve(Message msg) throws Exception {
+            Object request = WireCodec.fromMessage(msg);
+            if (request == null) {
+                return;
+            }
+            Serializable response = handler.handle(request);
+            Destination replyDest = msg.getJMSReplyTo();
+            if (response != null && replyDest != null) {
+                // Reply in the format the requester advertised
+                boolean binary = binaryReplies && WireCodec.acceptsBinary(msg);
+                replies.send(replyDest, WireCodec.toMessage(session, response, binary));
+            }
+        }
+    }
+}
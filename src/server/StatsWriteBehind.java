@@ -0,0 +1,510 @@
+package server;
+
+import common.Log;
+
+import java.io.*;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind pipeline for game results.
+ * <p>
+ * Rooms hand finished games to {@link #submit}, which puts them on a lock-free
+ * handoff queue; it never touches the disk or MySQL and never waits. The
+ * journal thread appends each record to a local journal segment and then queues
+ * it for the worker. The worker drains the queue when {@code flushGames} records
+ * are waiting or {@code flushIntervalMs} has passed, coalesces the per-user deltas
+ * of every drained game and applies them to {@code user_stats} as one batched
+ * upsert. The queue is bounded: when the database falls behind and it fills,
+ * further records are only journaled, and the worker reads them back from the
+ * segment when it drains it. Records that cannot be journaled are kept in memory
+ * past the bound, as it holds their only copy.
+ * <p>
+ * Each drain rotates the journal, and the newest drained segment is recorded in
+ * {@code stats_journal_checkpoint} inside the same transaction as the upsert. On
+ * startup any segment newer than the checkpoint is replayed, so a server crash
+ * loses no journaled results and never applies a game twice. Records are handed
+ * to the OS as they are journaled but not forced to disk, so a crash can still
+ * take the few waiting for the journal thread, and a power loss the newest ones.
+ */
+final class StatsWriteBehind {
+    private static final Log LOG = Log.get("StatsWriteBehind");
+
+    /**
+     * Notified on the worker thread after records have been committed.
+     */
+    interface FlushListener {
+        void flushed(List<GameRecord> records);
+    }
+
+    private static final String SEGMENT_PREFIX = "stats-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final long RETRY_DELAY_MS = 5000;
+    // Tells the journal thread that close() was called
+    private static final GameRecord END_OF_JOURNAL = new GameRecord(0, 0, Collections.emptyMap(), null, 0, 0);
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO user_stats (username, games_played, games_won, total_time) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE games_played = games_played + VALUES(games_played), " +
+            "games_won = games_won + VALUES(games_won), total_time = total_time + VALUES(total_time)";
+    private static final String CHECKPOINT_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS stats_journal_checkpoint (" +
+            "id TINYINT PRIMARY KEY, last_segment BIGINT NOT NULL)";
+    private static final String CHECKPOINT_SQL =
+            "INSERT INTO stats_journal_checkpoint (id, last_segment) VALUES (1, ?) " +
+            "ON DUPLICATE KEY UPDATE last_segment = GREATEST(last_segment, VALUES(last_segment))";
+
+    private final File journalDir;
+    private final int capacity;
+    private final int flushGames;
+    private final long flushIntervalMs;
+    private final FlushListener listener;
+
+    private final LinkedTransferQueue<GameRecord> submitted = new LinkedTransferQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<GameRecord> pending = new ArrayDeque<>();
+    // Records of the current segment that are only in the journal, and ones that failed to reach it
+    private int overflowed;
+    private final List<GameRecord> unjournaled = new ArrayList<>();
+    private long oldestPendingAt;
+    private long segmentSeq;
+    private DataOutputStream segmentOut;
+    // Set when a write failed; the rest of the segment would sit behind a torn frame
+    private boolean segmentBroken;
+    private boolean closing;
+
+    // Worker-only state: drained but not yet committed
+    private final List<GameRecord> unflushed = new ArrayList<>();
+    private final Map<String, long[]> deltas = new HashMap<>();
+    private long unflushedSegment;
+
+    private Thread journal;
+    private Thread worker;
+
+    StatsWriteBehind(File journalDir, int capacity, int flushGames, long flushIntervalMs, FlushListener listener) {
+        this.journalDir = journalDir;
+        this.capacity = capacity;
+        this.flushGames = Math.min(flushGames, capacity);
+        this.flushIntervalMs = flushIntervalMs;
+        this.listener = listener;
+    }
+
+    /**
+     * Replay uncommitted journal segments and start the worker.
+     */
+    void start() throws IOException {
+        if (!journalDir.isDirectory() && !journalDir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + journalDir);
+        }
+        long checkpoint = readCheckpoint();
+        long newest = 0;
+        for (long seq : listSegments()) {
+            newest = Math.max(newest, seq);
+            File file = segmentFile(seq);
+            if (seq <= checkpoint) {
+                file.delete();
+                continue;
+            }
+            List<GameRecord> replayed = readSegment(file);
+            LOG.info("Replaying {} game results from {}", replayed.size(), file.getName());
+            for (GameRecord record : replayed) {
+                accumulate(record);
+            }
+            unflushedSegment = Math.max(unflushedSegment, seq);
+        }
+        segmentSeq = Math.max(System.currentTimeMillis(), Math.max(newest, checkpoint) + 1);
+        segmentOut = openSegment(segmentSeq);
+
+        journal = new Thread(this::runJournal, "stats-journal");
+        journal.setDaemon(true);
+        journal.start();
+        worker = new Thread(this::runWorker, "stats-write-behind");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Hand a finished game to the journal thread, which journals it and queues it
+     * for the database. Never waits and takes no lock.
+     */
+    void submit(GameRecord record) {
+        submitted.add(record);
+    }
+
+    private void runJournal() {
+        while (true) {
+            GameRecord record;
+            try {
+                record = submitted.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (record == END_OF_JOURNAL) {
+                return;
+            }
+            journal(record, frame(record));
+        }
+    }
+
+    // Journal thread only; the lock is shared with the worker alone
+    private void journal(GameRecord record, byte[] frame) {
+        lock.lock();
+        try {
+            if (waiting() == 0) {
+                oldestPendingAt = System.currentTimeMillis();
+            }
+            boolean journaled = false;
+            if (!segmentBroken) {
+                try {
+                    segmentOut.write(frame);
+                    segmentOut.flush();
+                    journaled = true;
+                } catch (IOException e) {
+                    LOG.warn("Failed to journal game result, keeping the rest of the segment in memory: {}", e.getMessage());
+                    segmentBroken = true;
+                }
+            }
+            if (!journaled) {
+                // Memory is its only copy, so it is kept even past the queue's capacity
+                unjournaled.add(record);
+            } else if (pending.size() >= capacity) {
+                overflowed++;
+                ServerMetrics.STATS_QUEUE_OVERFLOW.increment();
+            } else {
+                pending.add(record);
+            }
+            if (waiting() >= flushGames) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Games submitted and not yet taken by the worker.
+     */
+    int pending() {
+        lock.lock();
+        try {
+            return waiting();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock
+    private int waiting() {
+        return pending.size() + overflowed + unjournaled.size();
+    }
+
+    /**
+     * Journal and flush everything still queued and stop both threads.
+     */
+    void close() {
+        submitted.add(END_OF_JOURNAL);
+        if (journal != null) {
+            try {
+                journal.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.lock();
+        try {
+            closing = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (worker != null) {
+            try {
+                worker.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            boolean stop;
+            long replaySeq = 0;
+            int replayCount = 0;
+            List<GameRecord> queuedCopies = null;
+            lock.lock();
+            try {
+                while (!closing && unflushed.isEmpty() && waiting() < flushGames) {
+                    long now = System.currentTimeMillis();
+                    if (waiting() > 0 && now >= oldestPendingAt + flushIntervalMs) {
+                        break;
+                    }
+                    long wait = waiting() == 0 ? flushIntervalMs : oldestPendingAt + flushIntervalMs - now;
+                    notEmpty.await(wait, TimeUnit.MILLISECONDS);
+                }
+                stop = closing;
+                // Only take more work while the uncommitted backlog is within bounds
+                if (waiting() > 0 && unflushed.size() < capacity) {
+                    if (overflowed > 0) {
+                        // The segment holds the queued records first, then the overflow; read them
+                        // all back once it is closed, falling back to these copies if that fails
+                        replaySeq = segmentSeq;
+                        replayCount = pending.size() + overflowed;
+                        queuedCopies = new ArrayList<>(pending);
+                        pending.clear();
+                        overflowed = 0;
+                    }
+                    while (!pending.isEmpty()) {
+                        accumulate(pending.poll());
+                    }
+                    for (GameRecord record : unjournaled) {
+                        accumulate(record);
+                    }
+                    unjournaled.clear();
+                    unflushedSegment = segmentSeq;
+                    rotateSegment();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            if (replaySeq != 0) {
+                replayOverflow(segmentFile(replaySeq), replayCount, queuedCopies);
+            }
+            if (!unflushed.isEmpty() && !flush() && !stop) {
+                sleep(RETRY_DELAY_MS);
+            }
+            if (stop) {
+                if (!unflushed.isEmpty()) {
+                    LOG.warn("{} game results left in the journal for the next start", unflushed.size());
+                }
+                lock.lock();
+                try {
+                    if (!unjournaled.isEmpty()) {
+                        LOG.warn("{} game results could not be journaled and are lost", unjournaled.size());
+                    }
+                    closeSegment();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    private void replayOverflow(File file, int expected, List<GameRecord> queuedCopies) {
+        List<GameRecord> replayed;
+        try {
+            replayed = readSegment(file);
+        } catch (IOException e) {
+            LOG.warn("Failed to read back {}: {}", file.getName(), e.getMessage());
+            replayed = Collections.emptyList();
+        }
+        if (replayed.size() >= expected) {
+            for (GameRecord record : replayed) {
+                accumulate(record);
+            }
+            return;
+        }
+        // The queued records are the segment's first ones, so only overflow past the readable prefix is gone
+        LOG.warn("Read back {} of {} game results from {}; {} are lost", replayed.size(), expected, file.getName(),
+                expected - Math.max(replayed.size(), queuedCopies.size()));
+        for (GameRecord record : queuedCopies) {
+            accumulate(record);
+        }
+        for (int i = queuedCopies.size(); i < replayed.size(); i++) {
+            accumulate(replayed.get(i));
+        }
+    }
+
+    private void accumulate(GameRecord record) {
+        unflushed.add(record);
+        for (Map.Entry<String, Boolean> entry : record.getResults().entrySet()) {
+            long[] delta = deltas.computeIfAbsent(entry.getKey(), k -> new long[3]);
+            delta[0]++;
+            if (entry.getValue()) {
+                delta[1]++;
+                delta[2] += record.getDurationMs();
+            }
+        }
+    }
+
+    // One transaction: a single batched upsert for all coalesced users plus the journal checkpoint
+    private boolean flush() {
+        long flushStart = System.nanoTime();
+        try (Connection conn = DBUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(UPSERT_SQL);
+                 PreparedStatement checkpoint = conn.prepareStatement(CHECKPOINT_SQL)) {
+                for (Map.Entry<String, long[]> entry : deltas.entrySet()) {
+                    long[] delta = entry.getValue();
+                    ps.setString(1, entry.getKey());
+                    ps.setLong(2, delta[0]);
+                    ps.setLong(3, delta[1]);
+                    ps.setLong(4, delta[2]);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                checkpoint.setLong(1, unflushedSegment);
+                checkpoint.executeUpdate();
+                conn.commit();
+                ServerMetrics.STATS_DB_FLUSH.recordSince(flushStart);
+            } catch (SQLException e) {
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            LOG.warn("DB persistence error, will retry {} game results: {}", unflushed.size(), e.getMessage());
+            return false;
+        }
+        LOG.info("Persisted {} game results for {} users", unflushed.size(), deltas.size());
+        for (long seq : listSegments()) {
+            if (seq <= unflushedSegment) {
+                segmentFile(seq).delete();
+            }
+        }
+        List<GameRecord> committed = new ArrayList<>(unflushed);
+        unflushed.clear();
+        deltas.clear();
+        try {
+            listener.flushed(committed);
+        } catch (RuntimeException e) {
+            LOG.warn("Post-persist listener failed: {}", e.getMessage());
+        }
+        return true;
+    }
+
+    private long readCheckpoint() {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(CHECKPOINT_TABLE_SQL);
+            try (ResultSet rs = stmt.executeQuery("SELECT last_segment FROM stats_journal_checkpoint WHERE id = 1")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            // Without the checkpoint every segment is replayed; the flush retries until MySQL is back
+            LOG.warn("Could not read journal checkpoint: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    private static byte[] frame(GameRecord record) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+            record.writeTo(new DataOutputStream(body));
+            byte[] bytes = body.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteArrayOutputStream framed = new ByteArrayOutputStream(bytes.length + 8);
+            DataOutputStream out = new DataOutputStream(framed);
+            out.writeInt(bytes.length);
+            out.writeInt((int) crc.getValue());
+            out.write(bytes);
+            return framed.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Reads framed records up to the first torn or corrupt one
+    private static List<GameRecord> readSegment(File file) throws IOException {
+        List<GameRecord> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int expected = in.readInt();
+                if (length <= 0 || length > 1 << 20) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != expected) {
+                    LOG.warn("Corrupt record in {}, stopping replay of it", file.getName());
+                    break;
+                }
+                records.add(GameRecord.readFrom(new DataInputStream(new ByteArrayInputStream(bytes))));
+            }
+        } catch (EOFException e) {
+            LOG.warn("Torn record at the end of {}", file.getName());
+        }
+        return records;
+    }
+
+    private void rotateSegment() {
+        closeSegment();
+        segmentSeq = Math.max(segmentSeq + 1, System.currentTimeMillis());
+        try {
+            segmentOut = openSegment(segmentSeq);
+            segmentBroken = false;
+        } catch (IOException e) {
+            LOG.warn("Failed to open journal segment: {}", e.getMessage());
+            // Every write fails, so records stay in memory until a later rotation opens a segment
+            segmentOut = new DataOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("No journal segment open");
+                }
+            });
+        }
+    }
+
+    private void closeSegment() {
+        try {
+            if (segmentOut != null) segmentOut.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close journal segment: {}", e.getMessage());
+        }
+    }
+
+    private DataOutputStream openSegment(long seq) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile(seq), true)));
+    }
+
+    private File segmentFile(long seq) {
+        return new File(journalDir, SEGMENT_PREFIX + seq + SEGMENT_SUFFIX);
+    }
+
+    private long[] listSegments() {
+        String[] names = journalDir.list((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (names == null) {
+            return new long[0];
+        }
+        long[] seqs = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            seqs[i] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(), names[i].length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(seqs);
+        return seqs;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package server;
+
+import common.AnswerSubmission;
+import common.CardDrawMessage;
+import common.ClientTransport;
+import common.GameResult;
+import common.GameStartNotification;
+import common.InMemoryBroker;
+import common.JoinGameRequest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One game played end to end against an in-process server over an
+ * {@link InMemoryBroker} that round-trips every payload through the wire codec:
+ * players join, a table starts and deals, its first player answers with the
+ * solver's solution and wins.
+ * <p>
+ * Runs without MySQL, Redis or Kafka; the server logs their absence and carries on.
+ */
+public final class InMemoryRoundTripTest {
+    private static final long TIMEOUT_MS = 15_000;
+    private static final List<String> PLAYERS = Arrays.asList("rt-alice", "rt-bob", "rt-carol", "rt-dave");
+
+    private InMemoryRoundTripTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        InMemoryBroker broker = new InMemoryBroker(true);
+        JPoker24GameServer server = new JPoker24GameServer(broker);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "test-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        LinkedBlockingQueue<Object> broadcasts = new LinkedBlockingQueue<>();
+        ClientTransport client = broker.connectClient();
+        try {
+            client.setTopicListener(broadcasts::add);
+            client.setReplyListener(payload -> { });
+            client.start();
+            for (String player : PLAYERS) {
+                client.sendGame(new JoinGameRequest(player));
+            }
+
+            // The matchmaker may split the players over more than one table; follow the first
+            GameStartNotification start = next(broadcasts, GameStartNotification.class, -1);
+            check(start.getPlayers().size() >= 2 && PLAYERS.containsAll(start.getPlayers()),
+                    "only joined players seated, got " + start.getPlayers());
+            check(start.getGameId() != 0, "game id assigned");
+            CardDrawMessage draw = next(broadcasts, CardDrawMessage.class, start.getRoomId());
+            String solution = SolverTable.solve(draw.getCards());
+            check(solution != null, "dealt hand " + draw.getCards() + " is solvable");
+
+            String winner = start.getPlayers().get(0);
+            client.sendGame(new AnswerSubmission(winner, solution, System.currentTimeMillis(), draw.getCards()));
+            GameResult result = next(broadcasts, GameResult.class, start.getRoomId());
+            check(result.getGameId() == start.getGameId(), "result for the started game");
+            check(winner.equals(result.getWinner()), "winner " + winner + ", got " + result.getWinner());
+            check(Boolean.TRUE.equals(result.getPlayerResults().get(winner)), "winner marked as won");
+            System.out.println("InMemoryRoundTripTest passed: " + draw.getCards() + " solved as " + solution);
+        } finally {
+            client.close();
+            server.shutdown();
+            broker.close();
+        }
+        System.exit(0);
+    }
+
+    // The next broadcast of the given type for the room (any room if -1), skipping all others
+    private static <T> T next(LinkedBlockingQueue<Object> broadcasts, Class<T> type, long roomId)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            Object payload = broadcasts.poll(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (payload == null) {
+                fail("no " + type.getSimpleName() + " within " + TIMEOUT_MS + " ms");
+            }
+            if (type.isInstance(payload) && (roomId == -1 || roomOf(payload) == roomId)) {
+                return type.cast(payload);
+            }
+        }
+    }
+
+    private static long roomOf(Object payload) {
+        if (payload instanceof CardDrawMessage) {
+            return ((CardDrawMessage) payload).getRoomId();
+        }
+        if (payload instanceof GameResult) {
+            return ((GameResult) payload).getRoomId();
+        }
+        return ((GameStartNotification) payload).getRoomId();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            fail(what);
+        }
+    }
+
+    private static void fail(String message) {
+        System.err.println("InMemoryRoundTripTest FAILED: " + message);
+        System.exit(1);
+    }
+}